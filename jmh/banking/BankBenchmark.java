@@ -0,0 +1,165 @@
+package banking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * Measures the bank operations end to end, through {@link BankingSystem},
+ * on a temporary database preloaded with "cards" accounts: the per-request
+ * helpers (checksum, card number, PIN, login, account lookup) and the
+ * create, income and transfer scenarios, each with one thread and with four.
+ * Other thread counts can be set with JMH's "-t" option.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BankBenchmark {
+    private static final long START_BALANCE = 1_000_000_000L;
+
+    @Param({"1000", "100000"})
+    int cards;
+
+    TestDatabase database;
+    BankingSystem bank;
+    String[] numbers;
+    int[] pins;
+    UserAccount[] accounts;
+
+    @Setup
+    public void setup() {
+        database = new TestDatabase("bench");
+        BankingSystem.dbManager = new DBManager();
+        bank = new BankingSystem(database.args("-bulkTuning"));
+        bank.bulkCreateAccounts(cards);
+        List<String> cardList = new ArrayList<>();
+        List<Integer> pinList = new ArrayList<>();
+        BankingSystem.dbManager.selectAllCards((id, number, pin, balance, currency) -> {
+            cardList.add(number);
+            pinList.add(Integer.parseInt(pin));
+        });
+        numbers = cardList.toArray(new String[0]);
+        pins = new int[numbers.length];
+        accounts = new UserAccount[numbers.length];
+        Map<String, Long> balances = new HashMap<>();
+        for (int i = 0; i < numbers.length; i++) {
+            pins[i] = pinList.get(i);
+            accounts[i] = bank.registry.get(numbers[i]);
+            accounts[i].setBalance(START_BALANCE);
+            balances.put(numbers[i], START_BALANCE);
+        }
+        BankingSystem.dbManager.updateBalances(balances);
+    }
+
+    @TearDown
+    public void tearDown() {
+        bank.shutdown();
+        database.delete();
+    }
+
+    /**
+     * Per-thread random choice of accounts.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        final SplittableRandom random = new SplittableRandom();
+
+        int next(int bound) {
+            return random.nextInt(bound);
+        }
+    }
+
+    @Benchmark
+    public int findChecksum(Cursor cursor) {
+        return bank.findChecksum(numbers[cursor.next(numbers.length)].substring(0, 15));
+    }
+
+    @Benchmark
+    public String generateCardNumber() {
+        return bank.generateCardNumber();
+    }
+
+    @Benchmark
+    public int generatePIN() {
+        return bank.generatePIN();
+    }
+
+    @Benchmark
+    public UserAccount checkCredentials(Cursor cursor) {
+        int i = cursor.next(numbers.length);
+        return bank.authenticate(numbers[i], pins[i], "benchmark");
+    }
+
+    @Benchmark
+    public boolean accountExists(Cursor cursor) {
+        return bank.accountExists(numbers[cursor.next(numbers.length)]);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public UserAccount createAccount() {
+        return bank.openAccount();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public UserAccount createAccountContended() {
+        return bank.openAccount();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long income(Cursor cursor) {
+        return bank.deposit(accounts[cursor.next(accounts.length)], 1);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long incomeContended(Cursor cursor) {
+        return bank.deposit(accounts[cursor.next(accounts.length)], 1);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public TransferEngine.Result transfer(Cursor cursor) {
+        return transferBetweenRandomCards(cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public TransferEngine.Result transferContended(Cursor cursor) {
+        return transferBetweenRandomCards(cursor);
+    }
+
+    private TransferEngine.Result transferBetweenRandomCards(Cursor cursor) {
+        UserAccount from = accounts[cursor.next(accounts.length)];
+        return bank.transfer(from, numbers[cursor.next(numbers.length)], 1);
+    }
+}
@@ -0,0 +1,98 @@
+package banking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * Measures logins per second with {@link CredentialStore} (verifiers cached
+ * in memory), against the plain PIN comparison it replaced.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CredentialBenchmark {
+    private static final int CARDS = 4096;
+
+    CredentialStore store;
+    String[] cards = new String[CARDS];
+    int[] pins = new int[CARDS];
+    UserAccount[] accounts = new UserAccount[CARDS];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        byte[] pepper = new byte[32];
+        random.nextBytes(pepper);
+        store = new CredentialStore(null, pepper);
+        for (int i = 0; i < CARDS; i++) {
+            long card = CardNumberIssuer.cardNumber(i);
+            cards[i] = CardNumberIssuer.format(card);
+            pins[i] = random.nextInt(10_000);
+            store.remember(cards[i], store.newVerifier(card, pins[i]));
+            accounts[i] = new UserAccount(cards[i], pins[i], 0);
+        }
+    }
+
+    /**
+     * Per-thread position in the card arrays.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+
+        int next() {
+            index = (index + 1) & (CARDS - 1);
+            return index;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean verifyLogin(Cursor cursor) {
+        int i = cursor.next();
+        return store.verify(cards[i], pins[i]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean verifyLoginContended(Cursor cursor) {
+        int i = cursor.next();
+        return store.verify(cards[i], pins[i]);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean verifyWrongPin(Cursor cursor) {
+        int i = cursor.next();
+        return store.verify(cards[i], (pins[i] + 1) % 10_000);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean plainPinCompare(Cursor cursor) {
+        int i = cursor.next();
+        return accounts[i].getPIN() == pins[i];
+    }
+}
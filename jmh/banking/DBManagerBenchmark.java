@@ -0,0 +1,217 @@
+package banking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * Measures each {@link DBManager} operation against a temporary SQLite file
+ * holding "cards" cards, with the card cache on and off, with queries
+ * going through the shared pool or through "-readPool" read-only connections,
+ * and with the cards in one file or split into "-shards" files (see {@link ShardedDBManager}).
+ * Every trial starts from a new file; operations that add cards use numbers
+ * outside the preloaded range.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DBManagerBenchmark {
+    private static final int BATCH = 1_000;
+
+    @Param({"1000", "100000"})
+    int cards;
+
+    @Param({"0", "10000"})
+    int cacheSize;
+
+    @Param({"0", "4"})
+    int readPool;
+
+    @Param({"1", "4"})
+    int shards;
+
+    TestDatabase database;
+    DBManager dbManager;
+    String[] numbers;
+    int[] ids;
+    byte[] verifier = new byte[CredentialStore.VERIFIER_SIZE];
+    Random random = new Random(42);
+    AtomicLong nextIndex;
+    String[] batchNumbers = new String[BATCH];
+    int[] batchPins = new int[BATCH];
+    byte[][] batchVerifiers = new byte[BATCH][];
+
+    @Setup
+    public void setup() {
+        database = new TestDatabase("bench");
+        dbManager = shards > 1 ? new ShardedDBManager() : new DBManager();
+        dbManager.setup(database.args("-cacheSize", String.valueOf(cacheSize), "-readPool", String.valueOf(readPool),
+                "-shards", String.valueOf(shards), "-bulkTuning"));
+        numbers = new String[cards];
+        int[] pins = new int[cards];
+        byte[][] verifiers = new byte[cards][];
+        for (int i = 0; i < cards; i++) {
+            numbers[i] = CardNumberIssuer.format(CardNumberIssuer.cardNumber(i));
+            pins[i] = random.nextInt(10_000);
+            verifiers[i] = verifier;
+        }
+        dbManager.insertBatch(numbers, pins, verifiers, cards);
+        Map<String, Long> balances = new HashMap<>();
+        for (String number : numbers) {
+            balances.put(number, 1_000_000L);
+        }
+        dbManager.updateBalances(balances);
+        ids = new int[cards];
+        int[] loaded = new int[1];
+        dbManager.selectAllCards((id, number, pin, balance, currency) -> ids[loaded[0]++] = id);
+        nextIndex = new AtomicLong(cards);
+        for (int i = 0; i < BATCH; i++) {
+            batchVerifiers[i] = verifier;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        dbManager.close();
+        database.delete();
+    }
+
+    private String anyCard() {
+        return numbers[random.nextInt(cards)];
+    }
+
+    private String newCard() {
+        return CardNumberIssuer.format(CardNumberIssuer.cardNumber(nextIndex.getAndIncrement()));
+    }
+
+    @Benchmark
+    public int selectIDByCard() {
+        return dbManager.selectIDByCard(anyCard());
+    }
+
+    @Benchmark
+    public long selectBalanceByCard() {
+        return dbManager.selectBalanceByCard(anyCard());
+    }
+
+    @Benchmark
+    public byte[] selectCredential() {
+        return dbManager.selectCredential(anyCard());
+    }
+
+    @Benchmark
+    public boolean credit() {
+        return dbManager.credit(anyCard(), 1);
+    }
+
+    @Benchmark
+    public void update() {
+        dbManager.update(ids[random.nextInt(cards)], 1_000_000);
+    }
+
+    @Benchmark
+    public TransferEngine.Result transfer() {
+        String from = anyCard();
+        String to = anyCard();
+        // money goes back and forth, so balances stay around their starting value
+        return dbManager.transfer(from, dbManager.currency, to, dbManager.currency, 1, 1);
+    }
+
+    @Benchmark
+    public boolean insert() {
+        return dbManager.insert(newCard(), 1234, 0, verifier);
+    }
+
+    /**
+     * Inserts and deletes a card, so the table keeps its size.
+     */
+    @Benchmark
+    public void insertAndDelete() {
+        String card = newCard();
+        dbManager.insert(card, 1234, 0, verifier);
+        dbManager.deleteCard(card);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int insertBatch() {
+        for (int i = 0; i < BATCH; i++) {
+            batchNumbers[i] = newCard();
+            batchPins[i] = i;
+        }
+        return dbManager.insertBatch(batchNumbers, batchPins, batchVerifiers, BATCH);
+    }
+
+    /**
+     * Credential lookups of three threads while a fourth one keeps crediting cards.
+     */
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(3)
+    public byte[] readWhileWritingLookup() {
+        return dbManager.selectCredential(numbers[ThreadLocalRandom.current().nextInt(cards)]);
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    public boolean readWhileWritingCredit() {
+        return dbManager.credit(numbers[ThreadLocalRandom.current().nextInt(cards)], 1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int selectAllCards() {
+        int[] sum = new int[1];
+        dbManager.selectAllCards((id, number, pin, balance, currency) -> sum[0] += id);
+        return sum[0];
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int exportSnapshot() {
+        int[] count = new int[1];
+        return dbManager.exportSnapshot(new DBManager.SnapshotRowHandler() {
+            @Override
+            public void card(String number, String pin, long balance, String currency, byte[] verifier) {
+                count[0]++;
+            }
+
+            @Override
+            public void wallet(String number, String currency, long balance) {
+                count[0]++;
+            }
+        });
+    }
+}
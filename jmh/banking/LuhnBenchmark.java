@@ -0,0 +1,111 @@
+package banking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * Compares {@link Luhn} with the original, string-based findChecksum.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LuhnBenchmark {
+    private static final int BATCH = 1024;
+
+    String[] payloads = new String[BATCH];
+    String[] numbers = new String[BATCH];
+    long[] numericPayloads = new long[BATCH];
+    boolean[] results = new boolean[BATCH];
+    int index;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < BATCH; i++) {
+            long payload = 400000_000000000L + random.nextInt(1_000_000_000);
+            payloads[i] = Long.toString(payload);
+            numericPayloads[i] = payload;
+            numbers[i] = payloads[i] + Luhn.checksum(payload);
+        }
+    }
+
+    private String nextPayload() {
+        index = (index + 1) & (BATCH - 1);
+        return payloads[index];
+    }
+
+    @Benchmark
+    public int legacyFindChecksum() {
+        return legacyFindChecksum(nextPayload());
+    }
+
+    @Benchmark
+    public int checksumCharSequence() {
+        return Luhn.checksum(nextPayload());
+    }
+
+    @Benchmark
+    public int checksumLong() {
+        index = (index + 1) & (BATCH - 1);
+        return Luhn.checksum(numericPayloads[index]);
+    }
+
+    @Benchmark
+    public boolean isValid() {
+        index = (index + 1) & (BATCH - 1);
+        return Luhn.isValid(numbers[index]);
+    }
+
+    @Benchmark
+    public void validateAll(Blackhole bh) {
+        bh.consume(Luhn.validateAll(numbers, results));
+    }
+
+    /**
+     * Copy of BankingSystem.findChecksum as it was before Luhn was introduced.
+     */
+    static int legacyFindChecksum(String accountNumber) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= accountNumber.length(); i++) {
+            if (i % 2 != 0) {
+                int num = Integer.valueOf(String.valueOf(accountNumber.charAt(i - 1)));
+                num = num * 2;
+                if (num > 9) {
+                    num = num - 9;
+                }
+                sb.append(num);
+            } else {
+                sb.append(accountNumber.charAt(i - 1));
+            }
+        }
+        String processedNumber = sb.toString();
+        int sum = 0;
+        for (int j = 0; j < processedNumber.length(); j++) {
+            sum += Integer.valueOf(processedNumber.charAt(j));
+        }
+        int checksum = 10 - (sum % 10);
+        return checksum == 10 ? 0 : checksum;
+    }
+}
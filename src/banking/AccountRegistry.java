@@ -0,0 +1,151 @@
+package banking;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * AccountRegistry holds all accounts in memory, keyed by card number.
+ * It is filled from the card table when the program starts, and then
+ * kept in step with accounts created and closed by the program.
+ * All methods are safe to call from many threads.
+ * Optionally, a {@link CompactCardIndex} is kept next to the map; it then
+ * answers existence checks and database ID lookups.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class AccountRegistry {
+    private final ConcurrentHashMap<String, UserAccount> accounts = new ConcurrentHashMap<>();
+    private volatile CompactCardIndex cardIndex;
+
+    /**
+     * Starts keeping a compact index of all registered accounts.
+     *
+     * @return The index, filled with accounts registered so far.
+     */
+    public CompactCardIndex enableCompactIndex() {
+        CompactCardIndex index = new CompactCardIndex(Math.max(accounts.size() * 2, 1024));
+        for (UserAccount account : accounts.values()) {
+            indexAccount(index, account);
+        }
+        cardIndex = index;
+        return index;
+    }
+
+    /**
+     * @return The compact index, or null if it's not enabled.
+     */
+    public CompactCardIndex getCompactIndex() {
+        return cardIndex;
+    }
+
+    private static void indexAccount(CompactCardIndex index, UserAccount account) {
+        long card = CardNumberIssuer.parse(account.getCardNumber());
+        if (card > 0) {
+            index.put(card, account.getPIN(), account.getId(), account.getBalance());
+        }
+    }
+
+    /**
+     * Copies balance of the account to the compact index, if enabled.
+     *
+     * @param account Account whose balance changed.
+     */
+    public void balanceChanged(UserAccount account) {
+        CompactCardIndex index = cardIndex;
+        if (index != null) {
+            index.setBalance(CardNumberIssuer.parse(account.getCardNumber()), account.getBalance());
+        }
+    }
+
+    /**
+     * Loads all cards, and their balances in other currencies, from the database.
+     *
+     * @param dbManager Database to load from.
+     * @return Number of accounts loaded.
+     */
+    public int load(DBManager dbManager) {
+        int count = dbManager.selectAllCards((id, number, pin, balance, currency) -> {
+            UserAccount account = new UserAccount(number, parsePIN(pin), balance, currency);
+            account.setId(id);
+            accounts.put(number, account);
+        });
+        dbManager.selectWallets((number, currency, balance) -> {
+            UserAccount account = accounts.get(number);
+            if (account != null) {
+                account.setBalance(currency, balance);
+            }
+        });
+        return count;
+    }
+
+    private static int parsePIN(String pin) {
+        try {
+            return pin == null ? -1 : Integer.parseInt(pin);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param cardNumber Number of the card.
+     * @return Account with this card number, or null if there is none.
+     */
+    public UserAccount get(String cardNumber) {
+        return accounts.get(cardNumber);
+    }
+
+    /**
+     * @param cardNumber Number of the card.
+     * @return true if account with this card number exists.
+     */
+    public boolean contains(String cardNumber) {
+        CompactCardIndex index = cardIndex;
+        long card = CardNumberIssuer.parse(cardNumber);
+        if (index != null && card > 0) {
+            return index.contains(card);
+        }
+        return accounts.containsKey(cardNumber);
+    }
+
+    /**
+     * Registers new account.
+     *
+     * @param account The account.
+     * @return true if registered, false if an account with the same card number already exists.
+     */
+    public boolean add(UserAccount account) {
+        if (accounts.putIfAbsent(account.getCardNumber(), account) != null) {
+            return false;
+        }
+        CompactCardIndex index = cardIndex;
+        if (index != null) {
+            indexAccount(index, account);
+        }
+        return true;
+    }
+
+    /**
+     * Removes account.
+     *
+     * @param cardNumber Number of the card.
+     * @return The removed account, or null if there was none.
+     */
+    public UserAccount remove(String cardNumber) {
+        CompactCardIndex index = cardIndex;
+        if (index != null) {
+            index.remove(CardNumberIssuer.parse(cardNumber));
+        }
+        return accounts.remove(cardNumber);
+    }
+
+    /**
+     * @return Number of accounts held.
+     */
+    public int size() {
+        return accounts.size();
+    }
+}
@@ -0,0 +1,76 @@
+package banking;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * Helper for reading named options (e.g. "-poolSize 8") from program arguments.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public final class Arguments {
+
+    private Arguments() {
+    }
+
+    /**
+     * Reads value of the named option from program arguments.
+     *
+     * @param args Program arguments.
+     * @param name Name of the option, including leading dash.
+     * @return Value following the option, or null if option is missing.
+     */
+    public static String get(String[] args, String name) {
+        if (args == null) {
+            return null;
+        }
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads integer value of the named option from program arguments.
+     *
+     * @param args Program arguments.
+     * @param name Name of the option, including leading dash.
+     * @param defaultValue Value returned if option is missing or malformed.
+     * @return Value of the option.
+     */
+    public static int getInt(String[] args, String name, int defaultValue) {
+        String value = get(args, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Checks whether the flag is present in program arguments.
+     *
+     * @param args Program arguments.
+     * @param name Name of the flag, including leading dash.
+     * @return true if flag is present.
+     */
+    public static boolean has(String[] args, String name) {
+        if (args == null) {
+            return false;
+        }
+        for (String arg : args) {
+            if (arg.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
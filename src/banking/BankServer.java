@@ -0,0 +1,238 @@
+package banking;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * BankServer serves the bank over a local TCP socket.
+ * One selector thread accepts connections, reads request lines and writes
+ * responses, all with non-blocking I/O. Requests are executed on a pool of
+ * worker threads, so thousands of connections share a few threads, one
+ * {@link BankingSystem} and one {@link DBManager}.
+ * A connection may have at most {@link ServerSession#MAX_QUEUED} requests
+ * waiting for their response; beyond that the server stops reading from it
+ * until the responses have been written, so a client that sends without
+ * reading cannot fill the server's memory.
+ * The request protocol is described in {@link ServerSession}.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class BankServer implements Runnable {
+    private final BankingSystem bank;
+    private final int port;
+    private final ExecutorService workers;
+    private final Queue<ServerSession> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(8192);
+    private volatile Selector selector;
+    private volatile boolean running = true;
+
+    /**
+     * Creates server; it starts serving when {@link #run()} is called.
+     *
+     * @param bank The bank.
+     * @param port Port on the loopback interface to listen on.
+     * @param workerThreads Number of threads executing requests.
+     */
+    public BankServer(BankingSystem bank, int port, int workerThreads) {
+        this.bank = bank;
+        this.port = port;
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workerThreads), r -> {
+            Thread thread = new Thread(r, "bank-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Serves clients until {@link #stop()} is called.
+     */
+    @Override
+    public void run() {
+        try (Selector sel = Selector.open();
+             ServerSocketChannel server = ServerSocketChannel.open()) {
+            this.selector = sel;
+            try {
+                server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+                server.configureBlocking(false);
+                server.register(sel, SelectionKey.OP_ACCEPT);
+                System.out.println("Bank server listening on port " + port);
+                serve(sel, server);
+            } finally {
+                workers.shutdown();
+                try {
+                    workers.awaitTermination(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                closeSessions(sel);
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private void serve(Selector sel, ServerSocketChannel server) throws IOException {
+        while (running) {
+            sel.select();
+            ServerSession session;
+            while ((session = pendingWrites.poll()) != null) {
+                if (session.key.isValid()) {
+                    session.key.interestOps(session.key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            }
+            Iterator<SelectionKey> keys = sel.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(server, sel);
+                        continue;
+                    }
+                    if (key.isReadable()) {
+                        read((ServerSession) key.attachment());
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write((ServerSession) key.attachment());
+                    }
+                } catch (IOException e) {
+                    closeSession(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops serving; requests being executed are finished, and connections
+     * are closed when the selector thread exits.
+     */
+    public void stop() {
+        running = false;
+        Selector sel = selector;
+        if (sel != null) {
+            sel.wakeup();
+        }
+    }
+
+    /**
+     * Writes what the socket takes of the responses still queued, then closes every client connection.
+     * Closing the selector alone would leave them open.
+     */
+    private void closeSessions(Selector sel) {
+        for (SelectionKey key : sel.keys()) {
+            if (key.attachment() instanceof ServerSession) {
+                try {
+                    write((ServerSession) key.attachment());
+                } catch (IOException ignored) {
+                    // the connection is closed anyway
+                }
+                closeSession(key);
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel server, Selector sel) throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(sel, SelectionKey.OP_READ);
+            key.attach(new ServerSession(bank, channel, key));
+        }
+    }
+
+    private void read(ServerSession session) throws IOException {
+        readBuffer.clear();
+        int read = session.channel.read(readBuffer);
+        if (read < 0) {
+            closeSession(session.key);
+            return;
+        }
+        readBuffer.flip();
+        boolean queued = false;
+        while (readBuffer.hasRemaining()) {
+            char c = (char) (readBuffer.get() & 0xFF);
+            if (c == '\n') {
+                session.requests.add(session.partialLine.toString());
+                session.partialLine.setLength(0);
+                session.outstanding++;
+                queued = true;
+            } else if (c != '\r') {
+                if (session.partialLine.length() >= ServerSession.MAX_LINE) {
+                    closeSession(session.key);
+                    return;
+                }
+                session.partialLine.append(c);
+            }
+        }
+        if (session.outstanding >= ServerSession.MAX_QUEUED) {
+            // lines already read are still served; the rest waits in the socket until the responses are written
+            session.key.interestOps(session.key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        if (queued) {
+            schedule(session);
+        }
+    }
+
+    private void schedule(ServerSession session) {
+        if (session.scheduled.compareAndSet(false, true)) {
+            workers.execute(() -> process(session));
+        }
+    }
+
+    private void process(ServerSession session) {
+        do {
+            session.drain();
+            session.scheduled.set(false);
+            // a request may have arrived after drain() returned and before the flag was cleared
+        } while (!session.requests.isEmpty() && session.scheduled.compareAndSet(false, true));
+        pendingWrites.add(session);
+        selector.wakeup();
+    }
+
+    private void write(ServerSession session) throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = session.responses.peek()) != null) {
+            session.channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                return;
+            }
+            session.responses.poll();
+            session.outstanding--;
+        }
+        if (session.closing) {
+            closeSession(session.key);
+        } else {
+            // workers may still be executing requests whose responses are not queued yet
+            session.key.interestOps(session.outstanding < ServerSession.MAX_QUEUED ? SelectionKey.OP_READ : 0);
+        }
+    }
+
+    private static void closeSession(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+}
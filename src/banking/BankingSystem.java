@@ -1,6 +1,9 @@
 package banking;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Course: JetBrains Academy, Java Developer Track
@@ -10,316 +13,542 @@ import java.util.*;
  * BankingSystem is the main class representing the bank.
  * It holds references to:
  * <ul>
- *     <li>card numbers</li>
- *     <li>accounts</li>
- *     <li>database manager</li>
+ *     <li>account registry (all accounts, keyed by card number)</li>
+ *     <li>database manager, split into shards with "-shards N" (see {@link ShardedDBManager})</li>
+ *     <li>credential store, which checks PINs (see {@link CredentialStore})</li>
+ *     <li>login throttle, which locks out guessed cards and sources (see {@link LoginThrottle})</li>
+ *     <li>mutation journal, if enabled with "-journal" (see {@link MutationJournal})</li>
+ *     <li>FX rate table, loaded from the file given by "-fxRates" (see {@link FxRateTable})</li>
+ *     <li>metrics of the bank and database operations, with "-metrics" (see {@link Metrics})</li>
  * </ul>
+ * It offers the bank operations (open account, log in, deposit, transfer, close)
+ * without any user interaction; the console menu lives in {@link ConsoleSession},
+ * the network protocol in {@link ServerSession}.
  *
  * @author Mirek Drozd
  * @version 1.1
  */
 public class BankingSystem {
-    Map<String, Integer> cardNumbers = new HashMap<>();
-    Set<UserAccount> accounts = new HashSet<>();
+    private static final int MAX_NUMBER_ATTEMPTS = 10;
+
+    final AccountRegistry registry = new AccountRegistry();
     static Scanner scanner = new Scanner(System.in);
     static DBManager dbManager = new DBManager();
     final String[] params;
+    final CardNumberIssuer issuer;
+    final TransferEngine transferEngine;
+    final CredentialStore credentials;
+    final LoginThrottle loginThrottle;
+    final FxRateTable fxRates;
+    final Metrics metrics;
+    WriteBehindBalances writeBehind;
+    MutationJournal journal;
 
     public BankingSystem(String[] args) {
         this.params = args;
+        if (ShardedDBManager.isRequested(args) != dbManager instanceof ShardedDBManager) {
+            dbManager = ShardedDBManager.isRequested(args) ? new ShardedDBManager() : new DBManager();
+        }
         dbManager.setup(this.params);
+        this.metrics = dbManager.getMetrics();
+        if (Arguments.has(args, "-writeBehind")) {
+            writeBehind = new WriteBehindBalances(dbManager, Arguments.getInt(args, "-flushMillis", 200),
+                    Arguments.getInt(args, "-flushSize", 1000));
+            try {
+                writeBehind.recover();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+                writeBehind.close();
+                writeBehind = null;
+            }
+        }
+        if (Arguments.has(args, "-journal")) {
+            // replayed after write-behind balances, because the journal also holds every later change
+            try {
+                journal = new MutationJournal(dbManager, dbManager.sidecar(".mutation-journal"),
+                        Arguments.getInt(args, "-journalSize", 64) * 1024 * 1024);
+                journal.recover();
+            } catch (IOException | IllegalStateException e) {
+                System.out.println(e.getMessage());
+                journal = null;
+            }
+        }
+        try {
+            this.credentials = new CredentialStore(dbManager,
+                    CredentialStore.loadPepper(dbManager.sidecar(".pepper"), !dbManager.hasCredentials()));
+        } catch (IOException e) {
+            // without the pepper no PIN can be checked
+            throw new UncheckedIOException(e);
+        }
+        credentials.migrate();
+        this.loginThrottle = LoginThrottle.fromArguments(args);
+        if (!dbManager.plainPins) {
+            dbManager.scrubPins();
+        }
+        registry.load(dbManager);
+        if (Arguments.has(args, "-compactIndex")) {
+            dbManager.setCardIndex(registry.enableCompactIndex());
+        }
+        CardNumberIssuer.Mode mode = CardNumberIssuer.Mode.parse(
+                Arguments.get(args, "-cardNumbers"), CardNumberIssuer.Mode.PERMUTED);
+        this.issuer = new CardNumberIssuer(mode, dbManager.selectPermutationKey(),
+                dbManager::reserveCardIndexes, Arguments.getInt(args, "-cardBlockSize", 1000));
+        try {
+            this.fxRates = FxRateTable.fromArguments(args);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.transferEngine = new TransferEngine(dbManager, registry::get, fxRates);
     }
 
     /**
-     * Displays main program menu and reads user choice.
+     * Runs the console menu until user chooses to exit or input ends,
+     * then shuts the program down. See {@link ConsoleSession}.
      */
     public void mainMenu() {
-        System.out.println("\n1. Create an account");
-        System.out.println("2. Log into account");
-        System.out.println("0. Exit\n");
-        int choice = readUsersChoice();
+        ConsoleSession session = new ConsoleSession(this, System.out);
+        session.start();
+        while (!session.isFinished() && scanner.hasNext()) {
+            session.accept(scanner.next());
+        }
+        exit();
+    }
 
-        switch (choice) {
-            case 1: {
-                createAccount();
-                break;
-            }
-            case 2: {
-                logIn();
-                break;
+    /**
+     * Opens new account: issues card number and PIN, saves the card
+     * in the database and registers the account.
+     *
+     * @return The new account.
+     * @throws IllegalStateException If the card cannot be saved.
+     */
+    public UserAccount openAccount() {
+        long start = metrics.start();
+        String cardNumber = issuer.next();
+        int PIN = generatePIN();
+        long balance = 0;
+        beginMutation();
+        long seq;
+        UserAccount account;
+        try {
+            // a number can only be taken by a card issued before the issuer state existed
+            byte[] verifier = credentials.newVerifier(CardNumberIssuer.parse(cardNumber), PIN);
+            DBManager.InsertResult result = dbManager.insertCard(cardNumber, PIN, balance, verifier);
+            for (int attempt = 1; result == DBManager.InsertResult.NUMBER_TAKEN
+                    && attempt < MAX_NUMBER_ATTEMPTS; attempt++) {
+                cardNumber = issuer.next();
+                verifier = credentials.newVerifier(CardNumberIssuer.parse(cardNumber), PIN);
+                result = dbManager.insertCard(cardNumber, PIN, balance, verifier);
             }
-            case 0: {
-                exit();
-                break;
+            if (result != DBManager.InsertResult.INSERTED) {
+                metrics.failed(Metrics.Operation.OPEN_ACCOUNT);
+                throw new IllegalStateException(result == DBManager.InsertResult.NUMBER_TAKEN
+                        ? "No free card number found" : "The card could not be saved");
             }
-            default: {
-                readUsersChoice();
-                break;
+            account = new UserAccount(cardNumber, PIN, balance, dbManager.currency);
+            seq = journal == null ? 0 : journal.appendCreate(account, verifier);
+        } finally {
+            endMutation();
+        }
+        awaitDurable(seq);
+        account.setId(dbManager.selectIDByCard(cardNumber));
+        registry.add(account);
+        metrics.stop(Metrics.Operation.OPEN_ACCOUNT, start);
+        return account;
+    }
+
+    /**
+     * Checks card number and PIN against the stored PIN verifier.
+     * Logins of a locked out card or source are refused before anything is checked.
+     *
+     * @param cardNumber Number of the card.
+     * @param pin PIN entered by user.
+     * @param source Where the login comes from, e.g. address of the client.
+     * @return The account, or null if card number or PIN is wrong, or the login is locked out.
+     */
+    public UserAccount authenticate(String cardNumber, int pin, String source) {
+        long start = metrics.start();
+        UserAccount account = checkCredentials(cardNumber, pin, source);
+        if (account == null) {
+            metrics.failed(Metrics.Operation.AUTHENTICATE);
+        }
+        metrics.stop(Metrics.Operation.AUTHENTICATE, start);
+        return account;
+    }
+
+    private UserAccount checkCredentials(String cardNumber, int pin, String source) {
+        if (!loginThrottle.allowed(cardNumber, source)) {
+            return null;
+        }
+        UserAccount account = registry.get(cardNumber);
+        // the PIN is checked even for unknown cards, so both take the same time
+        boolean valid = credentials.verify(cardNumber, pin);
+        if (account != null && valid) {
+            loginThrottle.succeeded(cardNumber);
+            return account;
+        }
+        loginThrottle.failed(cardNumber, source);
+        return null;
+    }
+
+    /**
+     * @param cardNumber Number of the card.
+     * @param source Where the login comes from.
+     * @return true if logins of the card or from the source are locked out after too many failures.
+     */
+    public boolean loginLocked(String cardNumber, String source) {
+        return !loginThrottle.allowed(cardNumber, source);
+    }
+
+    /**
+     * Adds money to the account, in memory and in the database.
+     * With "-writeBehind", the database is updated later, see {@link WriteBehindBalances}.
+     *
+     * @param user The account.
+     * @param income Amount of money to add, in minor units.
+     * @return Balance after the change.
+     * @throws ArithmeticException If the balance would overflow; nothing is changed then.
+     * @throws IllegalStateException If the database did not take the credit; nothing is changed then.
+     */
+    public long deposit(UserAccount user, long income) {
+        if (income < 0) {
+            throw new IllegalArgumentException("income must not be negative");
+        }
+        long start = metrics.start();
+        long newBalance;
+        long seq;
+        beginMutation();
+        try {
+            newBalance = user.addToBalance(income);
+            registry.balanceChanged(user);
+            if (writeBehind != null) {
+                writeBehind.balanceChanged(user);
+            } else if (!dbManager.credit(user.getCardNumber(), income)) {
+                user.addToBalance(-income);
+                registry.balanceChanged(user);
+                throw new IllegalStateException("The income could not be saved");
             }
+            seq = record(MutationJournal.CREDIT, user, income);
+        } catch (ArithmeticException | IllegalStateException e) {
+            metrics.failed(Metrics.Operation.DEPOSIT);
+            throw e;
+        } finally {
+            endMutation();
         }
+        awaitDurable(seq);
+        metrics.stop(Metrics.Operation.DEPOSIT, start);
+        return newBalance;
     }
 
     /**
-     * Reads what menu option was selected by user.
+     * Adds money to the account's balance in a currency. Balances in other
+     * currencies than the account's own are always written to the database at once.
      *
-     * @return Number typed in by user.
+     * @param user The account.
+     * @param income Amount of money to add, in minor units of the currency.
+     * @param currency Currency code.
+     * @return Balance in the currency after the change.
+     * @throws ArithmeticException If the balance would overflow; nothing is changed then.
+     * @throws IllegalStateException If the database did not take the credit; nothing is changed then.
      */
-    public int readUsersChoice() {
-        int choice = -1;
+    public long deposit(UserAccount user, long income, String currency) {
+        if (currency.equals(user.getCurrency())) {
+            return deposit(user, income);
+        }
+        if (income < 0) {
+            throw new IllegalArgumentException("income must not be negative");
+        }
+        long start = metrics.start();
+        long newBalance;
+        long seq;
+        beginMutation();
         try {
-            choice = scanner.nextInt();
-        } catch (Exception e) {
-            e.printStackTrace();
+            newBalance = user.addToBalance(currency, income);
+            if (!dbManager.creditWallet(user.getCardNumber(), currency, income)) {
+                user.addToBalance(currency, -income);
+                throw new IllegalStateException("The income could not be saved");
+            }
+            seq = record(MutationJournal.WALLET_CREDIT, user, income, currency);
+        } catch (ArithmeticException | IllegalStateException e) {
+            metrics.failed(Metrics.Operation.DEPOSIT);
+            throw e;
+        } finally {
+            endMutation();
         }
-        return choice;
+        awaitDurable(seq);
+        metrics.stop(Metrics.Operation.DEPOSIT, start);
+        return newBalance;
     }
 
     /**
-     * Creates new user account.
-     * To do this, it generates new card number and PIN.
-     * By default, balance on a newly created account is 0.
-     * When created, the account and its card number are registered
-     * in their respective collections.
+     * Transfers money to another card, after checking the card number.
+     *
+     * @param user Account the money is taken from.
+     * @param toCard Number of the card the money is sent to.
+     * @param amount Amount of money, in minor units.
+     * @return Outcome of the transfer.
      */
-    public void createAccount() {
-        String cardNumber = generateCardNumber();
-        int PIN = generatePIN();
-        int balance = 0;
-        UserAccount account = new UserAccount(cardNumber, PIN, balance);
-        cardNumbers.put(cardNumber, PIN);
-        accounts.add(account);
-        dbManager.insert(cardNumber, PIN, balance);
-        mainMenu();
+    public TransferEngine.Result transfer(UserAccount user, String toCard, long amount) {
+        return transfer(user, user.getCurrency(), toCard, amount);
     }
 
     /**
-     * Computes checksum for bank account number.
+     * Transfers money in a currency the user holds to another card. The recipient
+     * gets it in the currency of their card, converted with the current FX rates.
      *
-     * @param accountNumber Number of the bank account.
-     * @return Computed checksum.
+     * @param user Account the money is taken from.
+     * @param currency Currency the money is taken in.
+     * @param toCard Number of the card the money is sent to.
+     * @param amount Amount of money, in minor units of the currency.
+     * @return Outcome of the transfer.
      */
-    public int findChecksum(String accountNumber) {
-        StringBuilder sb = new StringBuilder();
-        //Luhn algorithm
-        //step 1: multiply odd digits by 2 (count starts at 1, NOT 0!)
-        for (int i = 1; i <= accountNumber.length(); i++) {
-            if (i % 2 != 0) {
-                int num = Integer.valueOf(String.valueOf(accountNumber.charAt(i - 1)));
-                num = num * 2;
-                if (num > 9) {
-                    //step 2: subtract 9 from numbers higher than 9
-                    num = num - 9;
+    public TransferEngine.Result transfer(UserAccount user, String currency, String toCard, long amount) {
+        long start = metrics.start();
+        TransferEngine.Result result = checkAndTransfer(user, currency, toCard, amount);
+        if (result != TransferEngine.Result.SUCCESS) {
+            metrics.failed(Metrics.Operation.BANK_TRANSFER);
+        }
+        metrics.stop(Metrics.Operation.BANK_TRANSFER, start);
+        return result;
+    }
+
+    private TransferEngine.Result checkAndTransfer(UserAccount user, String currency, String toCard, long amount) {
+        if (!Luhn.isValid(toCard)) {
+            return TransferEngine.Result.INVALID_CARD_NUMBER;
+        }
+        if (toCard.equals(user.getCardNumber())) {
+            return TransferEngine.Result.SAME_ACCOUNT;
+        }
+        if (!accountExists(toCard)) {
+            return TransferEngine.Result.NO_SUCH_RECIPIENT;
+        }
+        if (writeBehind != null) {
+            // the transfer checks balances in the database, so pending ones are written first
+            writeBehind.flushNow(user.getCardNumber());
+            writeBehind.flushNow(toCard);
+        }
+        // one snapshot, so the journal records the amount the transfer converted to
+        FxRates rates = fxRates.current();
+        TransferEngine.Result result;
+        long seq = 0;
+        beginMutation();
+        try {
+            result = transferEngine.transfer(user, currency, toCard, amount, rates);
+            if (result == TransferEngine.Result.SUCCESS) {
+                if (currency.equals(user.getCurrency())) {
+                    accountChanged(user);
+                    seq = record(MutationJournal.DEBIT, user, amount);
+                } else {
+                    seq = record(MutationJournal.WALLET_DEBIT, user, amount, currency);
+                }
+                UserAccount recipient = registry.get(toCard);
+                if (recipient != null) {
+                    accountChanged(recipient);
+                    seq = record(MutationJournal.CREDIT, recipient,
+                            rates.convert(amount, currency, recipient.getCurrency()));
                 }
-                sb.append(num);
-            } else {
-                sb.append(accountNumber.charAt(i - 1));
             }
+        } finally {
+            endMutation();
         }
-        String processedNumber = sb.toString();
-        //step 3: add up all digits
-        int sum = 0;
-        for (int j = 0; j < processedNumber.length(); j++) {
-            sum += Integer.valueOf(processedNumber.charAt(j));
-        }
-        int checksum = 10 - (sum % 10);
-        return checksum == 10 ? 0 : checksum;
+        awaitDurable(seq);
+        return result;
     }
 
     /**
-     * Generates new card number based on Issuer Identification Number (IIN).
-     * By convention, IIN always starts with 400000 in this program.
-     * The remaining 9 numbers are randomly generated using Java's Random.
+     * Removes the account from the registry and the database.
      *
-     * @return Generated card number as String.
+     * @param user The account.
      */
-    public String generateCardNumber() {
-        int[] nums = new Random().ints(9, 0,9).toArray();
-        String IIN = "400000" + Arrays.toString(nums).replaceAll("\\[|\\]|,|\\s", "");
-        IIN = IIN.concat(String.valueOf(findChecksum(IIN)));
-        System.out.println("Your card has been created");
-        System.out.printf("Your card number: \n%s\n", IIN);
-        return IIN;
+    public void close(UserAccount user) {
+        long start = metrics.start();
+        long seq;
+        beginMutation();
+        try {
+            registry.remove(user.getCardNumber());
+            credentials.forget(user.getCardNumber());
+            if (writeBehind != null) {
+                writeBehind.forget(user.getCardNumber());
+            }
+            dbManager.deleteCard(user.getCardNumber());
+            seq = record(MutationJournal.CLOSE, user, 0);
+        } finally {
+            endMutation();
+        }
+        awaitDurable(seq);
+        metrics.stop(Metrics.Operation.CLOSE_ACCOUNT, start);
     }
 
     /**
-     * Generates 4-digit PIN for the card using Java's Random.
-     * Possible PIN range is from 0000 to 9999.
+     * Passes new balance of an account changed by a transfer to the registry,
+     * and to the write-behind journal, so that recovery never restores an older balance.
      *
-     * @return Generated PIN as int.
+     * @param account The account.
      */
-    public int generatePIN() {
-        int[] nums =  new Random().ints(4, 1, 9).toArray();
-        int pin = 0;
-        for (int i : nums) {
-            pin = 10 * pin + i;
+    private void accountChanged(UserAccount account) {
+        registry.balanceChanged(account);
+        if (writeBehind != null) {
+            writeBehind.balanceChanged(account);
         }
-        System.out.printf("Your card PIN: \n%d\n", pin);
-        return pin;
     }
 
     /**
-     * Simulates logging in procedure.
-     * User has to enter their card number and PIN.
-     * These are then verified against database.
+     * Starts a mutation recorded in the journal; a journal checkpoint waits until it ends.
      */
-    public void logIn() {
-        try (Scanner scanner = new Scanner(System.in)){
-            System.out.println("Enter your card number:");
-            String cardNumber = scanner.nextLine();
-            System.out.println("Enter your PIN:");
-            int pin =  scanner.nextInt();
-            checkCredentials(new UserAccount(cardNumber, pin, 0));
-        } catch (Exception e) {
-            e.printStackTrace();
+    private void beginMutation() {
+        if (journal != null) {
+            journal.mutationLock().readLock().lock();
+        }
+    }
+
+    private void endMutation() {
+        if (journal != null) {
+            journal.mutationLock().readLock().unlock();
         }
     }
 
     /**
-     * Checks user authentication data (card number & PIN) against database.
+     * Appends a mutation to the journal, if enabled.
      *
-     * @param user The user to be authenticated.
+     * @return Sequence number to wait for with {@link #awaitDurable(long)}.
      */
-    public void checkCredentials(UserAccount user) {
-        if (accounts.contains(user)) {
-            System.out.println("\nYou have successfully logged in!");
-            userMenu(user);
+    private long record(byte type, UserAccount account, long amount) {
+        return journal == null ? 0 : journal.append(type, account, amount);
+    }
+
+    private long record(byte type, UserAccount account, long amount, String currency) {
+        return journal == null ? 0 : journal.append(type, account, amount, currency);
+    }
+
+    /**
+     * Waits until the mutation is durable, after {@link #endMutation()}.
+     *
+     * @param seq Sequence number from {@link #record(byte, UserAccount, long)}.
+     */
+    private void awaitDurable(long seq) {
+        if (journal == null) {
+            return;
+        }
+        if (seq < 0) {
+            // the journal was full, so the mutation is made durable by a checkpoint
+            journal.checkpoint();
         } else {
-            System.out.println("\nWrong card number or PIN!");
-            mainMenu();
+            journal.awaitDurable(seq);
+            journal.checkpointIfNearlyFull();
         }
     }
 
     /**
-     * Displays program menu after user logs in.
+     * Creates many accounts at once, without printing their details.
+     * Card numbers are issued in chunks and written to the database with batched inserts.
+     * When done, prints how many accounts were created and how fast.
      *
-     * @param user The logged-in user.
+     * @param count Number of accounts to create.
+     * @return Number of accounts actually created.
      */
-    public void userMenu(UserAccount user) {
-        System.out.println("\n1. Balance");
-        System.out.println("2. Add income");
-        System.out.println("3. Do transfer");
-        System.out.println("4. Close account");
-        System.out.println("5. Log out");
-        System.out.println("0. Exit\n");
-        int choice = readUsersChoice();
-
-        switch (choice) {
-            case 1: {
-                System.out.println(user.getBalance());
-                userMenu(user);
-                break;
-            }
-            case 2: {
-                addIncome(user);
-                break;
-            }
-            case 3: {
-                doTransfer(user);
-                break;
-            }
-            case 4: {
-                closeAccount(user);
-                break;
+    public int bulkCreateAccounts(int count) {
+        int chunkSize = Math.min(count, dbManager.transactionSize);
+        long[] numbers = new long[chunkSize];
+        String[] cards = new String[chunkSize];
+        int[] pins = new int[chunkSize];
+        byte[][] verifiers = new byte[chunkSize][];
+        boolean[] inserted = new boolean[chunkSize];
+        int created = 0;
+        long start = System.nanoTime();
+        for (int done = 0; done < count; done += chunkSize) {
+            int size = Math.min(chunkSize, count - done);
+            if (size < numbers.length) {
+                numbers = new long[size];
             }
-            case 5: {
-                logOut();
-                break;
+            issuer.nextBatch(numbers);
+            for (int i = 0; i < size; i++) {
+                cards[i] = CardNumberIssuer.format(numbers[i]);
+                pins[i] = generatePIN();
+                verifiers[i] = credentials.newVerifier(numbers[i], pins[i]);
             }
-            case 0: {
-                exit();
-                break;
+            created += dbManager.insertBatch(cards, pins, verifiers, size, inserted);
+            for (int i = 0; i < size; i++) {
+                // a number taken meanwhile belongs to another card, and a failed transaction stored nothing
+                if (inserted[i]) {
+                    registry.add(new UserAccount(cards[i], pins[i], 0, dbManager.currency));
+                }
             }
         }
+        if (journal != null) {
+            // batched inserts are not journaled; a checkpoint makes them durable
+            journal.checkpoint();
+        }
+        metrics.stop(Metrics.Operation.BULK_CREATE, start, created);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Created %d accounts in %.2f s (%.0f accounts/s)%n",
+                created, seconds, created / Math.max(seconds, 1e-9));
+        return created;
     }
 
     /**
-     * Adds the amount of money specified by user to user's account.
+     * Computes checksum for bank account number using Luhn algorithm.
      *
-     * @param user The logged-in user.
+     * @param accountNumber Number of the bank account.
+     * @return Computed checksum.
      */
-    public void addIncome(UserAccount user) {
-        System.out.println("Enter income:");
-        int income = scanner.nextInt();
-        int currentBalance = user.getBalance();
-        int newBalance = currentBalance + income;
-        user.setBalance(newBalance);
-        int id = dbManager.selectIDByCard(user.getCardNumber());
-        dbManager.update(id, newBalance);
-        System.out.println("Income was added!");
-
-        userMenu(user);
+    public int findChecksum(String accountNumber) {
+        return Luhn.checksum(accountNumber);
     }
 
     /**
-     * Transfers money from users account to some different account.
-     * User cannot transfer more money than is available on their account.
-     * Target account has to have a valid number & has to exist in database.
+     * Generates new card number based on Issuer Identification Number (IIN).
+     * By convention, IIN always starts with 400000 in this program.
+     * The remaining digits come from {@link CardNumberIssuer}, which never issues
+     * the same number twice.
      *
-     * @param user The logged-in user.
+     * @return Generated card number as String.
      */
-    public void doTransfer(UserAccount user) {
-        System.out.println("Enter card number:");
-        try(Scanner scanner = new Scanner(System.in)) {
-            String input = scanner.nextLine();
-            int checksum = findChecksum(input.substring(0, input.length()-1));
-            if (checksum == Character.getNumericValue(input.charAt(input.length()-1)) && accountExists(input)) {
-                System.out.println("Enter how much money you want to transfer:");
-                int money = scanner.nextInt();
-                int balance = user.getBalance();
-                if (balance >= money) {
-                    user.setBalance(balance - money);
-                    System.out.println("Success!");
-                    userMenu(user);
-                } else {
-                    System.out.println("Not enough money!");
-                    userMenu(user);
-                }
-
-            } else {
-                System.out.println("Probably you made mistake in the card number. Please try again!");
-                userMenu(user);
-            };
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    public String generateCardNumber() {
+        return issuer.next();
     }
 
     /**
-     * Checks whether the account exists in the database.
+     * Generates 4-digit PIN for the card.
+     * Possible PIN range is from 0000 to 9999.
      *
-     * @param accountNumber The number of the account.
-     * @return true if account exists, or false if account doesn't exist.
+     * @return Generated PIN as int.
      */
-    public boolean accountExists(String accountNumber) {
-        return cardNumbers.containsKey((String) accountNumber);
+    public int generatePIN() {
+        return ThreadLocalRandom.current().nextInt(10_000);
     }
 
     /**
-     * Closes the account by removing it from database.
+     * Checks whether the account exists in the database.
      *
-     * @param user The user account to be closed.
+     * @param accountNumber The number of the account.
+     * @return true if account exists, or false if account doesn't exist.
      */
-    public void closeAccount(UserAccount user) {
-        accounts.remove(user);
-        int id = dbManager.selectIDByCard(user.getCardNumber());
-        dbManager.delete(id);
-        System.out.println("The account has been closed!");
-        userMenu(user);
+    public boolean accountExists(String accountNumber) {
+        return registry.contains(accountNumber);
     }
 
     /**
-     * Prints message to confirm logging out and displays main menu.
+     * Closes the database and exits the program.
      */
-    public void logOut() {
-        System.out.println("You have successfully logged out!");
-        mainMenu();
+    public void exit() {
+        shutdown();
+        System.exit(0);
     }
 
     /**
-     * Prints message to confirm program shutdown and exits the program.
+     * Writes pending changes and closes the database.
+     * With "-cacheStats", prints card cache counters first.
      */
-    public void exit() {
-        System.out.println("Bye!");
-        System.exit(0);
+    public void shutdown() {
+        if (Arguments.has(params, "-cacheStats") && dbManager.getCardCache() != null) {
+            System.out.println(dbManager.getCardCache());
+        }
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        fxRates.close();
+        dbManager.close();
     }
 }
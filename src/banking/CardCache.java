@@ -0,0 +1,296 @@
+package banking;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * CardCache is a bounded read-through cache of card number to database ID
+ * and balance, used by {@link DBManager} before querying the card table.
+ * IDs never change, so they stay cached until the card is deleted or evicted;
+ * a balance is cached only while the database manager knows it is current.
+ *
+ * Entries are split into segments by card number; each segment is a
+ * LinkedHashMap in access order, so it evicts its least recently used entry
+ * when full. Every change to a segment bumps its stamp, which lets a reader
+ * drop a value it read from the database while the cached card was changed.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class CardCache {
+    static final int DEFAULT_CAPACITY = 10_000;
+    private static final int SEGMENTS = 16;
+
+    /**
+     * Cached data of one card.
+     */
+    public static final class Entry {
+        final int id;
+        final long balance;
+        final boolean balanceKnown;
+
+        Entry(int id, long balance, boolean balanceKnown) {
+            this.id = id;
+            this.balance = balance;
+            this.balanceKnown = balanceKnown;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public long getBalance() {
+            return balance;
+        }
+    }
+
+    private final class Segment extends LinkedHashMap<String, Entry> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        long stamp;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() <= capacity) {
+                return false;
+            }
+            cardsById.remove(eldest.getValue().id, eldest.getKey());
+            evictions.increment();
+            return true;
+        }
+    }
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final ConcurrentHashMap<Integer, String> cardsById = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates empty cache.
+     *
+     * @param capacity Maximum number of cached cards.
+     */
+    public CardCache(int capacity) {
+        int perSegment = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    private Segment segment(String card) {
+        int h = card.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Finds cached ID of the card; counts a hit or a miss.
+     *
+     * @param card Card number.
+     * @return ID of the card, or 0 if it's not cached.
+     */
+    public int getId(String card) {
+        Segment segment = segment(card);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(card);
+        }
+        count(entry != null);
+        return entry == null ? 0 : entry.id;
+    }
+
+    /**
+     * Finds cached balance of the card; counts a hit or a miss.
+     *
+     * @param card Card number.
+     * @return The entry, or null if the card or its balance is not cached.
+     */
+    public Entry getBalance(String card) {
+        Segment segment = segment(card);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(card);
+        }
+        boolean hit = entry != null && entry.balanceKnown;
+        count(hit);
+        return hit ? entry : null;
+    }
+
+    private void count(boolean hit) {
+        if (hit) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+    }
+
+    /**
+     * Call before reading a card from the database, and pass the result to
+     * {@link #putIfUnchanged(String, int, long, boolean, long)}.
+     *
+     * @param card Card number.
+     * @return Current stamp of the card's segment.
+     */
+    public long stamp(String card) {
+        Segment segment = segment(card);
+        synchronized (segment) {
+            return segment.stamp;
+        }
+    }
+
+    /**
+     * Caches data read from the database, unless the card's segment changed since
+     * the read started; the data could be older than the change then.
+     *
+     * @param card Card number.
+     * @param id ID of the card.
+     * @param balance Balance of the card.
+     * @param balanceKnown Whether balance was read too.
+     * @param stamp Value returned by {@link #stamp(String)} before the read.
+     */
+    public void putIfUnchanged(String card, int id, long balance, boolean balanceKnown, long stamp) {
+        Segment segment = segment(card);
+        synchronized (segment) {
+            if (segment.stamp == stamp) {
+                segment.put(card, new Entry(id, balance, balanceKnown));
+                cardsById.put(id, card);
+            }
+        }
+    }
+
+    /**
+     * Stores new balance of a card whose balance was just written to the database.
+     *
+     * @param card Card number.
+     * @param balance New balance.
+     */
+    public void balanceUpdated(String card, long balance) {
+        Segment segment = segment(card);
+        synchronized (segment) {
+            segment.stamp++;
+            Entry entry = segment.get(card);
+            if (entry != null) {
+                segment.put(card, new Entry(entry.id, balance, true));
+            }
+        }
+    }
+
+    /**
+     * Stores new balance of a card identified by its database ID.
+     *
+     * @param id ID of the card.
+     * @param balance New balance.
+     */
+    public void balanceUpdated(int id, long balance) {
+        String card = cardsById.get(id);
+        if (card != null) {
+            balanceUpdated(card, balance);
+        }
+    }
+
+    /**
+     * Forgets balance of a card changed by the database (e.g. balance = balance + ?).
+     *
+     * @param card Card number.
+     */
+    public void invalidateBalance(String card) {
+        Segment segment = segment(card);
+        synchronized (segment) {
+            segment.stamp++;
+            Entry entry = segment.get(card);
+            if (entry != null && entry.balanceKnown) {
+                segment.put(card, new Entry(entry.id, 0, false));
+            }
+        }
+    }
+
+    /**
+     * Forgets a deleted card.
+     *
+     * @param id ID of the card.
+     */
+    public void remove(int id) {
+        String card = cardsById.remove(id);
+        if (card != null) {
+            Segment segment = segment(card);
+            synchronized (segment) {
+                segment.stamp++;
+                segment.remove(card);
+            }
+        }
+    }
+
+    /**
+     * Forgets a deleted card.
+     *
+     * @param card Card number.
+     */
+    public void remove(String card) {
+        Segment segment = segment(card);
+        synchronized (segment) {
+            segment.stamp++;
+            Entry entry = segment.remove(card);
+            if (entry != null) {
+                cardsById.remove(entry.id, card);
+            }
+        }
+    }
+
+    /**
+     * Forgets all cards, e.g. after the card table was changed in bulk.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.stamp++;
+                segment.clear();
+            }
+        }
+        cardsById.clear();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Number of cached cards.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        long hit = hits();
+        long total = hit + misses();
+        return String.format("Card cache: %d cards, %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                size(), hit, total - hit, total == 0 ? 0.0 : 100.0 * hit / total, evictions());
+    }
+}
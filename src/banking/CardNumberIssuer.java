@@ -0,0 +1,264 @@
+package banking;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * CardNumberIssuer hands out unique card numbers for the 400000 IIN.
+ * A card number is the IIN, a 9-digit account identifier and a Luhn check digit.
+ *
+ * Every card is derived from an issue index. Indexes come in ranges
+ * reserved from an {@link IndexReservation} (normally the database), so
+ * no index is used twice, and no database round-trip is needed per card.
+ * The mode decides how indexes are shared and turned into account identifiers:
+ * <ul>
+ *     <li>SEQUENTIAL - threads share one range, account identifier is the index</li>
+ *     <li>BLOCK - every thread reserves its own range, account identifier is the index</li>
+ *     <li>PERMUTED - like BLOCK, but the index is passed through a keyed permutation,
+ *     so consecutive cards are not guessable</li>
+ * </ul>
+ * The mode should stay the same for a database file; the unique index on
+ * card numbers catches any overlap left after switching modes.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class CardNumberIssuer {
+    public static final long IIN = 400000L;
+    public static final long ACCOUNT_SPACE = 1_000_000_000L;
+    public static final int CARD_LENGTH = 16;
+
+    private static final int HALF_BITS = 15;
+    private static final int HALF_MASK = (1 << HALF_BITS) - 1;
+    private static final int ROUNDS = 6;
+
+    public enum Mode {
+        SEQUENTIAL, BLOCK, PERMUTED;
+
+        /**
+         * Reads mode from its name, ignoring case.
+         *
+         * @param name Name of the mode, may be null.
+         * @param defaultMode Mode returned when name is null or unknown.
+         * @return The mode.
+         */
+        public static Mode parse(String name, Mode defaultMode) {
+            if (name == null) {
+                return defaultMode;
+            }
+            for (Mode mode : values()) {
+                if (mode.name().equalsIgnoreCase(name)) {
+                    return mode;
+                }
+            }
+            System.out.println("Unknown card number mode: " + name);
+            return defaultMode;
+        }
+    }
+
+    /**
+     * Source of issue indexes.
+     */
+    @FunctionalInterface
+    public interface IndexReservation {
+        /**
+         * Reserves a range of issue indexes. Must be safe to call from many threads.
+         *
+         * @param count Number of indexes to reserve.
+         * @return First index of the reserved range, or a negative number if reservation failed.
+         */
+        long reserve(int count);
+    }
+
+    private static final class Range {
+        long next;
+        long end;
+    }
+
+    private final Mode mode;
+    private final IndexReservation reservation;
+    private final int blockSize;
+    private final int[] roundKeys = new int[ROUNDS];
+    private final ThreadLocal<Range> threadRange = ThreadLocal.withInitial(Range::new);
+    private final Range sharedRange = new Range();
+
+    /**
+     * Creates issuer.
+     *
+     * @param mode How indexes are shared and mapped to account identifiers.
+     * @param permutationKey Key of the permutation used in PERMUTED mode; must stay the same for a database.
+     * @param reservation Source of issue indexes.
+     * @param blockSize Number of indexes reserved at once.
+     */
+    public CardNumberIssuer(Mode mode, long permutationKey, IndexReservation reservation, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.mode = mode;
+        this.reservation = reservation;
+        this.blockSize = blockSize;
+        long seed = permutationKey;
+        for (int i = 0; i < ROUNDS; i++) {
+            seed = mix(seed + 0x9E3779B97F4A7C15L);
+            roundKeys[i] = (int) seed;
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Issues next card number.
+     *
+     * @return Card number as 16-digit String.
+     */
+    public String next() {
+        return format(nextNumber());
+    }
+
+    /**
+     * Issues next card number.
+     *
+     * @return Card number as a 16-digit number.
+     */
+    public long nextNumber() {
+        return cardNumber(accountId(nextIndex()));
+    }
+
+    /**
+     * Issues many card numbers with a single index reservation.
+     *
+     * @param out Array to fill with new card numbers.
+     * @return Number of cards issued (length of the array).
+     */
+    public int nextBatch(long[] out) {
+        if (out.length == 0) {
+            return 0;
+        }
+        long first = reserve(out.length);
+        for (int i = 0; i < out.length; i++) {
+            out[i] = cardNumber(accountId(first + i));
+        }
+        return out.length;
+    }
+
+    private long nextIndex() {
+        if (mode == Mode.SEQUENTIAL) {
+            synchronized (sharedRange) {
+                return take(sharedRange);
+            }
+        }
+        return take(threadRange.get());
+    }
+
+    private long take(Range range) {
+        if (range.next >= range.end) {
+            range.next = reserve(blockSize);
+            range.end = range.next + blockSize;
+        }
+        return range.next++;
+    }
+
+    private long reserve(int count) {
+        long first = reservation.reserve(count);
+        if (first < 0) {
+            throw new IllegalStateException("Cannot reserve card numbers");
+        }
+        if (first + count > ACCOUNT_SPACE) {
+            throw new IllegalStateException("Card number space of IIN " + IIN + " is exhausted");
+        }
+        return first;
+    }
+
+    /**
+     * Maps issue index to account identifier.
+     *
+     * @param index Issue index, 0 to 999,999,999.
+     * @return Account identifier, 0 to 999,999,999.
+     */
+    long accountId(long index) {
+        if (mode != Mode.PERMUTED) {
+            return index;
+        }
+        // 30-bit Feistel network is a bijection on [0, 2^30); walking the cycle
+        // until the value falls below 10^9 keeps it a bijection on [0, 10^9)
+        long value = index;
+        do {
+            value = permute((int) value);
+        } while (value >= ACCOUNT_SPACE);
+        return value;
+    }
+
+    private int permute(int value) {
+        int left = value >>> HALF_BITS;
+        int right = value & HALF_MASK;
+        for (int key : roundKeys) {
+            int next = left ^ (round(right, key) & HALF_MASK);
+            left = right;
+            right = next;
+        }
+        return (left << HALF_BITS) | right;
+    }
+
+    private static int round(int half, int key) {
+        int x = (half ^ key) * 0x45D9F3B;
+        x ^= x >>> 16;
+        x *= 0x45D9F3B;
+        return x ^ (x >>> 16);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Builds full card number from account identifier.
+     *
+     * @param accountId Account identifier, 0 to 999,999,999.
+     * @return Card number with IIN and check digit.
+     */
+    public static long cardNumber(long accountId) {
+        long payload = IIN * ACCOUNT_SPACE + accountId;
+        return payload * 10 + Luhn.checksum(payload);
+    }
+
+    /**
+     * Formats card number as 16-digit String.
+     *
+     * @param number Card number.
+     * @return Card number with leading zeros, if needed.
+     */
+    public static String format(long number) {
+        char[] digits = new char[CARD_LENGTH];
+        for (int i = CARD_LENGTH - 1; i >= 0; i--) {
+            digits[i] = (char) ('0' + number % 10);
+            number /= 10;
+        }
+        return new String(digits);
+    }
+
+    /**
+     * Parses 16-digit card number.
+     *
+     * @param number Card number.
+     * @return Card number as a number, or -1 if it is not exactly 16 digits.
+     */
+    public static long parse(CharSequence number) {
+        if (number == null || number.length() != CARD_LENGTH) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < CARD_LENGTH; i++) {
+            int digit = number.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
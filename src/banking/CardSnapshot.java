@@ -0,0 +1,422 @@
+package banking;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * CardSnapshot copies the cards out of the database into a compact binary
+ * file, and loads such a file back into a database or into the account registry.
+ * The export streams rows from one read transaction (see
+ * {@link DBManager#exportSnapshot(DBManager.SnapshotRowHandler)}), so it is
+ * a consistent picture of the bank at one moment, and can also write the
+ * balances as CSV for reporting.
+ *
+ * File layout: header (magic, format version, creation time in milliseconds),
+ * then length-prefixed records (2-byte payload length, 1-byte tag, payload),
+ * then an end record with the number of cards and balances, followed by
+ * CRC32C of everything before it. A reader skips records with unknown tags.
+ * <ul>
+ *     <li>card: number (8 bytes), PIN (2 bytes, -1 if scrubbed), balance (8 bytes),
+ *         currency (3 ASCII bytes), verifier length (1 byte) and verifier</li>
+ *     <li>wallet: number, currency, balance</li>
+ * </ul>
+ * PIN verifiers only work with the pepper file of the database they were
+ * exported from (see {@link CredentialStore}), so restore it along with the snapshot.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public final class CardSnapshot {
+    private static final int MAGIC = 0x53425331;
+    private static final short FORMAT = 1;
+    private static final byte END = 0;
+    private static final byte CARD = 1;
+    private static final byte WALLET = 2;
+    private static final int RESTORE_CHUNK = 10_000;
+
+    private CardSnapshot() {
+    }
+
+    /**
+     * Receives records read from a snapshot.
+     */
+    public interface Handler {
+        void card(String number, int pin, long balance, String currency, byte[] verifier);
+
+        void wallet(String number, String currency, long balance);
+    }
+
+    /**
+     * Writes a snapshot file record by record.
+     */
+    public static final class Writer implements AutoCloseable {
+        private final CheckedOutputStream checked;
+        private final DataOutputStream out;
+        private long cards;
+        private long wallets;
+
+        /**
+         * Creates the file and writes its header.
+         *
+         * @param file The snapshot file.
+         * @throws IOException If the file cannot be written.
+         */
+        public Writer(Path file) throws IOException {
+            checked = new CheckedOutputStream(Files.newOutputStream(file), new CRC32C());
+            out = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeShort(FORMAT);
+            out.writeLong(System.currentTimeMillis());
+        }
+
+        /**
+         * Writes a card.
+         *
+         * @param card Card number, see {@link CardNumberIssuer#parse(CharSequence)}.
+         * @param pin The PIN, or -1 if it is not stored.
+         * @param balance Balance in the card's currency.
+         * @param currency Currency code.
+         * @param verifier PIN verifier, or null.
+         * @throws IOException If the file cannot be written.
+         */
+        public void card(long card, int pin, long balance, String currency, byte[] verifier) throws IOException {
+            int verifierLength = verifier == null ? 0 : verifier.length;
+            out.writeShort(8 + 2 + 8 + 3 + 1 + verifierLength);
+            out.writeByte(CARD);
+            out.writeLong(card);
+            out.writeShort(pin);
+            out.writeLong(balance);
+            writeCurrency(currency);
+            out.writeByte(verifierLength);
+            if (verifierLength > 0) {
+                out.write(verifier);
+            }
+            cards++;
+        }
+
+        /**
+         * Writes a balance in another currency than the card's own.
+         *
+         * @param card Card number.
+         * @param currency Currency code.
+         * @param balance The balance.
+         * @throws IOException If the file cannot be written.
+         */
+        public void wallet(long card, String currency, long balance) throws IOException {
+            out.writeShort(8 + 3 + 8);
+            out.writeByte(WALLET);
+            out.writeLong(card);
+            writeCurrency(currency);
+            out.writeLong(balance);
+            wallets++;
+        }
+
+        private void writeCurrency(String currency) throws IOException {
+            out.write(currency.getBytes(StandardCharsets.US_ASCII), 0, 3);
+        }
+
+        /**
+         * @return Number of cards written.
+         */
+        public long getCards() {
+            return cards;
+        }
+
+        /**
+         * Writes the end record and the checksum, and closes the file.
+         */
+        @Override
+        public void close() throws IOException {
+            out.writeShort(16);
+            out.writeByte(END);
+            out.writeLong(cards);
+            out.writeLong(wallets);
+            out.flush();
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a snapshot file.
+     *
+     * @param file The snapshot file.
+     * @param handler Receives every record.
+     * @return Number of cards read.
+     * @throws IOException If the file cannot be read, is not a snapshot, or is damaged.
+     */
+    public static long read(Path file, Handler handler) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 1 << 16), new CRC32C());
+        try (DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC || in.readShort() != FORMAT) {
+                throw new IOException(file + " is not a card snapshot");
+            }
+            in.readLong();
+            long cards = 0;
+            long wallets = 0;
+            byte[] currency = new byte[3];
+            while (true) {
+                int length = in.readUnsignedShort();
+                byte tag = in.readByte();
+                if (tag == END) {
+                    long expectedCards = in.readLong();
+                    long expectedWallets = in.readLong();
+                    int crc = (int) checked.getChecksum().getValue();
+                    if (in.readInt() != crc || expectedCards != cards || expectedWallets != wallets) {
+                        throw new IOException(file + " is damaged");
+                    }
+                    return cards;
+                } else if (tag == CARD) {
+                    long card = in.readLong();
+                    int pin = in.readShort();
+                    long balance = in.readLong();
+                    in.readFully(currency);
+                    byte[] verifier = new byte[in.readUnsignedByte()];
+                    in.readFully(verifier);
+                    handler.card(CardNumberIssuer.format(card), pin, balance,
+                            new String(currency, StandardCharsets.US_ASCII), verifier.length == 0 ? null : verifier);
+                    cards++;
+                } else if (tag == WALLET) {
+                    long card = in.readLong();
+                    in.readFully(currency);
+                    long balance = in.readLong();
+                    handler.wallet(CardNumberIssuer.format(card), new String(currency, StandardCharsets.US_ASCII),
+                            balance);
+                    wallets++;
+                } else {
+                    in.skipNBytes(length);
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException(file + " is cut short");
+        }
+    }
+
+    /**
+     * Exports the card table. Cards whose number is not 16 digits are left out.
+     *
+     * @param dbManager The database.
+     * @param file Snapshot file to write, or null.
+     * @param csvFile CSV file to write ("number,currency,balance", one line per balance), or null.
+     * @return Number of cards exported.
+     * @throws IOException If a file cannot be written or the database cannot be read.
+     */
+    public static long export(DBManager dbManager, Path file, Path csvFile) throws IOException {
+        try (Writer writer = file == null ? null : new Writer(file);
+             BufferedWriter csv = csvFile == null ? null : Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8)) {
+            if (csv != null) {
+                csv.write("number,currency,balance");
+                csv.newLine();
+            }
+            int count = dbManager.exportSnapshot(new DBManager.SnapshotRowHandler() {
+                @Override
+                public void card(String number, String pin, long balance, String currency, byte[] verifier) {
+                    write(number, currency, balance, pin, verifier, true);
+                }
+
+                @Override
+                public void wallet(String number, String currency, long balance) {
+                    write(number, currency, balance, null, null, false);
+                }
+
+                private void write(String number, String currency, long balance, String pin, byte[] verifier,
+                                   boolean card) {
+                    long parsed = CardNumberIssuer.parse(number);
+                    if (parsed < 0) {
+                        return;
+                    }
+                    try {
+                        if (writer != null && card) {
+                            writer.card(parsed, parsePIN(pin), balance, currency, verifier);
+                        } else if (writer != null) {
+                            writer.wallet(parsed, currency, balance);
+                        }
+                        if (csv != null) {
+                            csv.write(number + "," + currency + "," + balance);
+                            csv.newLine();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+            if (count < 0) {
+                throw new IOException("Cannot read cards from the database");
+            }
+            return writer != null ? writer.getCards() : count;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Writes the cards of a snapshot into the database, in transactions of
+     * {@value #RESTORE_CHUNK} cards. Cards that exist already are overwritten.
+     * The whole file is checked before the first transaction, so a damaged
+     * or cut short snapshot leaves the database as it was.
+     *
+     * @param file The snapshot file.
+     * @param dbManager The database.
+     * @return Number of cards restored.
+     * @throws IOException If the file cannot be read or the database cannot be written.
+     */
+    public static long restore(Path file, DBManager dbManager) throws IOException {
+        String[] numbers = new String[RESTORE_CHUNK];
+        String[] pins = new String[RESTORE_CHUNK];
+        long[] balances = new long[RESTORE_CHUNK];
+        String[] currencies = new String[RESTORE_CHUNK];
+        byte[][] verifiers = new byte[RESTORE_CHUNK][];
+        int[] pending = new int[2];
+        String[] walletNumbers = new String[RESTORE_CHUNK];
+        String[] walletCurrencies = new String[RESTORE_CHUNK];
+        long[] walletBalances = new long[RESTORE_CHUNK];
+        // checksum and counts are only known at the end of the file
+        read(file, new Handler() {
+            @Override
+            public void card(String number, int pin, long balance, String currency, byte[] verifier) {
+            }
+
+            @Override
+            public void wallet(String number, String currency, long balance) {
+            }
+        });
+        try {
+            long count = read(file, new Handler() {
+                @Override
+                public void card(String number, int pin, long balance, String currency, byte[] verifier) {
+                    int i = pending[0]++;
+                    numbers[i] = number;
+                    pins[i] = pin < 0 ? null : DBManager.formatPIN(pin);
+                    balances[i] = balance;
+                    currencies[i] = currency;
+                    verifiers[i] = verifier;
+                    if (pending[0] == RESTORE_CHUNK) {
+                        flushCards();
+                    }
+                }
+
+                @Override
+                public void wallet(String number, String currency, long balance) {
+                    // wallets follow all cards, so the cards they belong to are written first
+                    flushCards();
+                    int i = pending[1]++;
+                    walletNumbers[i] = number;
+                    walletCurrencies[i] = currency;
+                    walletBalances[i] = balance;
+                    if (pending[1] == RESTORE_CHUNK) {
+                        flushWallets();
+                    }
+                }
+
+                private void flushCards() {
+                    if (pending[0] > 0
+                            && !dbManager.restoreCards(numbers, pins, balances, currencies, verifiers, pending[0])) {
+                        throw new UncheckedIOException(new IOException("Cannot write cards to the database"));
+                    }
+                    pending[0] = 0;
+                }
+
+                private void flushWallets() {
+                    if (pending[1] > 0
+                            && !dbManager.restoreWallets(walletNumbers, walletCurrencies, walletBalances, pending[1])) {
+                        throw new UncheckedIOException(new IOException("Cannot write balances to the database"));
+                    }
+                    pending[1] = 0;
+                }
+            });
+            if (pending[0] > 0 && !dbManager.restoreCards(numbers, pins, balances, currencies, verifiers, pending[0])) {
+                throw new IOException("Cannot write cards to the database");
+            }
+            if (pending[1] > 0
+                    && !dbManager.restoreWallets(walletNumbers, walletCurrencies, walletBalances, pending[1])) {
+                throw new IOException("Cannot write balances to the database");
+            }
+            return count;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Adds the accounts of a snapshot to the registry, without reading the database.
+     * Their database IDs are not known (0).
+     *
+     * @param file The snapshot file.
+     * @param registry The registry.
+     * @return Number of accounts loaded.
+     * @throws IOException If the file cannot be read.
+     */
+    public static long load(Path file, AccountRegistry registry) throws IOException {
+        return read(file, new Handler() {
+            @Override
+            public void card(String number, int pin, long balance, String currency, byte[] verifier) {
+                registry.add(new UserAccount(number, pin, balance, currency));
+            }
+
+            @Override
+            public void wallet(String number, String currency, long balance) {
+                UserAccount account = registry.get(number);
+                if (account != null) {
+                    account.setBalance(currency, balance);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs "-export FILE" and "-exportCsv FILE", or "-restore FILE", and prints
+     * how many cards were copied and how fast.
+     *
+     * @param bank The bank.
+     * @param args Program arguments.
+     */
+    public static void run(BankingSystem bank, String[] args) {
+        long start = System.nanoTime();
+        try {
+            long count;
+            if (Arguments.has(args, "-restore")) {
+                count = restore(Paths.get(Arguments.get(args, "-restore")), BankingSystem.dbManager);
+                if (bank.journal != null) {
+                    // restored cards are not journaled; a checkpoint makes them durable
+                    bank.journal.checkpoint();
+                }
+            } else {
+                String file = Arguments.get(args, "-export");
+                String csv = Arguments.get(args, "-exportCsv");
+                count = export(BankingSystem.dbManager, file == null ? null : Paths.get(file),
+                        csv == null ? null : Paths.get(csv));
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Copied %d cards in %.2f s (%.0f cards/s)%n",
+                    count, seconds, count / Math.max(seconds, 1e-9));
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private static int parsePIN(String pin) {
+        try {
+            return pin == null ? -1 : Integer.parseInt(pin);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
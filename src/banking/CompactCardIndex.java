@@ -0,0 +1,291 @@
+package banking;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * CompactCardIndex maps card numbers to card data without per-card objects.
+ * Card numbers are stored as 64-bit numbers in an open addressing table
+ * (linear probing, backward-shift deletion); PIN hash, database ID and balance
+ * are kept in parallel primitive arrays at the same slot.
+ * Lookups run without locking (optimistic reads); changes take a write lock.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class CompactCardIndex {
+    private static final long EMPTY = 0L;
+    private static final int MIN_CAPACITY = 16;
+    private static final double MAX_LOAD = 0.6;
+
+    private final StampedLock lock = new StampedLock();
+    private final int pinSalt;
+    private long[] keys;
+    private int[] pinHashes;
+    private int[] ids;
+    private long[] balances;
+    private int size;
+
+    /**
+     * Creates empty index.
+     *
+     * @param expectedSize Number of cards the index should hold without resizing.
+     */
+    public CompactCardIndex(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+        this.pinSalt = (int) System.nanoTime() | 1;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        pinHashes = new int[capacity];
+        ids = new int[capacity];
+        balances = new long[capacity];
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private int pinHash(int pin) {
+        int h = (pin ^ pinSalt) * 0x45D9F3B;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Finds slot of the key; caller must hold a lock or validate an optimistic stamp.
+     */
+    private int find(long[] table, long key) {
+        int mask = table.length - 1;
+        int i = slot(key, mask);
+        for (int probes = 0; probes < table.length; probes++) {
+            long k = table[i];
+            if (k == key) {
+                return i;
+            }
+            if (k == EMPTY) {
+                return -1;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds card, or replaces its data if it's already held.
+     *
+     * @param card Card number, see {@link CardNumberIssuer#parse(CharSequence)}.
+     * @param pin Card's PIN.
+     * @param id Card's ID in the database.
+     * @param balance Card's balance.
+     */
+    public void put(long card, int pin, int id, long balance) {
+        if (card <= 0) {
+            throw new IllegalArgumentException("Invalid card number: " + card);
+        }
+        long stamp = lock.writeLock();
+        try {
+            if (size + 1 > keys.length * MAX_LOAD) {
+                resize(keys.length << 1);
+            }
+            int mask = keys.length - 1;
+            int i = slot(card, mask);
+            while (keys[i] != EMPTY && keys[i] != card) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == EMPTY) {
+                keys[i] = card;
+                size++;
+            }
+            pinHashes[i] = pinHash(pin);
+            ids[i] = id;
+            balances[i] = balance;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldPins = pinHashes;
+        int[] oldIds = ids;
+        long[] oldBalances = balances;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long key = oldKeys[j];
+            if (key == EMPTY) {
+                continue;
+            }
+            int i = slot(key, mask);
+            while (keys[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            pinHashes[i] = oldPins[j];
+            ids[i] = oldIds[j];
+            balances[i] = oldBalances[j];
+        }
+    }
+
+    /**
+     * @param card Card number.
+     * @return true if the card is held.
+     */
+    public boolean contains(long card) {
+        long stamp = lock.tryOptimisticRead();
+        boolean found = find(keys, card) >= 0;
+        if (lock.validate(stamp)) {
+            return found;
+        }
+        stamp = lock.readLock();
+        try {
+            return find(keys, card) >= 0;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @param card Card number.
+     * @return Database ID of the card, or 0 if the card is not held.
+     */
+    public int getId(long card) {
+        long stamp = lock.tryOptimisticRead();
+        int[] idTable = ids;
+        int i = find(keys, card);
+        int id = i >= 0 && i < idTable.length ? idTable[i] : 0;
+        if (lock.validate(stamp)) {
+            return id;
+        }
+        stamp = lock.readLock();
+        try {
+            i = find(keys, card);
+            return i >= 0 ? ids[i] : 0;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @param card Card number.
+     * @param defaultValue Value returned if the card is not held.
+     * @return Balance of the card.
+     */
+    public long getBalance(long card, long defaultValue) {
+        long stamp = lock.readLock();
+        try {
+            int i = find(keys, card);
+            return i >= 0 ? balances[i] : defaultValue;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Sets balance of a card.
+     *
+     * @param card Card number.
+     * @param balance New balance.
+     * @return true if the card is held.
+     */
+    public boolean setBalance(long card, long balance) {
+        long stamp = lock.writeLock();
+        try {
+            int i = find(keys, card);
+            if (i < 0) {
+                return false;
+            }
+            balances[i] = balance;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Checks PIN of a card.
+     *
+     * @param card Card number.
+     * @param pin PIN entered by user.
+     * @return true if the card is held and its PIN hash matches.
+     */
+    public boolean matchesPin(long card, int pin) {
+        long stamp = lock.readLock();
+        try {
+            int i = find(keys, card);
+            return i >= 0 && pinHashes[i] == pinHash(pin);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Removes card.
+     *
+     * @param card Card number.
+     * @return true if the card was held.
+     */
+    public boolean remove(long card) {
+        long stamp = lock.writeLock();
+        try {
+            int i = find(keys, card);
+            if (i < 0) {
+                return false;
+            }
+            // backward-shift deletion keeps probe chains intact without tombstones
+            int mask = keys.length - 1;
+            int hole = i;
+            int j = (i + 1) & mask;
+            while (keys[j] != EMPTY) {
+                int home = slot(keys[j], mask);
+                boolean movable = hole <= j ? (home <= hole || home > j) : (home <= hole && home > j);
+                if (movable) {
+                    keys[hole] = keys[j];
+                    pinHashes[hole] = pinHashes[j];
+                    ids[hole] = ids[j];
+                    balances[hole] = balances[j];
+                    hole = j;
+                }
+                j = (j + 1) & mask;
+            }
+            keys[hole] = EMPTY;
+            size--;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return Number of cards held.
+     */
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return Bytes taken by the index arrays (8 + 4 + 4 + 8 bytes per slot, plus array headers).
+     */
+    public long footprintBytes() {
+        long stamp = lock.readLock();
+        try {
+            return (long) keys.length * (Long.BYTES + Integer.BYTES + Integer.BYTES + Long.BYTES) + 4 * 16;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
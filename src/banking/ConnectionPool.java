@@ -0,0 +1,132 @@
+package banking;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * ConnectionPool keeps a fixed number of long-lived database connections.
+ * Connections are opened once, when the pool is created, and are handed out
+ * to callers with {@link #borrow()}. Closing a borrowed connection returns it
+ * to the pool instead of closing the underlying JDBC connection.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class ConnectionPool implements AutoCloseable {
+    private static final long BORROW_TIMEOUT_SECONDS = 30;
+
+    private final BlockingQueue<PooledConnection> idle;
+    private final List<PooledConnection> all;
+    final Metrics metrics;
+    private volatile boolean closed;
+
+    /**
+     * Opens all connections of the pool.
+     *
+     * @param factory Source of new JDBC connections.
+     * @param size Number of connections kept in the pool.
+     * @throws SQLException If any of the connections cannot be opened.
+     */
+    public ConnectionPool(Supplier<Connection> factory, int size) throws SQLException {
+        this(factory, size, Metrics.DISABLED);
+    }
+
+    /**
+     * Opens all connections of the pool, measuring how long opening a connection,
+     * waiting for an idle one and preparing a statement take.
+     *
+     * @param factory Source of new JDBC connections.
+     * @param size Number of connections kept in the pool.
+     * @param metrics Where the measurements go.
+     * @throws SQLException If any of the connections cannot be opened.
+     */
+    public ConnectionPool(Supplier<Connection> factory, int size, Metrics metrics) throws SQLException {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be positive: " + size);
+        }
+        this.idle = new ArrayBlockingQueue<>(size);
+        this.all = new ArrayList<>(size);
+        this.metrics = metrics;
+        for (int i = 0; i < size; i++) {
+            long start = metrics.start();
+            Connection conn = factory.get();
+            metrics.stop(Metrics.Operation.CONNECTION_OPEN, start);
+            if (conn == null) {
+                metrics.failed(Metrics.Operation.CONNECTION_OPEN);
+                close();
+                throw new SQLException("Cannot open database connection");
+            }
+            PooledConnection pooled = new PooledConnection(this, conn);
+            all.add(pooled);
+            idle.add(pooled);
+        }
+    }
+
+    /**
+     * Takes a connection from the pool, waiting if all connections are in use.
+     *
+     * @return Borrowed connection. Closing it returns it to the pool.
+     * @throws SQLException If the pool is closed or no connection became available in time.
+     */
+    public PooledConnection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = metrics.start();
+        try {
+            PooledConnection conn = idle.poll(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            metrics.stop(Metrics.Operation.POOL_WAIT, start);
+            if (conn == null) {
+                metrics.failed(Metrics.Operation.POOL_WAIT);
+                throw new SQLException("Timed out waiting for database connection");
+            }
+            conn.released = false;
+            return conn;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for database connection", e);
+        }
+    }
+
+    /**
+     * Returns a connection to the pool.
+     *
+     * @param conn Connection previously obtained from {@link #borrow()}.
+     */
+    void release(PooledConnection conn) {
+        if (closed) {
+            conn.closeQuietly();
+        } else {
+            idle.offer(conn);
+        }
+    }
+
+    /**
+     * @return Number of connections in the pool.
+     */
+    public int size() {
+        return all.size();
+    }
+
+    /**
+     * Closes all connections of the pool, together with their cached statements.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (PooledConnection conn : all) {
+            conn.closeQuietly();
+        }
+        idle.clear();
+    }
+}
@@ -0,0 +1,279 @@
+package banking;
+
+import java.io.PrintStream;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * ConsoleSession is the menu-driven conversation with one user, as a state machine.
+ * The session never reads input itself: every word typed by the user is passed
+ * to {@link #accept(String)}, which handles it according to the current state,
+ * prints the reply and moves to the next state. Handling an input never calls
+ * back into the session, so the stack depth stays the same however long the
+ * session runs, and many sessions can be driven by any threads.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class ConsoleSession {
+
+    /**
+     * What the session waits for.
+     */
+    public enum State {
+        MAIN_MENU,
+        LOGIN_CARD,
+        LOGIN_PIN,
+        USER_MENU,
+        INCOME,
+        TRANSFER_CARD,
+        TRANSFER_AMOUNT,
+        FINISHED
+    }
+
+    private static final String SOURCE = "console";
+
+    private final BankingSystem bank;
+    private final PrintStream out;
+    private State state = State.MAIN_MENU;
+    private UserAccount user;
+    private String enteredCard;
+
+    /**
+     * Creates session.
+     *
+     * @param bank The bank.
+     * @param out Where replies are printed.
+     */
+    public ConsoleSession(BankingSystem bank, PrintStream out) {
+        this.bank = bank;
+        this.out = out;
+    }
+
+    /**
+     * Prints the main menu; call once before the first input.
+     */
+    public void start() {
+        printMainMenu();
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return true after the user chose to exit.
+     */
+    public boolean isFinished() {
+        return state == State.FINISHED;
+    }
+
+    /**
+     * Handles one input from the user.
+     *
+     * @param input Word typed in by user.
+     */
+    public void accept(String input) {
+        switch (state) {
+            case MAIN_MENU:
+                mainMenu(input);
+                break;
+            case LOGIN_CARD:
+                enteredCard = input;
+                out.println("Enter your PIN:");
+                state = State.LOGIN_PIN;
+                break;
+            case LOGIN_PIN:
+                logIn(enteredCard, parseNumber(input));
+                break;
+            case USER_MENU:
+                userMenu(input);
+                break;
+            case INCOME:
+                addIncome(Money.parse(input));
+                break;
+            case TRANSFER_CARD:
+                transferCard(input);
+                break;
+            case TRANSFER_AMOUNT:
+                transferAmount(Money.parse(input));
+                break;
+            case FINISHED:
+            default:
+                break;
+        }
+    }
+
+    private void mainMenu(String choice) {
+        switch (choice) {
+            case "1": {
+                try {
+                    UserAccount account = bank.openAccount();
+                    out.println("Your card has been created");
+                    out.printf("Your card number: \n%s\n", account.getCardNumber());
+                    out.printf("Your card PIN: \n%s\n", DBManager.formatPIN(account.getPIN()));
+                } catch (IllegalStateException e) {
+                    out.println(e.getMessage());
+                }
+                printMainMenu();
+                break;
+            }
+            case "2":
+                out.println("Enter your card number:");
+                state = State.LOGIN_CARD;
+                break;
+            case "0":
+                exit();
+                break;
+            default:
+                printMainMenu();
+                break;
+        }
+    }
+
+    private void logIn(String cardNumber, int pin) {
+        enteredCard = null;
+        if (bank.loginLocked(cardNumber, SOURCE)) {
+            out.println("\nToo many failed attempts. Please try again later!");
+            printMainMenu();
+            return;
+        }
+        UserAccount account = bank.authenticate(cardNumber, pin, SOURCE);
+        if (account != null) {
+            out.println("\nYou have successfully logged in!");
+            user = account;
+            printUserMenu();
+        } else {
+            out.println("\nWrong card number or PIN!");
+            printMainMenu();
+        }
+    }
+
+    private void userMenu(String choice) {
+        switch (choice) {
+            case "1":
+                out.println(user.getBalance());
+                printUserMenu();
+                break;
+            case "2":
+                out.println("Enter income:");
+                state = State.INCOME;
+                break;
+            case "3":
+                out.println("Enter card number:");
+                state = State.TRANSFER_CARD;
+                break;
+            case "4":
+                bank.close(user);
+                user = null;
+                out.println("The account has been closed!");
+                printMainMenu();
+                break;
+            case "5":
+                user = null;
+                out.println("You have successfully logged out!");
+                printMainMenu();
+                break;
+            case "0":
+                exit();
+                break;
+            default:
+                printUserMenu();
+                break;
+        }
+    }
+
+    private void addIncome(long income) {
+        if (income <= 0) {
+            out.println("Income must be positive!");
+        } else {
+            try {
+                bank.deposit(user, income);
+                out.println("Income was added!");
+            } catch (ArithmeticException e) {
+                out.println("Income is too large for this account!");
+            } catch (IllegalStateException e) {
+                out.println(e.getMessage());
+            }
+        }
+        printUserMenu();
+    }
+
+    private void transferCard(String cardNumber) {
+        if (!Luhn.isValid(cardNumber)) {
+            out.println("Probably you made a mistake in the card number. Please try again!");
+        } else if (cardNumber.equals(user.getCardNumber())) {
+            out.println("You can't transfer money to the same account!");
+        } else if (!bank.accountExists(cardNumber)) {
+            out.println("Such a card does not exist.");
+        } else {
+            enteredCard = cardNumber;
+            out.println("Enter how much money you want to transfer:");
+            state = State.TRANSFER_AMOUNT;
+            return;
+        }
+        printUserMenu();
+    }
+
+    private void transferAmount(long amount) {
+        String cardNumber = enteredCard;
+        enteredCard = null;
+        switch (bank.transfer(user, cardNumber, amount)) {
+            case SUCCESS:
+                out.println("Success!");
+                break;
+            case NOT_ENOUGH_MONEY:
+                out.println("Not enough money!");
+                break;
+            case INVALID_AMOUNT:
+                out.println("Amount must be positive!");
+                break;
+            case NO_SUCH_RECIPIENT:
+                out.println("Such a card does not exist.");
+                break;
+            case BALANCE_OVERFLOW:
+                out.println("Amount is too large for the recipient's account!");
+                break;
+            case NO_EXCHANGE_RATE:
+                out.println("No exchange rate for the recipient's currency!");
+                break;
+            default:
+                out.println("Transfer failed!");
+                break;
+        }
+        printUserMenu();
+    }
+
+    private void exit() {
+        user = null;
+        out.println("Bye!");
+        state = State.FINISHED;
+    }
+
+    private void printMainMenu() {
+        out.println("\n1. Create an account");
+        out.println("2. Log into account");
+        out.println("0. Exit\n");
+        state = State.MAIN_MENU;
+    }
+
+    private void printUserMenu() {
+        out.println("\n1. Balance");
+        out.println("2. Add income");
+        out.println("3. Do transfer");
+        out.println("4. Close account");
+        out.println("5. Log out");
+        out.println("0. Exit\n");
+        state = State.USER_MENU;
+    }
+
+    private static int parseNumber(String input) {
+        try {
+            return Integer.parseInt(input);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
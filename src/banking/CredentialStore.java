@@ -0,0 +1,220 @@
+package banking;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * CredentialStore keeps PIN verifiers instead of comparing plain PINs.
+ * A verifier is a random 16-byte salt followed by HMAC-SHA256 of salt,
+ * card number and PIN, keyed with a secret pepper. The pepper lives in its own
+ * file next to the database, so a copy of the database alone does not allow
+ * guessing the 10,000 possible PINs.
+ *
+ * Verifiers are stored in the card_credential table and cached per card after
+ * the first login, so checking a PIN costs one HMAC and no database read.
+ * The computed HMAC is compared in constant time.
+ *
+ * Only PINs 0..9999 are accepted, and the whole 4-byte PIN goes into the HMAC.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class CredentialStore {
+    static final int SALT_SIZE = 16;
+    static final int HASH_SIZE = 32;
+    static final int VERIFIER_SIZE = SALT_SIZE + HASH_SIZE;
+    private static final int PEPPER_SIZE = 32;
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int MIGRATION_BATCH = 10_000;
+    private static final int MAX_PIN = 9999;
+
+    private final DBManager dbManager;
+    private final SecretKeySpec pepper;
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentHashMap<String, byte[]> verifiers = new ConcurrentHashMap<>();
+    private final ThreadLocal<Mac> macs;
+    private final byte[] dummyVerifier;
+
+    /**
+     * Creates store.
+     *
+     * @param dbManager Database with the card_credential table, or null to keep verifiers in memory only.
+     * @param pepper Secret key of the HMAC, see {@link #loadPepper(Path, boolean)}.
+     */
+    public CredentialStore(DBManager dbManager, byte[] pepper) {
+        this.dbManager = dbManager;
+        this.pepper = new SecretKeySpec(pepper, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(this.pepper);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        this.dummyVerifier = newVerifier(0, 0);
+    }
+
+    /**
+     * Reads the pepper from a file, or creates the file with a random pepper.
+     * A new pepper is only created when no verifier exists yet, because
+     * verifiers made with a lost pepper can never match again.
+     *
+     * @param file Pepper file.
+     * @param create true if a missing file may be created.
+     * @return The pepper.
+     * @throws IOException If the file cannot be read or created, or is missing and may not be created.
+     */
+    public static byte[] loadPepper(Path file, boolean create) throws IOException {
+        if (Files.exists(file)) {
+            byte[] pepper = Files.readAllBytes(file);
+            if (pepper.length != PEPPER_SIZE) {
+                throw new IOException("Invalid pepper file " + file);
+            }
+            return pepper;
+        }
+        if (!create) {
+            throw new IOException("Pepper file " + file + " is missing, but PIN verifiers were made with it");
+        }
+        byte[] pepper = new byte[PEPPER_SIZE];
+        new SecureRandom().nextBytes(pepper);
+        Files.write(file, pepper);
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException ignored) {
+            // not a POSIX file system
+        }
+        return pepper;
+    }
+
+    /**
+     * Creates verifier of a PIN, with a new random salt.
+     *
+     * @param card Card number, see {@link CardNumberIssuer#parse(CharSequence)}.
+     * @param pin The PIN, 0..9999.
+     * @return Salt followed by HMAC.
+     * @throws IllegalArgumentException If the PIN is out of range.
+     */
+    public byte[] newVerifier(long card, int pin) {
+        if (!inRange(pin)) {
+            throw new IllegalArgumentException("PIN out of range");
+        }
+        byte[] verifier = new byte[VERIFIER_SIZE];
+        random.nextBytes(verifier);
+        hash(verifier, card, pin, verifier, SALT_SIZE);
+        return verifier;
+    }
+
+    private static boolean inRange(int pin) {
+        return pin >= 0 && pin <= MAX_PIN;
+    }
+
+    private void hash(byte[] salt, long card, int pin, byte[] out, int offset) {
+        Mac mac = macs.get();
+        mac.update(salt, 0, SALT_SIZE);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            mac.update((byte) (card >>> shift));
+        }
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            mac.update((byte) (pin >>> shift));
+        }
+        try {
+            mac.doFinal(out, offset);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Keeps verifier of a card in memory.
+     *
+     * @param cardNumber Number of the card.
+     * @param verifier The verifier.
+     */
+    public void remember(String cardNumber, byte[] verifier) {
+        verifiers.put(cardNumber, verifier);
+    }
+
+    /**
+     * Drops verifier of a closed card from memory.
+     *
+     * @param cardNumber Number of the card.
+     */
+    public void forget(String cardNumber) {
+        verifiers.remove(cardNumber);
+    }
+
+    /**
+     * Checks PIN of a card. Takes the same time whether the card exists or not,
+     * and whatever the PIN is.
+     *
+     * @param cardNumber Number of the card.
+     * @param pin PIN entered by user.
+     * @return true if the PIN is right.
+     */
+    public boolean verify(String cardNumber, int pin) {
+        long card = CardNumberIssuer.parse(cardNumber);
+        byte[] verifier = card < 0 ? null : verifiers.get(cardNumber);
+        if (verifier == null && card >= 0 && dbManager != null) {
+            verifier = dbManager.selectCredential(cardNumber);
+            if (verifier != null) {
+                verifiers.put(cardNumber, verifier);
+            }
+        }
+        boolean known = verifier != null && verifier.length == VERIFIER_SIZE;
+        byte[] expected = known ? verifier : dummyVerifier;
+        byte[] actual = new byte[HASH_SIZE];
+        hash(expected, card, pin, actual, 0);
+        byte[] stored = new byte[HASH_SIZE];
+        System.arraycopy(expected, SALT_SIZE, stored, 0, HASH_SIZE);
+        return MessageDigest.isEqual(stored, actual) && known && inRange(pin);
+    }
+
+    /**
+     * Creates verifiers for cards that have none yet, from the PINs in the card table.
+     * Runs on every start, so cards written by older versions get verifiers
+     * before anyone logs in.
+     *
+     * @return Number of cards that got a verifier.
+     */
+    public int migrate() {
+        List<String> cards = new ArrayList<>();
+        List<byte[]> records = new ArrayList<>();
+        dbManager.selectCardsWithoutCredential((id, number, pin, balance, currency) -> {
+            long card = CardNumberIssuer.parse(number);
+            int parsed = parsePIN(pin);
+            if (card >= 0 && inRange(parsed)) {
+                cards.add(number);
+                records.add(newVerifier(card, parsed));
+            }
+        });
+        for (int from = 0; from < cards.size(); from += MIGRATION_BATCH) {
+            int to = Math.min(cards.size(), from + MIGRATION_BATCH);
+            dbManager.insertCredentials(cards.subList(from, to), records.subList(from, to));
+        }
+        return cards.size();
+    }
+
+    private static int parsePIN(String pin) {
+        try {
+            return pin == null ? -1 : Integer.parseInt(pin);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -1,6 +1,12 @@
 package banking;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Course: JetBrains Academy, Java Developer Track
@@ -14,18 +20,186 @@ import java.sql.*;
  * @version 1.1
  */
 public class DBManager {
+
+    /**
+     * Receives rows of the card table.
+     */
+    @FunctionalInterface
+    public interface CardRowHandler {
+        void accept(int id, String number, String pin, long balance, String currency);
+    }
+
+    /**
+     * Receives rows of the card_balance table.
+     */
+    @FunctionalInterface
+    public interface WalletRowHandler {
+        void accept(String number, String currency, long balance);
+    }
+
+    /**
+     * Receives rows of a snapshot: every card with its PIN verifier,
+     * then every balance in another currency.
+     */
+    public interface SnapshotRowHandler {
+        void card(String number, String pin, long balance, String currency, byte[] verifier);
+
+        void wallet(String number, String currency, long balance);
+    }
+
+    private static final String DEBIT =
+            "UPDATE card SET balance = balance - ? WHERE number = ? AND currency = ? AND balance >= ?";
+    private static final String DEBIT_WALLET = "UPDATE card_balance SET balance = balance - ? "
+            + "WHERE number = ? AND currency = ? AND balance >= ?";
+    private static final String CREDIT =
+            "UPDATE card SET balance = balance + ? WHERE number = ? AND currency = ? AND balance <= ?";
+
+    static final String DIRECTORY = "C:\\Users\\Mirek\\IdeaProjects\\Simple Banking System\\Simple Banking System\\task\\";
+    static final int DEFAULT_POOL_SIZE = 4;
+    static final int DEFAULT_TRANSACTION_SIZE = 50_000;
+
     String db;
+    ConnectionPool pool;
+    ConnectionPool readPool;
+    volatile CompactCardIndex cardIndex;
+    CardCache cardCache;
+    boolean bulkTuning;
+    String bulkSynchronous = "NORMAL";
+    int transactionSize = DEFAULT_TRANSACTION_SIZE;
+    boolean journaled;
+    boolean walReaders;
+    boolean plainPins = true;
+    String currency = Money.DEFAULT_CURRENCY;
+    Metrics metrics = Metrics.DISABLED;
+    boolean ownsMetrics;
+    WriteScheduler writeScheduler;
 
     /**
      * Reads database details from program arguments,
+     * opens the connection pool (size is read from "-poolSize" argument),
      * and passes these to a method that creates database table,
      * if it hasn't been created yet.
+     * Bulk inserts are tuned with "-bulkTuning", "-synchronous" and "-transactionSize" arguments.
+     * With "-journal", connections use WAL journal and do not flush commits to disk;
+     * {@link MutationJournal} makes the changes durable instead.
+     * Card lookups are cached for "-cacheSize" cards (0 turns the cache off), see {@link CardCache}.
+     * With "-scrubPins", the pin column is cleared once a card has a PIN verifier, see {@link CredentialStore}.
+     * New cards hold money in the currency given by "-currency" (USD by default).
+     * Operations are measured with "-metrics", see {@link Metrics}.
+     * With "-readPool N", the database runs in WAL mode: all writes go through one
+     * writer connection, and queries through N read-only connections, which read
+     * committed data without waiting for the writer.
+     * With "-groupCommit", single-card writes of concurrent callers are committed together,
+     * in batches of up to "-groupCommitSize" writes collected for up to "-groupCommitMillis",
+     * see {@link WriteScheduler}.
+     * A file split into shards must be opened with {@link ShardedDBManager} instead.
      *
      * @param args Program arguments with database details.
      */
     public void setup(String[] args) {
-        getFileName(args);
+        if (ownsMetrics) {
+            metrics.close();
+        }
+        open(args, getFileName(args), Metrics.fromArguments(args));
+        ownsMetrics = true;
+        int shards = selectShardCount();
+        if (shards > 1) {
+            System.out.println("Database is split into " + shards + " shards, run with \"-shards " + shards + "\"");
+        }
+    }
+
+    /**
+     * Reads settings from program arguments, except the name of the database file.
+     *
+     * @param args Program arguments.
+     */
+    void readSettings(String[] args) {
+        bulkTuning = Arguments.has(args, "-bulkTuning");
+        String synchronous = Arguments.get(args, "-synchronous");
+        if (synchronous != null && synchronous.matches("(?i)OFF|NORMAL|FULL|EXTRA")) {
+            bulkSynchronous = synchronous.toUpperCase();
+        }
+        transactionSize = Math.max(1, Arguments.getInt(args, "-transactionSize", DEFAULT_TRANSACTION_SIZE));
+        journaled = Arguments.has(args, "-journal");
+        plainPins = !Arguments.has(args, "-scrubPins");
+        String code = Arguments.get(args, "-currency");
+        if (code != null) {
+            try {
+                currency = Money.currency(code);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Unknown currency " + code + ", using " + currency);
+            }
+        }
+        int cacheSize = Arguments.getInt(args, "-cacheSize", CardCache.DEFAULT_CAPACITY);
+        cardCache = cacheSize > 0 ? new CardCache(cacheSize) : null;
+    }
+
+    /**
+     * Opens a database file with the settings from program arguments, see {@link #setup(String[])}.
+     * The metrics are shared with the caller, who closes them.
+     *
+     * @param args Program arguments.
+     * @param fileName Name of the database file.
+     * @param metrics Where measurements go.
+     */
+    void open(String[] args, String fileName, Metrics metrics) {
+        readSettings(args);
+        if (!fileName.isEmpty()) {
+            this.db = fileName;
+        }
+        this.metrics = metrics;
+        this.ownsMetrics = false;
+        int poolSize = Arguments.getInt(args, "-poolSize", DEFAULT_POOL_SIZE);
+        int readers = Arguments.getInt(args, "-readPool", 0);
+        walReaders = readers > 0;
+        try {
+            // SQLite has one writer at a time, so with read-only connections one writer connection is enough
+            this.pool = new ConnectionPool(() -> configure(connect(db)), walReaders ? 1 : Math.max(1, poolSize),
+                    metrics);
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
         createNewTable(db);
+        if (walReaders) {
+            try {
+                this.readPool = new ConnectionPool(() -> configureReader(connect(db)), readers, metrics);
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        if (Arguments.has(args, "-groupCommit")) {
+            writeScheduler = new WriteScheduler(pool,
+                    Arguments.getInt(args, "-groupCommitSize", WriteScheduler.DEFAULT_MAX_BATCH),
+                    Arguments.getInt(args, "-groupCommitMillis", WriteScheduler.DEFAULT_MAX_DELAY_MILLIS),
+                    metrics);
+        }
+    }
+
+    /**
+     * Commits queued writes, closes all pooled connections and stops publishing metrics.
+     */
+    public void close() {
+        if (writeScheduler != null) {
+            writeScheduler.close();
+            writeScheduler = null;
+        }
+        if (readPool != null) {
+            readPool.close();
+        }
+        if (pool != null) {
+            pool.close();
+        }
+        if (ownsMetrics) {
+            metrics.close();
+        }
+    }
+
+    /**
+     * @return Measurements of database operations; turned off unless "-metrics" is used.
+     */
+    public Metrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -55,39 +229,69 @@ public class DBManager {
     }
 
     /**
-     * Creates database table for user accounts.
+     * Creates database table for user accounts, if it hasn't been created yet,
+     * and applies pending schema migrations (see {@link SchemaMigrator#cardSchema()}).
      *
      * @param db Name of the database file.
      */
     public void createNewTable(String db) {
-
-        // SQL statement for creating a new table
-        String sql = "CREATE TABLE IF NOT EXISTS card (\n" +
-                "        id INTEGER PRIMARY KEY AUTOINCREMENT,\n" +
-                "        number  TEXT,\n" +
-                "        pin     TEXT,\n" +
-                "        balance INTEGER DEFAULT 0\n" +
-                "      );";
-
-        try (Connection conn = this.connect(db);
-             Statement stmt = conn.createStatement()) {
-            // create a new table
-            stmt.execute(sql);
+        try (PooledConnection conn = pool.borrow()) {
+            SchemaMigrator.cardSchema().migrate(conn.getConnection());
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
+    }
+
+    /**
+     * Formats PIN the way it is stored in the database: as 4-digit text, with leading zeros.
+     *
+     * @param pin Card's PIN.
+     * @return PIN as stored in the pin column.
+     */
+    static String formatPIN(int pin) {
+        char[] digits = {'0', '0', '0', '0'};
+        for (int i = 3; i >= 0 && pin > 0; i--) {
+            digits[i] = (char) ('0' + pin % 10);
+            pin /= 10;
+        }
+        return new String(digits);
+    }
+
+    /**
+     * @return Path of the database file, as opened by {@link #connect(String)}.
+     */
+    public Path file() {
+        return file(db);
+    }
+
+    /**
+     * Finds a file kept next to the database file, such as the pepper or a journal.
+     *
+     * @param suffix Appended to the name of the database file.
+     * @return Path of the file; it may not exist yet.
+     */
+    public Path sidecar(String suffix) {
+        return Paths.get(file() + suffix);
+    }
 
+    /**
+     * @param db Name of a database file.
+     * @return Path of the database file, as opened by {@link #connect(String)}.
+     */
+    static Path file(String db) {
+        return Paths.get(DIRECTORY + db);
     }
 
     /**
-     * Establishes connection with the database.
+     * Establishes new physical connection with the database.
+     * Used by the connection pool; other methods borrow connections from the pool.
      *
      * @param db Name of the database file.
      * @return Database connection.
      */
     private Connection connect(String db) {
         // SQLite connection string
-        String url = "jdbc:sqlite:C:\\Users\\Mirek\\IdeaProjects\\Simple Banking System\\Simple Banking System\\task\\" + db;
+        String url = "jdbc:sqlite:" + file(db);
         Connection conn = null;
         try {
             conn = DriverManager.getConnection(url);
@@ -97,90 +301,1730 @@ public class DBManager {
         return conn;
     }
 
+    /**
+     * Applies connection settings: WAL journal when the database is journaled
+     * by {@link MutationJournal} or has read-only connections, and synchronous=NORMAL
+     * when journaled.
+     *
+     * @param conn New database connection.
+     * @return The same connection.
+     */
+    private Connection configure(Connection conn) {
+        if (conn != null && (journaled || walReaders)) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA journal_mode=WAL");
+                stmt.execute("PRAGMA synchronous=" + commitSynchronous());
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        return conn;
+    }
+
+    /**
+     * Makes a new connection read-only, so a query routed to it can never take the write lock.
+     *
+     * @param conn New database connection.
+     * @return The same connection, or null if it could not be made read-only.
+     */
+    private Connection configureReader(Connection conn) {
+        if (conn != null) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA query_only=1");
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+                try {
+                    conn.close();
+                } catch (SQLException ignored) {
+                }
+                return null;
+            }
+        }
+        return conn;
+    }
+
+    /**
+     * Borrows a connection for queries: a read-only one with "-readPool", otherwise any pooled one.
+     *
+     * @return Borrowed connection. Closing it returns it to its pool.
+     * @throws SQLException If no connection became available.
+     */
+    private PooledConnection borrowReader() throws SQLException {
+        ConnectionPool readers = readPool;
+        return readers != null ? readers.borrow() : pool.borrow();
+    }
+
+    /**
+     * @return Synchronous level used outside bulk inserts.
+     */
+    private String commitSynchronous() {
+        return journaled ? "NORMAL" : "FULL";
+    }
+
+    /**
+     * Runs a single-card write in a transaction of its own, or, with "-groupCommit",
+     * in the next batch of the write scheduler, and waits until it has committed.
+     *
+     * @param write The write; it must not commit or roll back.
+     * @return Result of the write.
+     * @throws SQLException If the write or its commit failed; nothing was changed then.
+     */
+    private <T> T write(WriteScheduler.Write<T> write) throws SQLException {
+        WriteScheduler scheduler = writeScheduler;
+        if (scheduler != null) {
+            return scheduler.execute(write);
+        }
+        try (PooledConnection conn = pool.borrow()) {
+            conn.getConnection().setAutoCommit(false);
+            T result = write.apply(conn);
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+            return result;
+        }
+    }
+
+    /**
+     * Lets {@link #selectIDByCard(String)} answer from a compact card index
+     * before querying the database.
+     *
+     * @param cardIndex The index, or null to always query the database.
+     */
+    public void setCardIndex(CompactCardIndex cardIndex) {
+        this.cardIndex = cardIndex;
+    }
+
+    /**
+     * @return The card cache, or null if it's turned off.
+     */
+    public CardCache getCardCache() {
+        return cardCache;
+    }
+
     /**
      * Queries the database for card, based on card number.
+     * If a compact card index is set and holds the card, or the card cache does,
+     * the database is not queried.
      *
      * @param card Number of the card to find in the database.
      * @return ID of the card in the database.
      */
-    public int selectIDByCard(String card){
-        String sql = "SELECT id FROM card WHERE number = ?";
+    public int selectIDByCard(String card) {
+        long start = metrics.start();
+        int id = findIDByCard(card);
+        metrics.stop(Metrics.Operation.SELECT_ID, start, id > 0 ? 1 : 0);
+        return id;
+    }
+
+    private int findIDByCard(String card) {
+        CompactCardIndex index = cardIndex;
+        if (index != null) {
+            int indexed = index.getId(CardNumberIssuer.parse(card));
+            if (indexed > 0) {
+                return indexed;
+            }
+        }
+        CardCache cache = cardCache;
+        long stamp = 0;
+        if (cache != null) {
+            int cached = cache.getId(card);
+            if (cached > 0) {
+                return cached;
+            }
+            stamp = cache.stamp(card);
+        }
+        String sql = "SELECT id, balance FROM card WHERE number = ?";
         int ID = 0;
-        try (Connection conn = this.connect(db);
-             PreparedStatement pstmt  = conn.prepareStatement(sql)){
+        try (PooledConnection conn = borrowReader()) {
+            PreparedStatement pstmt = conn.prepare(sql);
             pstmt.setString(1, card);
-            ResultSet rs    = pstmt.executeQuery();
-            // loop through the result set
-            while (rs.next()) {
-                ID = rs.getInt("id");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                // loop through the result set
+                while (rs.next()) {
+                    ID = rs.getInt("id");
+                    if (cache != null) {
+                        cache.putIfUnchanged(card, ID, rs.getLong("balance"), true, stamp);
+                    }
+                }
             }
         } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.SELECT_ID);
             System.out.println(e.getMessage());
         }
         return ID;
     }
 
     /**
-     * Inserts new card into the database.
+     * Queries the database for balance of a card, unless the card cache holds it.
+     *
+     * @param card Number of the card.
+     * @return Balance of the card, or -1 if there is no such card.
+     */
+    public long selectBalanceByCard(String card) {
+        long start = metrics.start();
+        long balance = findBalanceByCard(card);
+        metrics.stop(Metrics.Operation.SELECT_BALANCE, start, balance >= 0 ? 1 : 0);
+        return balance;
+    }
+
+    private long findBalanceByCard(String card) {
+        CardCache cache = cardCache;
+        long stamp = 0;
+        if (cache != null) {
+            CardCache.Entry cached = cache.getBalance(card);
+            if (cached != null) {
+                return cached.balance;
+            }
+            stamp = cache.stamp(card);
+        }
+        String sql = "SELECT id, balance FROM card WHERE number = ?";
+        try (PooledConnection conn = borrowReader()) {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setString(1, card);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return -1;
+                }
+                long balance = rs.getLong(2);
+                if (cache != null) {
+                    cache.putIfUnchanged(card, rs.getInt(1), balance, true, stamp);
+                }
+                return balance;
+            }
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.SELECT_BALANCE);
+            System.out.println(e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Reads all cards from the database.
+     *
+     * @param handler Receives every row of the card table.
+     * @return Number of rows read.
+     */
+    public int selectAllCards(CardRowHandler handler) {
+        String sql = "SELECT id, number, pin, balance, currency FROM card";
+        int count = 0;
+        long start = metrics.start();
+        try (PooledConnection conn = borrowReader();
+             ResultSet rs = conn.prepare(sql).executeQuery()) {
+            while (rs.next()) {
+                handler.accept(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getLong(4), rs.getString(5));
+                count++;
+            }
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.SELECT_ALL_CARDS);
+            System.out.println(e.getMessage());
+        } finally {
+            metrics.stop(Metrics.Operation.SELECT_ALL_CARDS, start, count);
+        }
+        return count;
+    }
+
+    /**
+     * Reads balances cards hold in other currencies than their own.
+     *
+     * @param handler Receives every row of the card_balance table.
+     * @return Number of rows read.
+     */
+    public int selectWallets(WalletRowHandler handler) {
+        String sql = "SELECT number, currency, balance FROM card_balance";
+        int count = 0;
+        try (PooledConnection conn = borrowReader();
+             ResultSet rs = conn.prepare(sql).executeQuery()) {
+            while (rs.next()) {
+                handler.accept(rs.getString(1), rs.getString(2), rs.getLong(3));
+                count++;
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        return count;
+    }
+
+    /**
+     * Queries the database for currency of a card.
+     *
+     * @param card Number of the card.
+     * @return Currency code, or null if there is no such card.
+     */
+    public String selectCurrencyByCard(String card) {
+        String sql = "SELECT currency FROM card WHERE number = ?";
+        try (PooledConnection conn = borrowReader()) {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setString(1, card);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Outcome of {@link #insertCard(String, int, long, byte[])}.
+     */
+    public enum InsertResult {
+        INSERTED,
+        NUMBER_TAKEN,
+        FAILED
+    }
+
+    /**
+     * Inserts new card into the database, together with its PIN verifier.
      *
      * @param number Card number.
-     * @param pin Card's PIN.
-     * @param balance Card's balance.
+     * @param pin Card's PIN; stored in the pin column unless "-scrubPins" is used.
+     * @param balance Card's balance, in minor units.
+     * @param verifier PIN verifier, see {@link CredentialStore}.
+     * @return true if the card was inserted, false if it failed (e.g. the number is already taken).
      */
-    public void insert(String number, int pin, int balance) {
-        String sql = "INSERT INTO card(number,pin,balance) VALUES(?,?,?)";
+    public boolean insert(String number, int pin, long balance, byte[] verifier) {
+        return insertCard(number, pin, balance, verifier) == InsertResult.INSERTED;
+    }
 
-        try (Connection conn = this.connect(db);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, number);
-            pstmt.setInt(2, pin);
-            pstmt.setInt(3, balance);
-            pstmt.executeUpdate();
+    /**
+     * Inserts new card into the database, together with its PIN verifier,
+     * and tells a number already taken apart from other failures.
+     *
+     * @param number Card number.
+     * @param pin Card's PIN; stored in the pin column unless "-scrubPins" is used.
+     * @param balance Card's balance, in minor units.
+     * @param verifier PIN verifier, see {@link CredentialStore}.
+     * @return INSERTED, NUMBER_TAKEN if another card has the number, or FAILED.
+     */
+    public InsertResult insertCard(String number, int pin, long balance, byte[] verifier) {
+        String sql = "INSERT INTO card(number,pin,balance,currency) VALUES(?,?,?,?)";
+        String credential = "INSERT OR REPLACE INTO card_credential(number,verifier) VALUES(?,?)";
+
+        long start = metrics.start();
+        try {
+            return write(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                pstmt.setString(1, number);
+                pstmt.setString(2, plainPins ? formatPIN(pin) : null);
+                pstmt.setLong(3, balance);
+                pstmt.setString(4, currency);
+                pstmt.executeUpdate();
+                pstmt = conn.prepare(credential);
+                pstmt.setString(1, number);
+                pstmt.setBytes(2, verifier);
+                pstmt.executeUpdate();
+                return InsertResult.INSERTED;
+            });
         } catch (SQLException e) {
+            if (isUniqueViolation(e)) {
+                return InsertResult.NUMBER_TAKEN;
+            }
+            metrics.failed(Metrics.Operation.INSERT);
             System.out.println(e.getMessage());
+            return InsertResult.FAILED;
+        } finally {
+            metrics.stop(Metrics.Operation.INSERT, start);
+        }
+    }
+
+    private static boolean isUniqueViolation(SQLException e) {
+        // SQLITE_CONSTRAINT; the driver names the kind of constraint only in the message
+        return e.getErrorCode() == 19 && e.getMessage() != null && e.getMessage().contains("UNIQUE");
+    }
+
+    private static String journalMode(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA journal_mode")) {
+            return rs.next() ? rs.getString(1) : null;
         }
     }
 
     /**
-     * Updates card's balance.
+     * Inserts many new cards with JDBC batches.
+     * Rows are committed in transactions of "-transactionSize" cards.
+     * With "-bulkTuning", the database is switched to WAL journal and
+     * the synchronous level from "-synchronous" is used while inserting;
+     * both are set back afterwards.
+     * Numbers that are already taken are skipped.
      *
-     * @param id Card's ID in the database.
-     * @param newBalance Updated balance on the card.
+     * @param numbers Card numbers.
+     * @param pins Cards' PINs, in the same order as numbers.
+     * @param verifiers Cards' PIN verifiers, in the same order as numbers.
+     * @param count How many cards from the arrays to insert.
+     * @return Number of cards inserted.
      */
-    public void update(int id, int newBalance) {
-        String sql = "UPDATE card SET balance = ?"
-                + "WHERE id = ?";
+    public int insertBatch(String[] numbers, int[] pins, byte[][] verifiers, int count) {
+        return insertBatch(numbers, pins, verifiers, count, null);
+    }
 
-        try (Connection conn = this.connect(db);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+    /**
+     * Inserts many new cards with JDBC batches, see {@link #insertBatch(String[], int[], byte[][], int)},
+     * and tells which of them were inserted.
+     *
+     * @param numbers Card numbers.
+     * @param pins Cards' PINs, in the same order as numbers.
+     * @param verifiers Cards' PIN verifiers, in the same order as numbers.
+     * @param count How many cards from the arrays to insert.
+     * @param inserted If not null, receives true for every card that was inserted and committed,
+     *                 false for cards skipped or lost with a failed transaction.
+     * @return Number of cards inserted.
+     */
+    public int insertBatch(String[] numbers, int[] pins, byte[][] verifiers, int count, boolean[] inserted) {
+        String sql = "INSERT OR IGNORE INTO card(number,pin,balance,currency) VALUES(?,?,0,?)";
+        String credential = "INSERT OR IGNORE INTO card_credential(number,verifier) VALUES(?,?)";
+        int total = 0;
+        if (inserted != null) {
+            Arrays.fill(inserted, 0, count, false);
+        }
+        long start = metrics.start();
+        try (PooledConnection conn = pool.borrow()) {
+            String journalMode = null;
+            if (bulkTuning) {
+                try (Statement stmt = conn.createStatement()) {
+                    journalMode = journalMode(stmt);
+                    stmt.execute("PRAGMA journal_mode=WAL");
+                    stmt.execute("PRAGMA synchronous=" + bulkSynchronous);
+                }
+            }
+            try {
+                conn.getConnection().setAutoCommit(false);
+                PreparedStatement pstmt = conn.prepare(sql);
+                PreparedStatement cstmt = conn.prepare(credential);
+                int first = 0;
+                for (int i = 0; i < count; i++) {
+                    pstmt.setString(1, numbers[i]);
+                    pstmt.setString(2, plainPins ? formatPIN(pins[i]) : null);
+                    pstmt.setString(3, currency);
+                    pstmt.addBatch();
+                    cstmt.setString(1, numbers[i]);
+                    cstmt.setBytes(2, verifiers[i]);
+                    cstmt.addBatch();
+                    if ((i + 1) % transactionSize == 0 || i == count - 1) {
+                        int[] results = pstmt.executeBatch();
+                        cstmt.executeBatch();
+                        conn.getConnection().commit();
+                        total += countUpdates(results);
+                        if (inserted != null) {
+                            for (int r = 0; r < results.length; r++) {
+                                inserted[first + r] = results[r] > 0 || results[r] == Statement.SUCCESS_NO_INFO;
+                            }
+                        }
+                        first = i + 1;
+                    }
+                }
+                conn.getConnection().setAutoCommit(true);
+            } finally {
+                if (bulkTuning) {
+                    if (!conn.getConnection().getAutoCommit()) {
+                        // a failed transaction, the journal mode cannot change inside it
+                        conn.getConnection().rollback();
+                        conn.getConnection().setAutoCommit(true);
+                    }
+                    try (Statement stmt = conn.createStatement()) {
+                        stmt.execute("PRAGMA synchronous=" + commitSynchronous());
+                        // the journal mode is kept in the database file, so put back the one it had
+                        if (journalMode != null && !journalMode.equalsIgnoreCase("wal")) {
+                            stmt.execute("PRAGMA journal_mode=" + journalMode);
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.INSERT_BATCH);
+            System.out.println(e.getMessage());
+        } finally {
+            metrics.stop(Metrics.Operation.INSERT_BATCH, start, total);
+        }
+        return total;
+    }
 
-            // set the corresponding param
-            pstmt.setInt(1, newBalance);
-            pstmt.setInt(2, id);
-            // update
-            pstmt.executeUpdate();
+    /**
+     * Reads all cards, their PIN verifiers and their balances in other currencies
+     * from one consistent snapshot of the database. Both queries run in one read
+     * transaction and stream rows through a forward-only cursor, so memory use
+     * does not depend on the number of cards. In WAL mode (with "-journal"),
+     * writers go on while the snapshot is read; otherwise they wait until it ends.
+     *
+     * @param handler Receives the rows.
+     * @return Number of cards read, or -1 if reading failed.
+     */
+    public int exportSnapshot(SnapshotRowHandler handler) {
+        String cards = "SELECT c.number, c.pin, c.balance, c.currency, cr.verifier "
+                + "FROM card c LEFT JOIN card_credential cr ON cr.number = c.number ORDER BY c.id";
+        String wallets = "SELECT number, currency, balance FROM card_balance ORDER BY number, currency";
+        int count = 0;
+        long start = metrics.start();
+        try (PooledConnection conn = borrowReader()) {
+            // the read transaction starts with the first query and sees no later commit
+            conn.getConnection().setAutoCommit(false);
+            try (Statement stmt = conn.getConnection().createStatement(
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                stmt.setFetchSize(transactionSize);
+                try (ResultSet rs = stmt.executeQuery(cards)) {
+                    while (rs.next()) {
+                        handler.card(rs.getString(1), rs.getString(2), rs.getLong(3), rs.getString(4), rs.getBytes(5));
+                        count++;
+                    }
+                }
+                try (ResultSet rs = stmt.executeQuery(wallets)) {
+                    while (rs.next()) {
+                        handler.wallet(rs.getString(1), rs.getString(2), rs.getLong(3));
+                    }
+                }
+            }
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+            return count;
         } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.EXPORT_SNAPSHOT);
             System.out.println(e.getMessage());
+            return -1;
+        } finally {
+            metrics.stop(Metrics.Operation.EXPORT_SNAPSHOT, start, count);
         }
     }
 
     /**
-     * Deletes card from the database.
+     * Writes cards read from a snapshot, with their balances and PIN verifiers.
+     * A card that exists already is overwritten.
      *
-     * @param id Card's ID.
+     * @param numbers Card numbers.
+     * @param pins PINs as stored in the pin column, or null.
+     * @param balances Balances.
+     * @param currencies Currencies of the cards.
+     * @param verifiers PIN verifiers, or null for cards without one.
+     * @param count How many cards from the arrays to write.
+     * @return true if the transaction was committed.
      */
-    public void delete(int id) {
-        String sql = "DELETE FROM card WHERE id = ?";
-        System.out.println(sql);
-        try (Connection conn = this.connect(db);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+    public boolean restoreCards(String[] numbers, String[] pins, long[] balances, String[] currencies,
+                                byte[][] verifiers, int count) {
+        String sql = "INSERT INTO card(number,pin,balance,currency) VALUES(?,?,?,?) ON CONFLICT(number) "
+                + "DO UPDATE SET pin = excluded.pin, balance = excluded.balance, currency = excluded.currency";
+        String credential = "INSERT OR REPLACE INTO card_credential(number,verifier) VALUES(?,?)";
+        long start = metrics.start();
+        try (PooledConnection conn = pool.borrow()) {
+            conn.getConnection().setAutoCommit(false);
+            PreparedStatement pstmt = conn.prepare(sql);
+            PreparedStatement cstmt = conn.prepare(credential);
+            for (int i = 0; i < count; i++) {
+                pstmt.setString(1, numbers[i]);
+                pstmt.setString(2, plainPins ? pins[i] : null);
+                pstmt.setLong(3, balances[i]);
+                pstmt.setString(4, currencies[i]);
+                pstmt.addBatch();
+                if (verifiers[i] != null) {
+                    cstmt.setString(1, numbers[i]);
+                    cstmt.setBytes(2, verifiers[i]);
+                    cstmt.addBatch();
+                }
+            }
+            pstmt.executeBatch();
+            cstmt.executeBatch();
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+            if (cardCache != null) {
+                cardCache.clear();
+            }
+            metrics.rows(Metrics.Operation.RESTORE_CARDS, count);
+            return true;
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.RESTORE_CARDS);
+            System.out.println(e.getMessage());
+            return false;
+        } finally {
+            metrics.stop(Metrics.Operation.RESTORE_CARDS, start);
+        }
+    }
 
-            // set the corresponding param
-            pstmt.setInt(1, id);
-            // delete
-            pstmt.executeUpdate();
+    /**
+     * Writes balances in other currencies read from a snapshot.
+     *
+     * @param numbers Card numbers.
+     * @param currencies Currencies.
+     * @param balances Balances.
+     * @param count How many balances from the arrays to write.
+     * @return true if the transaction was committed.
+     */
+    public boolean restoreWallets(String[] numbers, String[] currencies, long[] balances, int count) {
+        String sql = "INSERT INTO card_balance(number,currency,balance) VALUES(?,?,?) "
+                + "ON CONFLICT(number,currency) DO UPDATE SET balance = excluded.balance";
+        try (PooledConnection conn = pool.borrow()) {
+            conn.getConnection().setAutoCommit(false);
+            PreparedStatement pstmt = conn.prepare(sql);
+            for (int i = 0; i < count; i++) {
+                pstmt.setString(1, numbers[i]);
+                pstmt.setString(2, currencies[i]);
+                pstmt.setLong(3, balances[i]);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+            return true;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    private static int countUpdates(int[] results) {
+        int count = 0;
+        for (int result : results) {
+            if (result > 0) {
+                count += result;
+            } else if (result == Statement.SUCCESS_NO_INFO) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads PIN verifier of a card.
+     *
+     * @param card Card number.
+     * @return The verifier, or null if the card has none.
+     */
+    public byte[] selectCredential(String card) {
+        String sql = "SELECT verifier FROM card_credential WHERE number = ?";
+        long start = metrics.start();
+        try (PooledConnection conn = borrowReader()) {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setString(1, card);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getBytes(1) : null;
+            }
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.SELECT_CREDENTIAL);
+            System.out.println(e.getMessage());
+            return null;
+        } finally {
+            metrics.stop(Metrics.Operation.SELECT_CREDENTIAL, start);
+        }
+    }
+
+    /**
+     * Reads cards that have no PIN verifier yet.
+     *
+     * @param handler Receives every such row of the card table.
+     * @return Number of rows read.
+     */
+    public int selectCardsWithoutCredential(CardRowHandler handler) {
+        String sql = "SELECT c.id, c.number, c.pin, c.balance, c.currency FROM card c "
+                + "LEFT JOIN card_credential k ON k.number = c.number WHERE k.number IS NULL";
+        int count = 0;
+        try (PooledConnection conn = borrowReader();
+             ResultSet rs = conn.prepare(sql).executeQuery()) {
+            while (rs.next()) {
+                handler.accept(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getLong(4), rs.getString(5));
+                count++;
+            }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
+        return count;
+    }
+
+    /**
+     * Saves PIN verifiers of existing cards in one transaction.
+     * With "-scrubPins", the plain PINs of these cards are cleared in the same transaction.
+     *
+     * @param cards Card numbers.
+     * @param verifiers PIN verifiers, in the same order as cards.
+     * @return true if the transaction was committed.
+     */
+    public boolean insertCredentials(List<String> cards, List<byte[]> verifiers) {
+        String sql = "INSERT OR REPLACE INTO card_credential(number,verifier) VALUES(?,?)";
+        String scrub = "UPDATE card SET pin = NULL WHERE number = ?";
+        try (PooledConnection conn = pool.borrow()) {
+            conn.getConnection().setAutoCommit(false);
+            PreparedStatement pstmt = conn.prepare(sql);
+            PreparedStatement sstmt = conn.prepare(scrub);
+            for (int i = 0; i < cards.size(); i++) {
+                pstmt.setString(1, cards.get(i));
+                pstmt.setBytes(2, verifiers.get(i));
+                pstmt.addBatch();
+                if (!plainPins) {
+                    sstmt.setString(1, cards.get(i));
+                    sstmt.addBatch();
+                }
+            }
+            pstmt.executeBatch();
+            if (!plainPins) {
+                sstmt.executeBatch();
+            }
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+            return true;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Clears plain PINs of all cards that have a PIN verifier.
+     *
+     * @return Number of cards cleared.
+     */
+    public int scrubPins() {
+        String sql = "UPDATE card SET pin = NULL WHERE pin IS NOT NULL "
+                + "AND number IN (SELECT number FROM card_credential)";
+        try (PooledConnection conn = pool.borrow()) {
+            return conn.prepare(sql).executeUpdate();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * @return true if any card has a PIN verifier.
+     */
+    boolean hasCredentials() {
+        try (PooledConnection conn = borrowReader();
+             ResultSet rs = conn.prepare("SELECT EXISTS (SELECT 1 FROM card_credential)").executeQuery()) {
+            return rs.next() && rs.getInt(1) == 1;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            // a failed check must not let a new pepper replace the one the verifiers were made with
+            return true;
+        }
+    }
+
+    /**
+     * Updates card's balance.
+     *
+     * @param id Card's ID in the database.
+     * @param newBalance Updated balance on the card, in minor units.
+     */
+    public void update(int id, long newBalance) {
+        String sql = "UPDATE card SET balance = ?"
+                + "WHERE id = ?";
+
+        long start = metrics.start();
+        try {
+            int updated = write(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+
+                // set the corresponding param
+                pstmt.setLong(1, newBalance);
+                pstmt.setInt(2, id);
+                // update
+                return pstmt.executeUpdate();
+            });
+            metrics.rows(Metrics.Operation.UPDATE, updated);
+            if (cardCache != null) {
+                cardCache.balanceUpdated(id, newBalance);
+            }
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.UPDATE);
+            System.out.println(e.getMessage());
+        } finally {
+            metrics.stop(Metrics.Operation.UPDATE, start);
+        }
+    }
+
+    /**
+     * Adds money to card's balance. The addition is done by the database,
+     * so concurrent credits of the same card are never lost.
+     * SQLite turns an overflowing integer sum into a float, so the UPDATE
+     * skips cards whose balance would overflow.
+     *
+     * @param card Card number.
+     * @param amount Amount of money to add, in minor units; must not be negative.
+     * @return true if the card was found and credited.
+     */
+    public boolean credit(String card, long amount) {
+        String sql = "UPDATE card SET balance = balance + ? WHERE number = ? AND balance <= ?";
+        if (amount < 0) {
+            return false;
+        }
+        long start = metrics.start();
+        try {
+            boolean updated = write(conn -> changeBalance(conn, sql, amount, card, Long.MAX_VALUE - amount)) == 1;
+            if (cardCache != null) {
+                cardCache.invalidateBalance(card);
+            }
+            metrics.rows(Metrics.Operation.CREDIT, updated ? 1 : 0);
+            return updated;
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.CREDIT);
+            System.out.println(e.getMessage());
+            return false;
+        } finally {
+            metrics.stop(Metrics.Operation.CREDIT, start);
+        }
+    }
+
+    /**
+     * Adds money to card's balance in a currency other than its own,
+     * creating the balance on the first credit. Like {@link #credit(String, long)},
+     * skips balances that would overflow.
+     *
+     * @param card Card number.
+     * @param currency Currency code.
+     * @param amount Amount of money to add, in minor units of the currency; must not be negative.
+     * @return true if the balance was credited.
+     */
+    public boolean creditWallet(String card, String currency, long amount) {
+        String sql = "INSERT INTO card_balance(number,currency,balance) VALUES(?,?,?) "
+                + "ON CONFLICT(number,currency) DO UPDATE SET balance = balance + excluded.balance "
+                + "WHERE balance <= ?";
+        if (amount < 0) {
+            return false;
+        }
+        long start = metrics.start();
+        try {
+            boolean updated = write(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                pstmt.setString(1, card);
+                pstmt.setString(2, currency);
+                pstmt.setLong(3, amount);
+                pstmt.setLong(4, Long.MAX_VALUE - amount);
+                return pstmt.executeUpdate();
+            }) == 1;
+            metrics.rows(Metrics.Operation.CREDIT_WALLET, updated ? 1 : 0);
+            return updated;
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.CREDIT_WALLET);
+            System.out.println(e.getMessage());
+            return false;
+        } finally {
+            metrics.stop(Metrics.Operation.CREDIT_WALLET, start);
+        }
+    }
+
+    /**
+     * Sets balances of many cards in one transaction, with a JDBC batch.
+     *
+     * @param balances New balance of each card, keyed by card number.
+     * @return Number of cards updated, or -1 if the transaction failed.
+     */
+    public int updateBalances(Map<String, Long> balances) {
+        String sql = "UPDATE card SET balance = ? WHERE number = ?";
+        long start = metrics.start();
+        try (PooledConnection conn = pool.borrow()) {
+            conn.getConnection().setAutoCommit(false);
+            PreparedStatement pstmt = conn.prepare(sql);
+            for (Map.Entry<String, Long> entry : balances.entrySet()) {
+                pstmt.setLong(1, entry.getValue());
+                pstmt.setString(2, entry.getKey());
+                pstmt.addBatch();
+            }
+            int updated = countUpdates(pstmt.executeBatch());
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+            if (cardCache != null) {
+                for (Map.Entry<String, Long> entry : balances.entrySet()) {
+                    cardCache.balanceUpdated(entry.getKey(), entry.getValue());
+                }
+            }
+            metrics.rows(Metrics.Operation.UPDATE_BALANCES, updated);
+            return updated;
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.UPDATE_BALANCES);
+            System.out.println(e.getMessage());
+            return -1;
+        } finally {
+            metrics.stop(Metrics.Operation.UPDATE_BALANCES, start);
+        }
+    }
+
+    /**
+     * Deletes card, its PIN verifier and its balances in other currencies from the database.
+     *
+     * @param id Card's ID.
+     */
+    public void delete(int id) {
+        String sql = "DELETE FROM card WHERE id = ?";
+        String credential = "DELETE FROM card_credential WHERE number = (SELECT number FROM card WHERE id = ?)";
+        String wallets = "DELETE FROM card_balance WHERE number = (SELECT number FROM card WHERE id = ?)";
+        long start = metrics.start();
+        try {
+            int deleted = write(conn -> {
+                PreparedStatement pstmt = conn.prepare(credential);
+                pstmt.setInt(1, id);
+                pstmt.executeUpdate();
+                pstmt = conn.prepare(wallets);
+                pstmt.setInt(1, id);
+                pstmt.executeUpdate();
+                pstmt = conn.prepare(sql);
+
+                // set the corresponding param
+                pstmt.setInt(1, id);
+                // delete
+                return pstmt.executeUpdate();
+            });
+            if (cardCache != null) {
+                cardCache.remove(id);
+            }
+            metrics.rows(Metrics.Operation.DELETE, deleted);
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.DELETE);
+            System.out.println(e.getMessage());
+        } finally {
+            metrics.stop(Metrics.Operation.DELETE, start);
+        }
+    }
+
+    /**
+     * Deletes card, its PIN verifier and its balances in other currencies from the database.
+     *
+     * @param card Card number.
+     */
+    public void deleteCard(String card) {
+        String sql = "DELETE FROM card WHERE number = ?";
+        String credential = "DELETE FROM card_credential WHERE number = ?";
+        String wallets = "DELETE FROM card_balance WHERE number = ?";
+        long start = metrics.start();
+        try {
+            int deleted = write(conn -> {
+                for (String delete : new String[]{credential, wallets}) {
+                    PreparedStatement pstmt = conn.prepare(delete);
+                    pstmt.setString(1, card);
+                    pstmt.executeUpdate();
+                }
+                PreparedStatement pstmt = conn.prepare(sql);
+                pstmt.setString(1, card);
+                return pstmt.executeUpdate();
+            });
+            if (cardCache != null) {
+                cardCache.remove(card);
+            }
+            metrics.rows(Metrics.Operation.DELETE, deleted);
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.DELETE);
+            System.out.println(e.getMessage());
+        } finally {
+            metrics.stop(Metrics.Operation.DELETE, start);
+        }
+    }
+
+    /**
+     * Applies account mutations replayed from {@link MutationJournal}, in one transaction.
+     * Each mutation carries the balance after it, so applying it again changes nothing.
+     *
+     * @param types Mutation types, see {@link MutationJournal#CREATE} and the other constants.
+     * @param cards Card numbers.
+     * @param codes ISO numeric currency codes of wallet mutations.
+     * @param amounts Amounts of the mutations; ISO numeric currency codes for CREATE.
+     * @param balances Balances after the mutations.
+     * @param verifiers PIN verifiers of the cards, used by CREATE.
+     * @param count How many mutations from the arrays to apply.
+     * @return true if the transaction was committed.
+     */
+    public boolean applyMutations(byte[] types, long[] cards, int[] codes, long[] amounts, long[] balances,
+                                  byte[][] verifiers, int count) {
+        String create = "INSERT OR IGNORE INTO card(number,pin,balance,currency) VALUES(?,NULL,?,?)";
+        String createCredential = "INSERT OR IGNORE INTO card_credential(number,verifier) VALUES(?,?)";
+        String balance = "UPDATE card SET balance = ? WHERE number = ?";
+        String close = "DELETE FROM card WHERE number = ?";
+        String credential = "DELETE FROM card_credential WHERE number = ?";
+        String wallet = "INSERT INTO card_balance(number,currency,balance) VALUES(?,?,?) "
+                + "ON CONFLICT(number,currency) DO UPDATE SET balance = excluded.balance";
+        String wallets = "DELETE FROM card_balance WHERE number = ?";
+        long start = metrics.start();
+        try (PooledConnection conn = pool.borrow()) {
+            conn.getConnection().setAutoCommit(false);
+            for (int i = 0; i < count; i++) {
+                String card = CardNumberIssuer.format(cards[i]);
+                PreparedStatement pstmt;
+                switch (types[i]) {
+                    case MutationJournal.CREATE:
+                        // the journal holds no PIN, so a replayed card only gets its verifier
+                        pstmt = conn.prepare(createCredential);
+                        pstmt.setString(1, card);
+                        pstmt.setBytes(2, verifiers[i]);
+                        pstmt.executeUpdate();
+                        pstmt = conn.prepare(create);
+                        pstmt.setString(1, card);
+                        pstmt.setLong(2, balances[i]);
+                        String created = Money.currencyOf((int) amounts[i]);
+                        pstmt.setString(3, created != null ? created : currency);
+                        break;
+                    case MutationJournal.CREDIT:
+                    case MutationJournal.DEBIT:
+                        pstmt = conn.prepare(balance);
+                        pstmt.setLong(1, balances[i]);
+                        pstmt.setString(2, card);
+                        break;
+                    case MutationJournal.WALLET_CREDIT:
+                    case MutationJournal.WALLET_DEBIT:
+                        pstmt = conn.prepare(wallet);
+                        pstmt.setString(1, card);
+                        pstmt.setString(2, Money.currencyOf(codes[i]));
+                        pstmt.setLong(3, balances[i]);
+                        break;
+                    case MutationJournal.CLOSE:
+                        pstmt = conn.prepare(credential);
+                        pstmt.setString(1, card);
+                        pstmt.executeUpdate();
+                        pstmt = conn.prepare(wallets);
+                        pstmt.setString(1, card);
+                        pstmt.executeUpdate();
+                        pstmt = conn.prepare(close);
+                        pstmt.setString(1, card);
+                        break;
+                    default:
+                        continue;
+                }
+                pstmt.executeUpdate();
+            }
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+            if (cardCache != null) {
+                cardCache.clear();
+            }
+            metrics.rows(Metrics.Operation.APPLY_MUTATIONS, count);
+            return true;
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.APPLY_MUTATIONS);
+            System.out.println(e.getMessage());
+            return false;
+        } finally {
+            metrics.stop(Metrics.Operation.APPLY_MUTATIONS, start);
+        }
+    }
+
+    /**
+     * Applies records of a statement import in one transaction.
+     * Each record is applied on its own: a record that cannot be applied gets
+     * a reason and changes nothing, the others are still committed. A transfer
+     * runs inside a savepoint, so a failed credit undoes its debit, and is
+     * written to the transfer ledger.
+     *
+     * @param entries Records whose cards exist; transfers carry the converted amount.
+     * @return true if the transaction was committed; false if it failed and nothing was applied.
+     */
+    public boolean applyStatements(List<StatementImport.Entry> entries) {
+        String credit = "UPDATE card SET balance = balance + ? WHERE number = ? AND balance <= ?";
+        String debit = "UPDATE card SET balance = balance - ? WHERE number = ? AND balance >= ?";
+        String ledger = "INSERT INTO transfer(from_number,to_number,amount,created_at,"
+                + "currency,credited_amount,credited_currency) "
+                + "SELECT ?, ?, ?, ?, f.currency, ?, t.currency FROM card f, card t "
+                + "WHERE f.number = ? AND t.number = ?";
+        long start = metrics.start();
+        try (PooledConnection conn = pool.borrow()) {
+            Connection connection = conn.getConnection();
+            connection.setAutoCommit(false);
+            long now = System.currentTimeMillis();
+            for (StatementImport.Entry entry : entries) {
+                if (entry.type == StatementImport.Type.INCOME) {
+                    if (changeBalance(conn, credit, entry.amount, entry.card, Long.MAX_VALUE - entry.amount) != 1) {
+                        // the card may have been closed since the import checked it
+                        entry.reason = cardExists(conn, entry.card)
+                                ? TransferEngine.Result.BALANCE_OVERFLOW.name() : "NO_SUCH_CARD";
+                    }
+                    continue;
+                }
+                Savepoint savepoint = connection.setSavepoint();
+                if (changeBalance(conn, debit, entry.amount, entry.card, entry.amount) != 1) {
+                    entry.reason = (cardExists(conn, entry.card)
+                            ? TransferEngine.Result.NOT_ENOUGH_MONEY : TransferEngine.Result.NO_SUCH_SENDER).name();
+                } else if (changeBalance(conn, credit, entry.credited, entry.counterparty,
+                        Long.MAX_VALUE - entry.credited) != 1) {
+                    entry.reason = (cardExists(conn, entry.counterparty)
+                            ? TransferEngine.Result.BALANCE_OVERFLOW : TransferEngine.Result.NO_SUCH_RECIPIENT).name();
+                } else {
+                    PreparedStatement pstmt = conn.prepare(ledger);
+                    pstmt.setString(1, entry.card);
+                    pstmt.setString(2, entry.counterparty);
+                    pstmt.setLong(3, entry.amount);
+                    pstmt.setLong(4, now);
+                    pstmt.setLong(5, entry.credited);
+                    pstmt.setString(6, entry.card);
+                    pstmt.setString(7, entry.counterparty);
+                    pstmt.executeUpdate();
+                }
+                if (entry.reason != null) {
+                    connection.rollback(savepoint);
+                }
+                connection.releaseSavepoint(savepoint);
+            }
+            connection.commit();
+            connection.setAutoCommit(true);
+            if (cardCache != null) {
+                for (StatementImport.Entry entry : entries) {
+                    cardCache.invalidateBalance(entry.card);
+                    if (entry.counterparty != null) {
+                        cardCache.invalidateBalance(entry.counterparty);
+                    }
+                }
+            }
+            metrics.rows(Metrics.Operation.APPLY_STATEMENTS, entries.size());
+            return true;
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.APPLY_STATEMENTS);
+            System.out.println(e.getMessage());
+            return false;
+        } finally {
+            metrics.stop(Metrics.Operation.APPLY_STATEMENTS, start);
+        }
+    }
+
+    private static String selectCurrency(PooledConnection conn, String card) throws SQLException {
+        PreparedStatement pstmt = conn.prepare("SELECT currency FROM card WHERE number = ?");
+        pstmt.setString(1, card);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    private static boolean cardExists(PooledConnection conn, String card) throws SQLException {
+        PreparedStatement pstmt = conn.prepare("SELECT 1 FROM card WHERE number = ?");
+        pstmt.setString(1, card);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next();
+        }
+    }
+
+    private static int changeBalance(PooledConnection conn, String sql, long amount, String card,
+                                     long limit) throws SQLException {
+        PreparedStatement pstmt = conn.prepare(sql);
+        pstmt.setLong(1, amount);
+        pstmt.setString(2, card);
+        pstmt.setLong(3, limit);
+        return pstmt.executeUpdate();
+    }
+
+    /**
+     * Copies the WAL file into the database file and flushes both to disk,
+     * so that commits made with synchronous=NORMAL are durable.
+     *
+     * @return true if every commit is now in the database file.
+     */
+    public boolean checkpoint() {
+        long start = metrics.start();
+        try (PooledConnection conn = pool.borrow();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA wal_checkpoint(TRUNCATE)")) {
+            // the first column is 1 if the checkpoint could not finish because of other connections
+            return rs.next() && rs.getInt(1) == 0;
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.CHECKPOINT);
+            System.out.println(e.getMessage());
+            return false;
+        } finally {
+            metrics.stop(Metrics.Operation.CHECKPOINT, start);
+        }
+    }
+
+    /**
+     * Reserves a range of card issue indexes, see {@link CardNumberIssuer}.
+     *
+     * @param count Number of indexes to reserve.
+     * @return First reserved index, or -1 if reservation failed.
+     */
+    public long reserveCardIndexes(int count) {
+        String update = "UPDATE card_issuer SET next_index = next_index + ? WHERE id = 1";
+        String select = "SELECT next_index FROM card_issuer WHERE id = 1";
+        long start = metrics.start();
+        try (PooledConnection conn = pool.borrow()) {
+            conn.getConnection().setAutoCommit(false);
+            // update goes first, so the write lock is held before the counter is read
+            PreparedStatement pstmt = conn.prepare(update);
+            pstmt.setInt(1, count);
+            pstmt.executeUpdate();
+            long next;
+            try (ResultSet rs = conn.prepare(select).executeQuery()) {
+                next = rs.next() ? rs.getLong(1) : -1;
+            }
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+            return next < 0 ? -1 : next - count;
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.RESERVE_CARD_INDEXES);
+            System.out.println(e.getMessage());
+            return -1;
+        } finally {
+            metrics.stop(Metrics.Operation.RESERVE_CARD_INDEXES, start);
+        }
+    }
+
+    /**
+     * Reads key of the card number permutation, see {@link CardNumberIssuer}.
+     *
+     * @return Permutation key, generated once per database file.
+     */
+    public long selectPermutationKey() {
+        String sql = "SELECT permutation_key FROM card_issuer WHERE id = 1";
+        try (PooledConnection conn = borrowReader();
+             ResultSet rs = conn.prepare(sql).executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Moves money between two cards and records it in the transfer ledger.
+     * The debit, the credit and the ledger entry are one transaction.
+     * The debit only succeeds if the sender has enough money, which is checked
+     * by the UPDATE itself, so two concurrent transfers cannot both spend the same money.
+     * The money is taken from the sender's balance in the given currency and
+     * added to the recipient's balance in the recipient's own currency;
+     * the caller converts the amount (see {@link FxRates#convert(long, String, String)}).
+     *
+     * @param from Number of the card the money is taken from.
+     * @param fromCurrency Currency the money is taken in.
+     * @param to Number of the card the money is sent to.
+     * @param toCurrency Currency of the recipient's card.
+     * @param amount Amount of money, in minor units of fromCurrency; must be positive.
+     * @param credited Amount the recipient gets, in minor units of toCurrency.
+     * @return Outcome of the transfer.
+     */
+    public TransferEngine.Result transfer(String from, String fromCurrency, String to, String toCurrency,
+                                          long amount, long credited) {
+        String ledger = "INSERT INTO transfer(from_number,to_number,amount,created_at,"
+                + "currency,credited_amount,credited_currency) VALUES(?,?,?,?,?,?,?)";
+        long start = metrics.start();
+        try {
+            TransferEngine.Result result = write(conn -> {
+                // writing first takes the database write lock before anything is read
+                if (!debit(conn, from, fromCurrency, amount)) {
+                    return cardExists(conn, from)
+                            ? TransferEngine.Result.NOT_ENOUGH_MONEY
+                            : TransferEngine.Result.NO_SUCH_SENDER;
+                }
+                if (changeBalance(conn, CREDIT, credited, to, toCurrency, Long.MAX_VALUE - credited) != 1) {
+                    // the debit is undone, together with anything else of this transfer
+                    throw new TransferRefused(cardExists(conn, to)
+                            ? TransferEngine.Result.BALANCE_OVERFLOW
+                            : TransferEngine.Result.NO_SUCH_RECIPIENT);
+                }
+                PreparedStatement pstmt = conn.prepare(ledger);
+                pstmt.setString(1, from);
+                pstmt.setString(2, to);
+                pstmt.setLong(3, amount);
+                pstmt.setLong(4, System.currentTimeMillis());
+                pstmt.setString(5, fromCurrency);
+                pstmt.setLong(6, credited);
+                pstmt.setString(7, toCurrency);
+                pstmt.executeUpdate();
+                return TransferEngine.Result.SUCCESS;
+            });
+            if (cardCache != null && result == TransferEngine.Result.SUCCESS) {
+                cardCache.invalidateBalance(from);
+                cardCache.invalidateBalance(to);
+            }
+            return result;
+        } catch (TransferRefused e) {
+            return e.result;
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.TRANSFER);
+            System.out.println(e.getMessage());
+            return TransferEngine.Result.FAILED;
+        } finally {
+            metrics.stop(Metrics.Operation.TRANSFER, start);
+        }
+    }
+
+    /**
+     * First phase of a transfer between cards of two database files, run on the sender's file:
+     * debits the sender like {@link #transfer(String, String, String, String, long, long)} does
+     * and records the transfer as pending, in one transaction. The pending record is removed
+     * by {@link #settleTransfer(String, boolean)} or {@link #forgetTransfers(List)} once the
+     * recipient's file has answered.
+     *
+     * @param txid Unique ID of the transfer.
+     * @param from Number of the card the money is taken from.
+     * @param fromCurrency Currency the money is taken in.
+     * @param to Number of the card the money is sent to.
+     * @param amount Amount of money, in minor units of fromCurrency; must be positive.
+     * @param credited Amount the recipient gets.
+     * @return SUCCESS if the money was taken, otherwise why not.
+     */
+    TransferEngine.Result prepareTransfer(String txid, String from, String fromCurrency, String to,
+                                          long amount, long credited) {
+        String pending = "INSERT INTO transfer_pending(txid,from_number,to_number,amount,currency,"
+                + "credited_amount,created_at) VALUES(?,?,?,?,?,?,?)";
+        try {
+            TransferEngine.Result result = write(conn -> {
+                if (!debit(conn, from, fromCurrency, amount)) {
+                    return cardExists(conn, from)
+                            ? TransferEngine.Result.NOT_ENOUGH_MONEY
+                            : TransferEngine.Result.NO_SUCH_SENDER;
+                }
+                PreparedStatement pstmt = conn.prepare(pending);
+                pstmt.setString(1, txid);
+                pstmt.setString(2, from);
+                pstmt.setString(3, to);
+                pstmt.setLong(4, amount);
+                pstmt.setString(5, fromCurrency);
+                pstmt.setLong(6, credited);
+                pstmt.setLong(7, System.currentTimeMillis());
+                pstmt.executeUpdate();
+                return TransferEngine.Result.SUCCESS;
+            });
+            if (cardCache != null && result == TransferEngine.Result.SUCCESS) {
+                cardCache.invalidateBalance(from);
+            }
+            return result;
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.TRANSFER);
+            System.out.println(e.getMessage());
+            return TransferEngine.Result.FAILED;
+        }
+    }
+
+    /**
+     * Second phase of a transfer between cards of two database files, run on the recipient's file:
+     * credits the recipient and writes the ledger entry, tagged with the transfer ID, in one transaction.
+     *
+     * @param txid ID the transfer got in {@link #prepareTransfer(String, String, String, String, long, long)}.
+     * @param from Number of the card the money is taken from.
+     * @param fromCurrency Currency the money is taken in.
+     * @param to Number of the card the money is sent to.
+     * @param toCurrency Currency of the recipient's card.
+     * @param amount Amount taken from the sender.
+     * @param credited Amount the recipient gets, in minor units of toCurrency.
+     * @return SUCCESS if the recipient was credited; FAILED if it is not known, see {@link #findTransfer(String)}.
+     */
+    TransferEngine.Result completeTransfer(String txid, String from, String fromCurrency, String to,
+                                           String toCurrency, long amount, long credited) {
+        String ledger = "INSERT INTO transfer(from_number,to_number,amount,created_at,"
+                + "currency,credited_amount,credited_currency,txid) VALUES(?,?,?,?,?,?,?,?)";
+        try {
+            TransferEngine.Result result = write(conn -> {
+                if (changeBalance(conn, CREDIT, credited, to, toCurrency, Long.MAX_VALUE - credited) != 1) {
+                    return cardExists(conn, to)
+                            ? TransferEngine.Result.BALANCE_OVERFLOW
+                            : TransferEngine.Result.NO_SUCH_RECIPIENT;
+                }
+                PreparedStatement pstmt = conn.prepare(ledger);
+                pstmt.setString(1, from);
+                pstmt.setString(2, to);
+                pstmt.setLong(3, amount);
+                pstmt.setLong(4, System.currentTimeMillis());
+                pstmt.setString(5, fromCurrency);
+                pstmt.setLong(6, credited);
+                pstmt.setString(7, toCurrency);
+                pstmt.setString(8, txid);
+                pstmt.executeUpdate();
+                return TransferEngine.Result.SUCCESS;
+            });
+            if (cardCache != null && result == TransferEngine.Result.SUCCESS) {
+                cardCache.invalidateBalance(to);
+            }
+            return result;
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.TRANSFER);
+            System.out.println(e.getMessage());
+            return TransferEngine.Result.FAILED;
+        }
+    }
+
+    /**
+     * Last phase of a transfer between cards of two database files, run on the sender's file:
+     * removes the pending record and, if the recipient was not credited, gives the money back.
+     * Settling a transfer that is no longer pending changes nothing, and a refund that
+     * would overflow the sender's balance leaves it pending.
+     *
+     * @param txid ID of the transfer.
+     * @param refund true if the recipient's file refused the transfer.
+     * @return true if the transfer is no longer pending.
+     */
+    boolean settleTransfer(String txid, boolean refund) {
+        String select = "SELECT from_number, amount, currency FROM transfer_pending WHERE txid = ?";
+        String refundWallet = "INSERT INTO card_balance(number,currency,balance) VALUES(?,?,?) "
+                + "ON CONFLICT(number,currency) DO UPDATE SET balance = balance + excluded.balance "
+                + "WHERE balance <= ?";
+        String delete = "DELETE FROM transfer_pending WHERE txid = ?";
+        try {
+            String from = write(conn -> {
+                PreparedStatement pstmt = conn.prepare(select);
+                pstmt.setString(1, txid);
+                String card;
+                long amount;
+                String currency;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    card = rs.getString(1);
+                    amount = rs.getLong(2);
+                    currency = rs.getString(3);
+                }
+                if (refund) {
+                    String cardCurrency = selectCurrency(conn, card);
+                    // nothing is paid back to a card that was closed since
+                    if (currency.equals(cardCurrency)) {
+                        if (changeBalance(conn, CREDIT, amount, card, currency, Long.MAX_VALUE - amount) != 1) {
+                            throw new SQLException("Refund of transfer " + txid + " would overflow the balance");
+                        }
+                    } else if (cardCurrency != null) {
+                        // the money was taken from a balance in another currency
+                        pstmt = conn.prepare(refundWallet);
+                        pstmt.setString(1, card);
+                        pstmt.setString(2, currency);
+                        pstmt.setLong(3, amount);
+                        pstmt.setLong(4, Long.MAX_VALUE - amount);
+                        if (pstmt.executeUpdate() != 1) {
+                            throw new SQLException("Refund of transfer " + txid + " would overflow the balance");
+                        }
+                    }
+                }
+                pstmt = conn.prepare(delete);
+                pstmt.setString(1, txid);
+                pstmt.executeUpdate();
+                return card;
+            });
+            if (cardCache != null && from != null && refund) {
+                cardCache.invalidateBalance(from);
+            }
+            return true;
+        } catch (SQLException e) {
+            metrics.failed(Metrics.Operation.TRANSFER);
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Removes pending records of transfers whose recipients were credited, in one transaction.
+     *
+     * @param txids IDs of the transfers.
+     * @return true if the transaction was committed.
+     */
+    boolean forgetTransfers(List<String> txids) {
+        String sql = "DELETE FROM transfer_pending WHERE txid = ?";
+        try (PooledConnection conn = pool.borrow()) {
+            conn.getConnection().setAutoCommit(false);
+            PreparedStatement pstmt = conn.prepare(sql);
+            for (String txid : txids) {
+                pstmt.setString(1, txid);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+            return true;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @param txid ID of a transfer between cards of two database files.
+     * @return true if its ledger entry is in this file, i.e. its recipient was credited here;
+     *         false if it is not; null if this could not be checked.
+     */
+    Boolean findTransfer(String txid) {
+        String sql = "SELECT 1 FROM transfer WHERE txid = ?";
+        try (PooledConnection conn = borrowReader()) {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setString(1, txid);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return IDs of transfers this file prepared and did not settle, e.g. because the program stopped.
+     */
+    List<String> selectPendingTransfers() {
+        String sql = "SELECT txid FROM transfer_pending ORDER BY created_at";
+        List<String> pending = new ArrayList<>();
+        try (PooledConnection conn = pool.borrow();
+             ResultSet rs = conn.prepare(sql).executeQuery()) {
+            while (rs.next()) {
+                pending.add(rs.getString(1));
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        return pending;
+    }
+
+    /**
+     * Reads cards of one bucket (see {@link ShardedDBManager}) with their PIN verifiers,
+     * then their balances in other currencies.
+     *
+     * @param bucket The bucket.
+     * @param handler Receives the rows.
+     * @return Number of cards read, or -1 if reading failed.
+     */
+    int exportBucket(int bucket, SnapshotRowHandler handler) {
+        // the card table is not aliased, so the query uses the index on the bucket expression
+        String cards = "SELECT number, pin, balance, currency, "
+                + "(SELECT verifier FROM card_credential WHERE card_credential.number = card.number) "
+                + "FROM card WHERE " + ShardedDBManager.BUCKET_SQL + " = ?";
+        String wallets = "SELECT number, currency, balance FROM card_balance WHERE number IN "
+                + "(SELECT number FROM card WHERE " + ShardedDBManager.BUCKET_SQL + " = ?)";
+        int count = 0;
+        try (PooledConnection conn = pool.borrow()) {
+            conn.getConnection().setAutoCommit(false);
+            PreparedStatement pstmt = conn.prepare(cards);
+            pstmt.setInt(1, bucket);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    handler.card(rs.getString(1), rs.getString(2), rs.getLong(3), rs.getString(4), rs.getBytes(5));
+                    count++;
+                }
+            }
+            pstmt = conn.prepare(wallets);
+            pstmt.setInt(1, bucket);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    handler.wallet(rs.getString(1), rs.getString(2), rs.getLong(3));
+                }
+            }
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+            return count;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Copies the transfers left pending by cards of one bucket to another file, in one transaction.
+     *
+     * @param bucket The bucket.
+     * @param target File the bucket moves to.
+     * @return true if the transaction was committed.
+     */
+    boolean copyBucketTransfers(int bucket, DBManager target) {
+        String select = "SELECT txid, from_number, to_number, amount, currency, credited_amount, created_at "
+                + "FROM transfer_pending WHERE " + ShardedDBManager.bucketSql("from_number") + " = ?";
+        String insert = "INSERT OR REPLACE INTO transfer_pending(txid,from_number,to_number,amount,currency,"
+                + "credited_amount,created_at) VALUES(?,?,?,?,?,?,?)";
+        try (PooledConnection source = pool.borrow(); PooledConnection conn = target.pool.borrow()) {
+            conn.getConnection().setAutoCommit(false);
+            PreparedStatement pstmt = source.prepare(select);
+            pstmt.setInt(1, bucket);
+            PreparedStatement copy = conn.prepare(insert);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    for (int column = 1; column <= 7; column++) {
+                        copy.setObject(column, rs.getObject(column));
+                    }
+                    copy.addBatch();
+                }
+            }
+            copy.executeBatch();
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+            return true;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Deletes cards of one bucket, with their PIN verifiers, balances in other currencies
+     * and the transfers they left pending, in one transaction. The transfer ledger is kept.
+     *
+     * @param bucket The bucket.
+     * @return true if the transaction was committed.
+     */
+    boolean deleteBucket(int bucket) {
+        String cards = "SELECT number FROM card WHERE " + ShardedDBManager.BUCKET_SQL + " = ?";
+        String[] deletes = {
+                "DELETE FROM card_credential WHERE number IN (" + cards + ")",
+                "DELETE FROM card_balance WHERE number IN (" + cards + ")",
+                "DELETE FROM card WHERE " + ShardedDBManager.BUCKET_SQL + " = ?",
+                "DELETE FROM transfer_pending WHERE " + ShardedDBManager.bucketSql("from_number") + " = ?"
+        };
+        try (PooledConnection conn = pool.borrow()) {
+            conn.getConnection().setAutoCommit(false);
+            for (String sql : deletes) {
+                PreparedStatement pstmt = conn.prepare(sql);
+                pstmt.setInt(1, bucket);
+                pstmt.executeUpdate();
+            }
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+            if (cardCache != null) {
+                cardCache.clear();
+            }
+            return true;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the card table has at least one card.
+     */
+    boolean hasCards() {
+        try (PooledConnection conn = borrowReader();
+             ResultSet rs = conn.prepare("SELECT EXISTS (SELECT 1 FROM card)").executeQuery()) {
+            return rs.next() && rs.getInt(1) == 1;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Reads the shard of every bucket, see {@link ShardedDBManager}.
+     *
+     * @param map Receives the shard of each bucket, indexed by bucket.
+     * @return Number of buckets read; 0 if the file is not split into shards.
+     */
+    int selectShardMap(int[] map) {
+        String sql = "SELECT bucket, shard FROM shard_bucket";
+        int count = 0;
+        try (PooledConnection conn = pool.borrow();
+             ResultSet rs = conn.prepare(sql).executeQuery()) {
+            while (rs.next()) {
+                int bucket = rs.getInt(1);
+                if (bucket >= 0 && bucket < map.length) {
+                    map[bucket] = rs.getInt(2);
+                    count++;
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        return count;
+    }
+
+    /**
+     * @return Number of shards the shard map names, or 0 if the file is not split into shards.
+     */
+    int selectShardCount() {
+        try (PooledConnection conn = borrowReader();
+             ResultSet rs = conn.prepare("SELECT max(shard) + 1 FROM shard_bucket").executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Saves the shard of every bucket, in one transaction.
+     *
+     * @param map Shard of each bucket, indexed by bucket.
+     * @return true if the transaction was committed.
+     */
+    boolean saveShardMap(int[] map) {
+        String sql = "INSERT OR REPLACE INTO shard_bucket(bucket,shard) VALUES(?,?)";
+        try (PooledConnection conn = pool.borrow()) {
+            conn.getConnection().setAutoCommit(false);
+            PreparedStatement pstmt = conn.prepare(sql);
+            for (int bucket = 0; bucket < map.length; bucket++) {
+                pstmt.setInt(1, bucket);
+                pstmt.setInt(2, map[bucket]);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+            return true;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Reads bucket moves that were started and not ended.
+     *
+     * @return Bucket, source shard and target shard of each move.
+     */
+    List<int[]> selectBucketMoves() {
+        String sql = "SELECT bucket, from_shard, to_shard FROM shard_move";
+        List<int[]> moves = new ArrayList<>();
+        try (PooledConnection conn = pool.borrow();
+             ResultSet rs = conn.prepare(sql).executeQuery()) {
+            while (rs.next()) {
+                moves.add(new int[]{rs.getInt(1), rs.getInt(2), rs.getInt(3)});
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        return moves;
+    }
+
+    /**
+     * Records that a bucket starts moving between shards.
+     *
+     * @param bucket The bucket.
+     * @param from Shard it moves from.
+     * @param to Shard it moves to.
+     * @return true if the move was recorded.
+     */
+    boolean beginBucketMove(int bucket, int from, int to) {
+        return changeLayout("INSERT OR REPLACE INTO shard_move(bucket,from_shard,to_shard) VALUES(?,?,?)",
+                bucket, from, to);
+    }
+
+    /**
+     * Assigns a bucket to a shard in the shard map.
+     *
+     * @param bucket The bucket.
+     * @param shard Its shard.
+     * @return true if the map was changed.
+     */
+    boolean commitBucketMove(int bucket, int shard) {
+        return changeLayout("UPDATE shard_bucket SET shard = ? WHERE bucket = ?", shard, bucket);
+    }
+
+    /**
+     * Forgets a bucket move whose leftover rows were deleted.
+     *
+     * @param bucket The bucket.
+     * @return true if the move was removed.
+     */
+    boolean endBucketMove(int bucket) {
+        return changeLayout("DELETE FROM shard_move WHERE bucket = ?", bucket);
+    }
+
+    private boolean changeLayout(String sql, int... values) {
+        try (PooledConnection conn = pool.borrow()) {
+            PreparedStatement pstmt = conn.prepare(sql);
+            for (int i = 0; i < values.length; i++) {
+                pstmt.setInt(i + 1, values[i]);
+            }
+            pstmt.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Ends a transfer whose credit failed, so its debit is rolled back with it.
+     */
+    private static final class TransferRefused extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        final TransferEngine.Result result;
+
+        TransferRefused(TransferEngine.Result result) {
+            super(result.name());
+            this.result = result;
+        }
+    }
+
+    /**
+     * Takes money from a card's own balance if it is in the currency, otherwise from its balance in that currency.
+     */
+    private static boolean debit(PooledConnection conn, String card, String currency, long amount)
+            throws SQLException {
+        return changeBalance(conn, DEBIT, amount, card, currency, amount) == 1
+                || changeBalance(conn, DEBIT_WALLET, amount, card, currency, amount) == 1;
+    }
+
+    private static int changeBalance(PooledConnection conn, String sql, long amount, String card,
+                                     String currency, long limit) throws SQLException {
+        PreparedStatement pstmt = conn.prepare(sql);
+        pstmt.setLong(1, amount);
+        pstmt.setString(2, card);
+        pstmt.setString(3, currency);
+        pstmt.setLong(4, limit);
+        return pstmt.executeUpdate();
     }
 }
@@ -0,0 +1,101 @@
+package banking;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * FootprintReport measures how much heap the different account collections
+ * take for the same number of cards: the original HashMap/HashSet pair,
+ * the {@link AccountRegistry} map, and {@link CompactCardIndex}.
+ * Memory is measured as the growth of used heap after garbage collection,
+ * so the numbers are approximate; run it in a JVM that does nothing else.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public final class FootprintReport {
+
+    private FootprintReport() {
+    }
+
+    /**
+     * Builds each collection with the given number of random cards and prints its size.
+     *
+     * @param entries Number of cards.
+     */
+    public static void print(int entries) {
+        long[] cards = new long[entries];
+        CardNumberIssuer issuer = new CardNumberIssuer(CardNumberIssuer.Mode.PERMUTED,
+                ThreadLocalRandom.current().nextLong(), new AtomicLong()::getAndAdd, entries);
+        issuer.nextBatch(cards);
+
+        System.out.printf("Memory footprint for %d cards:%n", entries);
+
+        long before = usedHeap();
+        Map<String, Integer> cardNumbers = new HashMap<>();
+        Set<UserAccount> accounts = new HashSet<>();
+        for (long card : cards) {
+            String number = CardNumberIssuer.format(card);
+            int pin = (int) (card % 10_000);
+            cardNumbers.put(number, pin);
+            accounts.add(new UserAccount(number, pin, 0));
+        }
+        printLine("HashMap<String,Integer> + HashSet<UserAccount>", usedHeap() - before, entries);
+        keep(cardNumbers, accounts);
+        cardNumbers = null;
+        accounts = null;
+
+        before = usedHeap();
+        ConcurrentHashMap<String, UserAccount> registry = new ConcurrentHashMap<>();
+        for (long card : cards) {
+            String number = CardNumberIssuer.format(card);
+            registry.put(number, new UserAccount(number, (int) (card % 10_000), 0));
+        }
+        printLine("AccountRegistry (ConcurrentHashMap<String,UserAccount>)", usedHeap() - before, entries);
+        keep(registry, null);
+        registry = null;
+
+        before = usedHeap();
+        CompactCardIndex index = new CompactCardIndex(entries);
+        for (int i = 0; i < cards.length; i++) {
+            index.put(cards[i], (int) (cards[i] % 10_000), i + 1, 0);
+        }
+        printLine("CompactCardIndex", usedHeap() - before, entries);
+        System.out.printf("  (CompactCardIndex arrays: %d bytes)%n", index.footprintBytes());
+    }
+
+    private static void printLine(String name, long bytes, int entries) {
+        System.out.printf("  %-58s %,14d bytes  %6.1f bytes/card%n", name, bytes, (double) bytes / Math.max(entries, 1));
+    }
+
+    private static volatile Object sink;
+
+    private static void keep(Object first, Object second) {
+        // makes sure the collections stay reachable until they were measured
+        sink = first;
+        sink = second;
+        sink = null;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
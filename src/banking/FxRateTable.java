@@ -0,0 +1,114 @@
+package banking;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * FxRateTable holds the current {@link FxRates} snapshot. A background thread
+ * checks the rate file periodically and, when it was modified, loads a new
+ * snapshot and swaps it in with a single atomic write. A transfer reads the
+ * snapshot once and converts with it, so it never waits for a reload and
+ * never sees rates of two different files. If the new file cannot be read,
+ * the previous rates stay in use.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class FxRateTable implements AutoCloseable {
+    private final Path file;
+    private final AtomicReference<FxRates> current = new AtomicReference<>(FxRates.empty());
+    private final ScheduledExecutorService reloader;
+    private long lastModified = Long.MIN_VALUE;
+
+    /**
+     * Creates table without a rate file; every currency converts only to itself.
+     */
+    public FxRateTable() {
+        this.file = null;
+        this.reloader = null;
+    }
+
+    /**
+     * Loads the rate file and starts checking it for changes.
+     *
+     * @param file The rate file, see {@link FxRates#load(Path)}.
+     * @param reloadSeconds How often the file is checked, in seconds.
+     * @throws IOException If the file cannot be read.
+     * @throws IllegalArgumentException If the file is not a valid rate file.
+     */
+    public FxRateTable(Path file, long reloadSeconds) throws IOException {
+        this.file = file;
+        lastModified = Files.getLastModifiedTime(file).toMillis();
+        current.set(FxRates.load(file));
+        this.reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fx-rate-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, reloadSeconds);
+        reloader.scheduleWithFixedDelay(this::reload, period, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates table from program arguments: "-fxRates" names the rate file,
+     * "-fxReloadSeconds" how often it is checked (default 5).
+     *
+     * @param args Program arguments.
+     * @return The table; without "-fxRates", one that only converts a currency to itself.
+     * @throws IOException If the file cannot be read.
+     */
+    public static FxRateTable fromArguments(String[] args) throws IOException {
+        String file = Arguments.get(args, "-fxRates");
+        if (file == null) {
+            return new FxRateTable();
+        }
+        return new FxRateTable(Path.of(file), Arguments.getInt(args, "-fxReloadSeconds", 5));
+    }
+
+    /**
+     * @return Snapshot of the rates; it does not change, even if the file is reloaded meanwhile.
+     */
+    public FxRates current() {
+        return current.get();
+    }
+
+    /**
+     * Loads the rate file again if it was modified since the last load.
+     *
+     * @return true if a new snapshot was swapped in.
+     */
+    public synchronized boolean reload() {
+        if (file == null) {
+            return false;
+        }
+        try {
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            if (modified == lastModified) {
+                return false;
+            }
+            // a broken file is reported once; the next change to it is loaded again
+            lastModified = modified;
+            current.set(FxRates.load(file));
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (reloader != null) {
+            reloader.shutdownNow();
+        }
+    }
+}
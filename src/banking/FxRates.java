@@ -0,0 +1,138 @@
+package banking;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * FxRates is one immutable snapshot of exchange rates. Each currency has a
+ * rate: value of one major unit (1 EUR, 1 JPY) in a common unit, kept as an
+ * exact fixed-point long with 9 decimal places. Snapshots are never changed
+ * after loading, so any number of threads convert with them without locking;
+ * {@link FxRateTable} swaps in a new snapshot when the rate file changes.
+ *
+ * Rate file: one "CODE RATE" pair per line, e.g. "EUR 1.0842";
+ * blank lines and lines starting with '#' are skipped.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public final class FxRates {
+    private static final int SCALE = 9;
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1_000, 10_000};
+    private static final long MAX_SCALED_RATE = Long.MAX_VALUE / 10_000;
+
+    private static final FxRates EMPTY = new FxRates(Collections.emptyMap(), 0);
+
+    private final Map<String, long[]> rates;
+    private final long loadedAt;
+
+    private FxRates(Map<String, long[]> rates, long loadedAt) {
+        this.rates = rates;
+        this.loadedAt = loadedAt;
+    }
+
+    /**
+     * @return Snapshot without any rate; it only converts a currency to itself.
+     */
+    public static FxRates empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Reads rate file.
+     *
+     * @param file The rate file.
+     * @return New snapshot.
+     * @throws IOException If the file cannot be read.
+     * @throws IllegalArgumentException If a line is not a known currency and a positive rate.
+     */
+    public static FxRates load(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        Map<String, long[]> rates = new HashMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            try {
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("expected CODE RATE");
+                }
+                String code = Money.currency(parts[0]);
+                long scaled = new BigDecimal(parts[1]).setScale(SCALE, RoundingMode.HALF_EVEN)
+                        .unscaledValue().longValueExact();
+                // keeps rate * 10^digits within a long in convert()
+                if (scaled <= 0 || scaled > MAX_SCALED_RATE) {
+                    throw new IllegalArgumentException("rate out of range");
+                }
+                int digits = Math.min(4, Math.max(0, Currency.getInstance(code).getDefaultFractionDigits()));
+                rates.put(code, new long[]{scaled, digits});
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(file + " line " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+        return new FxRates(Collections.unmodifiableMap(rates), System.currentTimeMillis());
+    }
+
+    /**
+     * @return When the snapshot was loaded, in milliseconds since the epoch.
+     */
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    /**
+     * @param currency Currency code.
+     * @return true if the currency has a rate.
+     */
+    public boolean supports(String currency) {
+        return rates.containsKey(currency);
+    }
+
+    /**
+     * Converts amount between currencies, rounding down to whole minor units,
+     * so the bank never pays out more than it received.
+     *
+     * @param amount Amount in minor units of the first currency; must not be negative.
+     * @param from Currency of the amount.
+     * @param to Currency to convert to.
+     * @return Amount in minor units of the second currency, or -1 if a rate is missing.
+     * @throws ArithmeticException If the result does not fit in a long.
+     */
+    public long convert(long amount, String from, String to) {
+        if (from.equals(to)) {
+            return amount;
+        }
+        long[] source = rates.get(from);
+        long[] target = rates.get(to);
+        if (source == null || target == null) {
+            return -1;
+        }
+        // amount * rateFrom * 10^digitsTo / (rateTo * 10^digitsFrom)
+        long numerator = source[0] * POWERS_OF_TEN[(int) target[1]];
+        long denominator = target[0] * POWERS_OF_TEN[(int) source[1]];
+        long high = Math.multiplyHigh(amount, numerator);
+        long low = amount * numerator;
+        if (high == 0 && low >= 0) {
+            return low / denominator;
+        }
+        // rare: the product needs more than 63 bits
+        return BigInteger.valueOf(amount).multiply(BigInteger.valueOf(numerator))
+                .divide(BigInteger.valueOf(denominator)).longValueExact();
+    }
+}
@@ -0,0 +1,136 @@
+package banking;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * LatencyHistogram counts durations in log-linear buckets, the way
+ * HdrHistogram does: values below 128 ns have a bucket each, and every
+ * further power of two is split into 64 buckets, so a percentile is off by
+ * less than 1.6% of its value, from nanoseconds up to the full long range.
+ * The 3,712 counters are updated with atomic increments, so any number of
+ * threads record at once without locking and without allocating.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 7;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_BITS = SUB_BITS - 1;
+    private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) Math.max(0, value);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - HALF_BITS;
+        return (shift << HALF_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * @return Highest value that falls into the bucket.
+     */
+    static long highestValue(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = (index >> HALF_BITS) - 1;
+        long lowest = (long) (index - (shift << HALF_BITS)) << shift;
+        return lowest + ((1L << shift) - 1);
+    }
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos Duration in nanoseconds; negative values count as 0.
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(index(nanos));
+        total.increment();
+        sum.add(Math.max(0, nanos));
+        max.accumulate(nanos);
+    }
+
+    /**
+     * @return Number of recorded durations.
+     */
+    public long getCount() {
+        return total.sum();
+    }
+
+    /**
+     * @return Longest recorded duration, in nanoseconds.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return Mean duration, in nanoseconds, or 0 if nothing was recorded.
+     */
+    public double getMean() {
+        long count = total.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Finds the duration below which the given share of recorded durations fall.
+     * Durations recorded meanwhile may or may not be counted.
+     *
+     * @param percentile Percentile, from 0 to 100.
+     * @return The duration in nanoseconds (the top of its bucket, at most the maximum), or 0 if empty.
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Forgets all recorded durations. Durations recorded meanwhile may survive.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * @return Count, mean, median, 90th, 99th and 99.9th percentile and maximum, in microseconds.
+     */
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f (us)",
+                getCount(), getMean() / 1e3, percentile(50) / 1e3, percentile(90) / 1e3,
+                percentile(99) / 1e3, percentile(99.9) / 1e3, getMax() / 1e3);
+    }
+}
@@ -0,0 +1,337 @@
+package banking;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * LoadGenerator simulates many customers using the bank at once, calling
+ * {@link BankingSystem} directly. Each customer has an account and does
+ * operations picked at random from a mix (create, login, income, transfer,
+ * close); a customer without an account creates one first.
+ *
+ * Two arrival models are supported:
+ * <ul>
+ *     <li>closed loop (default): each worker thread serves its share of the
+ *         customers one operation after another, optionally pausing between
+ *         them, so the load adapts to how fast the bank answers;</li>
+ *     <li>open loop ("-loadRate N"): operations start at a fixed rate whatever
+ *         the bank does, and latency is measured from the moment an operation
+ *         was due, so queueing delay is counted instead of hidden.</li>
+ * </ul>
+ * Latencies are recorded per operation in {@link LatencyHistogram}s; percentiles
+ * and throughput are printed and written to a results file.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class LoadGenerator {
+
+    /**
+     * Operations a customer does.
+     */
+    enum Operation {
+        CREATE, LOGIN, INCOME, TRANSFER, CLOSE
+    }
+
+    /**
+     * One simulated customer. Its operations never overlap.
+     */
+    static final class Customer {
+        final int id;
+        volatile UserAccount account;
+
+        Customer(int id) {
+            this.id = id;
+        }
+    }
+
+    private final BankingSystem bank;
+    private final Customer[] customers;
+    private final int threads;
+    private final long durationNanos;
+    private final double rate;
+    private final long thinkNanos;
+    private final Operation[] mix;
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> failures = new EnumMap<>(Operation.class);
+    private final LongAdder late = new LongAdder();
+
+    /**
+     * Creates load generator.
+     *
+     * @param bank The bank.
+     * @param customers Number of simulated customers.
+     * @param threads Number of threads doing operations.
+     * @param seconds How long the load runs.
+     * @param rate Operations started per second (open loop), or 0 for closed loop.
+     * @param thinkMillis Pause between two operations of a closed-loop thread.
+     * @param mix Weight of each operation, e.g. "create=5,login=30,income=30,transfer=30,close=5".
+     * @throws IllegalArgumentException If the mix is not valid.
+     */
+    public LoadGenerator(BankingSystem bank, int customers, int threads, int seconds, double rate,
+                         int thinkMillis, String mix) {
+        this.bank = bank;
+        this.customers = new Customer[Math.max(2, customers)];
+        for (int i = 0; i < this.customers.length; i++) {
+            this.customers[i] = new Customer(i);
+        }
+        this.threads = Math.max(1, threads);
+        this.durationNanos = TimeUnit.SECONDS.toNanos(Math.max(1, seconds));
+        this.rate = rate;
+        this.thinkNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, thinkMillis));
+        this.mix = parseMix(mix);
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            failures.put(operation, new LongAdder());
+        }
+    }
+
+    /**
+     * Runs the load described by program arguments: "-loadClients" customers (1000),
+     * "-loadThreads" threads (8), "-loadSeconds" (10), "-loadRate" operations per
+     * second (0, closed loop), "-loadThinkMillis" (0), "-loadMix" and "-loadResults"
+     * file (load-results.txt).
+     *
+     * @param bank The bank.
+     * @param args Program arguments.
+     */
+    public static void run(BankingSystem bank, String[] args) {
+        String rate = Arguments.get(args, "-loadRate");
+        String mix = Arguments.get(args, "-loadMix");
+        String results = Arguments.get(args, "-loadResults");
+        try {
+            LoadGenerator generator = new LoadGenerator(bank,
+                    Arguments.getInt(args, "-loadClients", 1000),
+                    Arguments.getInt(args, "-loadThreads", 8),
+                    Arguments.getInt(args, "-loadSeconds", 10),
+                    rate == null ? 0 : Double.parseDouble(rate),
+                    Arguments.getInt(args, "-loadThinkMillis", 0),
+                    mix == null ? "create=5,login=30,income=30,transfer=30,close=5" : mix);
+            generator.prepare();
+            double seconds = generator.run();
+            generator.report(results == null ? "load-results.txt" : results, seconds);
+        } catch (IllegalArgumentException | IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Turns weights into a table of 100 operations to pick from at random.
+     */
+    static Operation[] parseMix(String mix) {
+        int[] weights = new int[Operation.values().length];
+        int total = 0;
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Invalid load mix " + mix);
+            }
+            Operation operation = Operation.valueOf(pair[0].trim().toUpperCase());
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Invalid load mix " + mix);
+            }
+            weights[operation.ordinal()] += weight;
+            total += weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Invalid load mix " + mix);
+        }
+        Operation[] table = new Operation[100];
+        int filled = 0;
+        int cumulative = 0;
+        for (Operation operation : Operation.values()) {
+            cumulative += weights[operation.ordinal()];
+            int end = (int) Math.round(cumulative * 100.0 / total);
+            while (filled < end) {
+                table[filled++] = operation;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Opens an account for every customer, before anything is measured.
+     */
+    void prepare() {
+        long start = System.nanoTime();
+        for (Customer customer : customers) {
+            customer.account = bank.openAccount();
+            bank.deposit(customer.account, 1_000_000);
+        }
+        System.out.printf("Prepared %d customers in %.2f s%n", customers.length, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Runs the load.
+     *
+     * @return How long it ran, in seconds.
+     */
+    double run() {
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+        if (rate > 0) {
+            runOpenLoop(start, end);
+        } else {
+            runClosedLoop(end);
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    private void runClosedLoop(long end) {
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            Thread worker = new Thread(() -> {
+                for (int i = first; System.nanoTime() < end; i += threads) {
+                    Customer customer = customers[i % customers.length];
+                    long started = System.nanoTime();
+                    execute(customer, started);
+                    if (thinkNanos > 0) {
+                        LockSupport.parkNanos(thinkNanos);
+                    }
+                }
+            }, "load-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void runOpenLoop(long start, long end) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long interval = Math.max(1, (long) (1e9 / rate));
+        long due = start;
+        while (due < end) {
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            } else if (-wait > interval) {
+                // the dispatcher itself fell behind; the operation still counts from when it was due
+                late.increment();
+            }
+            long scheduled = due;
+            Customer customer = customers[ThreadLocalRandom.current().nextInt(customers.length)];
+            executor.execute(() -> execute(customer, scheduled));
+            due += interval;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Does one operation for a customer and records its latency.
+     *
+     * @param customer The customer.
+     * @param started When the operation started, or was due to start, from {@link System#nanoTime()}.
+     */
+    private void execute(Customer customer, long started) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        synchronized (customer) {
+            Operation operation = customer.account == null ? Operation.CREATE : mix[random.nextInt(mix.length)];
+            boolean ok;
+            try {
+                ok = perform(operation, customer, random);
+            } catch (RuntimeException e) {
+                ok = false;
+            }
+            latencies.get(operation).record(System.nanoTime() - started);
+            if (!ok) {
+                failures.get(operation).increment();
+            }
+        }
+    }
+
+    private boolean perform(Operation operation, Customer customer, ThreadLocalRandom random) {
+        UserAccount account = customer.account;
+        switch (operation) {
+            case CREATE:
+                customer.account = bank.openAccount();
+                return true;
+            case LOGIN:
+                return bank.authenticate(account.getCardNumber(), account.getPIN(), "load-" + customer.id) != null;
+            case INCOME:
+                bank.deposit(account, 1 + random.nextInt(10_000));
+                return true;
+            case TRANSFER: {
+                UserAccount to = customers[random.nextInt(customers.length)].account;
+                if (to == null || to == account) {
+                    return false;
+                }
+                return bank.transfer(account, to.getCardNumber(), 1 + random.nextInt(1_000))
+                        == TransferEngine.Result.SUCCESS;
+            }
+            case CLOSE:
+                bank.close(account);
+                customer.account = null;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Prints throughput and latency percentiles per operation and writes them to a file.
+     */
+    void report(String file, double seconds) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("# %s, %d customers, %d threads, %.1f s, mix %s",
+                rate > 0 ? "open loop at " + rate + " ops/s" : "closed loop", customers.length, threads,
+                seconds, describeMix()));
+        lines.add("operation,count,failed,ops_per_s,mean_us,p50_us,p90_us,p99_us,p99_9_us,max_us");
+        long count = 0;
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies.get(operation);
+            count += histogram.getCount();
+            lines.add(String.format("%s,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f",
+                    operation.name().toLowerCase(), histogram.getCount(), failures.get(operation).sum(),
+                    histogram.getCount() / seconds, histogram.getMean() / 1e3,
+                    histogram.percentile(50) / 1e3, histogram.percentile(90) / 1e3,
+                    histogram.percentile(99) / 1e3, histogram.percentile(99.9) / 1e3, histogram.getMax() / 1e3));
+        }
+        lines.add(String.format("# total %d operations, %.1f ops/s%s", count, count / seconds,
+                late.sum() > 0 ? ", dispatcher late " + late.sum() + " times" : ""));
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8))) {
+            for (String line : lines) {
+                out.println(line);
+                System.out.println(line);
+            }
+        }
+    }
+
+    private String describeMix() {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (Operation operation : mix) {
+            weights.merge(operation, 1, Integer::sum);
+        }
+        return weights.toString();
+    }
+}
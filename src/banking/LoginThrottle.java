@@ -0,0 +1,157 @@
+package banking;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * LoginThrottle limits failed logins per card and per source (console,
+ * client address). Every key holds one number: the time its failed attempts
+ * are paid off. A failed attempt pushes it forward by window / attempts,
+ * time passing pays it back. A key that reaches the limit is locked out:
+ * its time is pushed to the end of the lockout. This is the token bucket
+ * kept as a single long, updated with compare-and-set, so checks and
+ * failures take no locks.
+ *
+ * A string that is not a 16-digit card number cannot belong to any card, so
+ * it is charged to its source only; it gets no card key of its own and does
+ * not share one with other such strings.
+ *
+ * Checking a key is a map read, done before the card or PIN is looked at.
+ * Keys that are paid off hold no information and are dropped from memory
+ * by a sweep that runs every few hundred failures.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class LoginThrottle {
+    static final int DEFAULT_ATTEMPTS = 5;
+    static final int DEFAULT_SOURCE_ATTEMPTS = 20;
+    static final long DEFAULT_WINDOW_MILLIS = 60_000;
+    static final long DEFAULT_LOCKOUT_MILLIS = 300_000;
+    private static final int SWEEP_EVERY = 512;
+
+    private final ConcurrentHashMap<Long, AtomicLong> cards = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> sources = new ConcurrentHashMap<>();
+    private final long cardInterval;
+    private final long sourceInterval;
+    private final long window;
+    private final long lockout;
+    private final LongSupplier clock;
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * Creates throttle.
+     *
+     * @param attempts Failed attempts allowed per card within the window.
+     * @param sourceAttempts Failed attempts allowed per source within the window.
+     * @param windowMillis Time over which the attempts are counted.
+     * @param lockoutMillis How long a card or source is locked out after too many failures.
+     * @param clock Current time in milliseconds.
+     */
+    public LoginThrottle(int attempts, int sourceAttempts, long windowMillis, long lockoutMillis, LongSupplier clock) {
+        this.window = Math.max(1, windowMillis);
+        this.cardInterval = Math.max(1, window / Math.max(1, attempts));
+        this.sourceInterval = Math.max(1, window / Math.max(1, sourceAttempts));
+        this.lockout = Math.max(0, lockoutMillis);
+        this.clock = clock;
+    }
+
+    /**
+     * Creates throttle from program arguments: "-loginAttempts", "-sourceAttempts",
+     * "-loginWindowSeconds" and "-lockoutSeconds".
+     *
+     * @param args Program arguments.
+     * @return The throttle.
+     */
+    public static LoginThrottle fromArguments(String[] args) {
+        return new LoginThrottle(Arguments.getInt(args, "-loginAttempts", DEFAULT_ATTEMPTS),
+                Arguments.getInt(args, "-sourceAttempts", DEFAULT_SOURCE_ATTEMPTS),
+                Arguments.getInt(args, "-loginWindowSeconds", (int) (DEFAULT_WINDOW_MILLIS / 1000)) * 1000L,
+                Arguments.getInt(args, "-lockoutSeconds", (int) (DEFAULT_LOCKOUT_MILLIS / 1000)) * 1000L,
+                () -> System.nanoTime() / 1_000_000);
+    }
+
+    /**
+     * Checks whether a login may be attempted. Changes nothing.
+     *
+     * @param cardNumber Number of the card.
+     * @param source Where the attempt comes from.
+     * @return false if the card or the source is locked out.
+     */
+    public boolean allowed(String cardNumber, String source) {
+        long now = clock.getAsLong();
+        long number = CardNumberIssuer.parse(cardNumber);
+        AtomicLong card = number < 0 ? null : cards.get(number);
+        AtomicLong from = sources.get(source);
+        return (card == null || open(card.get(), now, cardInterval))
+                && (from == null || open(from.get(), now, sourceInterval));
+    }
+
+    private boolean open(long paidOff, long now, long interval) {
+        // one more failure must still fit in the window
+        return paidOff - now <= window - interval;
+    }
+
+    /**
+     * Counts a failed login.
+     *
+     * @param cardNumber Number of the card.
+     * @param source Where the attempt came from.
+     */
+    public void failed(String cardNumber, String source) {
+        long now = clock.getAsLong();
+        long number = CardNumberIssuer.parse(cardNumber);
+        if (number >= 0) {
+            charge(cards.computeIfAbsent(number, k -> new AtomicLong(now)), now, cardInterval);
+        }
+        charge(sources.computeIfAbsent(source, k -> new AtomicLong(now)), now, sourceInterval);
+        if (failures.incrementAndGet() % SWEEP_EVERY == 0) {
+            sweep(now);
+        }
+    }
+
+    private void charge(AtomicLong paidOff, long now, long interval) {
+        long current;
+        long next;
+        do {
+            current = paidOff.get();
+            next = Math.max(current, now) + interval;
+            if (!open(next, now, interval)) {
+                next = Math.max(next, now + window - interval + lockout);
+            }
+        } while (!paidOff.compareAndSet(current, next));
+    }
+
+    /**
+     * Forgets failed attempts of a card after a successful login.
+     *
+     * @param cardNumber Number of the card.
+     */
+    public void succeeded(String cardNumber) {
+        cards.remove(CardNumberIssuer.parse(cardNumber));
+    }
+
+    /**
+     * Drops keys whose failures are all paid off. A failure counted while its key
+     * is being dropped may be lost, which only makes the throttle slightly more lenient.
+     *
+     * @param now Current time in milliseconds.
+     */
+    void sweep(long now) {
+        cards.values().removeIf(paidOff -> paidOff.get() <= now);
+        sources.values().removeIf(paidOff -> paidOff.get() <= now);
+    }
+
+    /**
+     * @return Number of cards and sources with failed attempts in memory.
+     */
+    public int tracked() {
+        return cards.size() + sources.size();
+    }
+}
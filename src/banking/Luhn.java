@@ -0,0 +1,190 @@
+package banking;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * Luhn computes and verifies card number check digits.
+ * Digits are processed right to left; every second digit, starting with
+ * the rightmost digit of the payload, is doubled. Doubling is a lookup in
+ * a precomputed table, and no method allocates on the normal path.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public final class Luhn {
+
+    /** Value of a doubled digit, with 9 already subtracted from results above 9. */
+    private static final int[] DOUBLED = {0, 2, 4, 6, 8, 1, 3, 5, 7, 9};
+
+    private Luhn() {
+    }
+
+    /**
+     * Computes check digit for a payload (card number without its last digit).
+     *
+     * @param payload Digits of the payload.
+     * @return Check digit 0-9, or -1 if payload is empty or contains a non-digit.
+     */
+    public static int checksum(CharSequence payload) {
+        int length = payload.length();
+        if (length == 0) {
+            return -1;
+        }
+        int sum = 0;
+        boolean doubled = true;
+        for (int i = length - 1; i >= 0; i--) {
+            int digit = payload.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            sum += doubled ? DOUBLED[digit] : digit;
+            doubled = !doubled;
+        }
+        return (10 - sum % 10) % 10;
+    }
+
+    /**
+     * Computes check digit for a payload held in a char array.
+     *
+     * @param digits Array holding the payload.
+     * @param offset Index of the first payload digit.
+     * @param length Number of payload digits.
+     * @return Check digit 0-9, or -1 if payload is empty or contains a non-digit.
+     */
+    public static int checksum(char[] digits, int offset, int length) {
+        if (length <= 0) {
+            return -1;
+        }
+        int sum = 0;
+        boolean doubled = true;
+        for (int i = offset + length - 1; i >= offset; i--) {
+            int digit = digits[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            sum += doubled ? DOUBLED[digit] : digit;
+            doubled = !doubled;
+        }
+        return (10 - sum % 10) % 10;
+    }
+
+    /**
+     * Computes check digit for a numeric payload.
+     *
+     * @param payload Payload as non-negative number, e.g. 400000123456789L.
+     * @return Check digit 0-9, or -1 if payload is negative.
+     */
+    public static int checksum(long payload) {
+        if (payload < 0) {
+            return -1;
+        }
+        int sum = 0;
+        boolean doubled = true;
+        do {
+            int digit = (int) (payload % 10);
+            sum += doubled ? DOUBLED[digit] : digit;
+            doubled = !doubled;
+            payload /= 10;
+        } while (payload != 0);
+        return (10 - sum % 10) % 10;
+    }
+
+    /**
+     * Checks whether full card number (payload plus check digit) passes the Luhn check.
+     *
+     * @param number Card number.
+     * @return true if number has at least 2 digits, only digits, and a correct check digit.
+     */
+    public static boolean isValid(CharSequence number) {
+        int length = number.length();
+        if (length < 2) {
+            return false;
+        }
+        int sum = 0;
+        boolean doubled = false;
+        for (int i = length - 1; i >= 0; i--) {
+            int digit = number.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            sum += doubled ? DOUBLED[digit] : digit;
+            doubled = !doubled;
+        }
+        return sum % 10 == 0;
+    }
+
+    /**
+     * Checks whether full card number held in a char array passes the Luhn check.
+     *
+     * @param digits Array holding the number.
+     * @param offset Index of the first digit.
+     * @param length Number of digits.
+     * @return true if number has at least 2 digits, only digits, and a correct check digit.
+     */
+    public static boolean isValid(char[] digits, int offset, int length) {
+        if (length < 2) {
+            return false;
+        }
+        int sum = 0;
+        boolean doubled = false;
+        for (int i = offset + length - 1; i >= offset; i--) {
+            int digit = digits[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            sum += doubled ? DOUBLED[digit] : digit;
+            doubled = !doubled;
+        }
+        return sum % 10 == 0;
+    }
+
+    /**
+     * Checks whether numeric card number passes the Luhn check.
+     *
+     * @param number Card number, e.g. 4000001234567899L.
+     * @return true if number is non-negative and has a correct check digit.
+     */
+    public static boolean isValid(long number) {
+        return number >= 10 && checksum(number / 10) == (int) (number % 10);
+    }
+
+    /**
+     * Validates many card numbers at once.
+     *
+     * @param numbers Card numbers to validate.
+     * @param results Array receiving result for each number; must be at least as long as numbers.
+     * @return How many numbers are valid.
+     */
+    public static int validateAll(CharSequence[] numbers, boolean[] results) {
+        int valid = 0;
+        for (int i = 0; i < numbers.length; i++) {
+            boolean ok = numbers[i] != null && isValid(numbers[i]);
+            results[i] = ok;
+            if (ok) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * Validates many numeric card numbers at once.
+     *
+     * @param numbers Card numbers to validate.
+     * @param results Array receiving result for each number; must be at least as long as numbers.
+     * @return How many numbers are valid.
+     */
+    public static int validateAll(long[] numbers, boolean[] results) {
+        int valid = 0;
+        for (int i = 0; i < numbers.length; i++) {
+            boolean ok = isValid(numbers[i]);
+            results[i] = ok;
+            if (ok) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+}
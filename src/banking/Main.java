@@ -1,14 +1,99 @@
 package banking;
 
+import java.util.concurrent.CountDownLatch;
+
 public class Main {
 
     /**
      * The main method begins execution of the program.
      *
-     * @param args not used
+     * @param args "-fileName" with the database file, plus optional settings;
+     *             "-bulkCreate N" creates N accounts and exits instead of showing the menu;
+     *             "-import FILE" applies a CSV file of incomes and transfers and exits;
+     *             "-export FILE", "-exportCsv FILE" or "-restore FILE" copies cards to or from a snapshot and exits;
+     *             "-load" simulates many concurrent customers and writes latency percentiles, see {@link LoadGenerator};
+     *             "-metrics" measures operations and publishes them over JMX, see {@link Metrics};
+     *             "-shards N" splits a new database into N files, "-reshard N" moves the cards of an existing one
+     *             to N files, while "-port" or "-load" runs, otherwise before exiting, see {@link ShardedDBManager};
+     *             "-memoryReport N" prints memory taken by account collections for N cards and exits;
+     *             "-port N" serves the bank over a local TCP socket instead of the console
      */
     public static void main(String[] args) {
+        int memoryReport = Arguments.getInt(args, "-memoryReport", 0);
+        if (memoryReport > 0) {
+            FootprintReport.print(memoryReport);
+            return;
+        }
         BankingSystem system = new BankingSystem(args);
+        int reshard = Arguments.getInt(args, "-reshard", 0);
+        Thread resharding = null;
+        if (reshard > 0) {
+            ShardedDBManager shards = (ShardedDBManager) BankingSystem.dbManager;
+            if (!Arguments.has(args, "-port") && !Arguments.has(args, "-load")) {
+                shards.reshard(reshard);
+                system.shutdown();
+                return;
+            }
+            // buckets move while the bank keeps serving
+            resharding = new Thread(() -> shards.reshard(reshard), "reshard");
+            resharding.start();
+        }
+        int bulkCreate = Arguments.getInt(args, "-bulkCreate", 0);
+        if (bulkCreate > 0) {
+            system.bulkCreateAccounts(bulkCreate);
+            system.shutdown();
+            return;
+        }
+        if (Arguments.has(args, "-export") || Arguments.has(args, "-exportCsv") || Arguments.has(args, "-restore")) {
+            CardSnapshot.run(system, args);
+            system.shutdown();
+            return;
+        }
+        if (Arguments.has(args, "-load")) {
+            LoadGenerator.run(system, args);
+            join(resharding);
+            system.shutdown();
+            return;
+        }
+        if (Arguments.has(args, "-import")) {
+            StatementImport.run(system, args);
+            system.shutdown();
+            return;
+        }
+        int port = Arguments.getInt(args, "-port", 0);
+        if (port > 0) {
+            BankServer server = new BankServer(system, port,
+                    Arguments.getInt(args, "-serverThreads", 4 * Runtime.getRuntime().availableProcessors()));
+            CountDownLatch stopped = new CountDownLatch(1);
+            // the JVM exits when the hook returns, so it waits until the bank has been shut down
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                try {
+                    stopped.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            try {
+                server.run();
+                join(resharding);
+                system.shutdown();
+            } finally {
+                stopped.countDown();
+            }
+            return;
+        }
         system.mainMenu();
     }
+
+    private static void join(Thread thread) {
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
@@ -0,0 +1,393 @@
+package banking;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * Metrics counts calls, failures and rows of each {@link Operation} and
+ * records their durations in a {@link LatencyHistogram}. Database methods,
+ * bank operations and the JDBC steps under them (opening a connection,
+ * waiting for a pooled one, preparing a statement) are measured separately,
+ * so it shows where the time goes. All counters are lock-free.
+ *
+ * Metrics are turned on with "-metrics" and then published over JMX
+ * (see {@link MetricsMXBean}); with "-metricsDumpSeconds N" they are also
+ * written every N seconds to standard output, or appended to "-metricsFile".
+ * When turned off, {@link #DISABLED} is used: measuring then costs a check
+ * of a final field, and the clock is not read.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class Metrics implements MetricsMXBean, AutoCloseable {
+
+    /**
+     * Measured operations.
+     */
+    public enum Operation {
+        SELECT_ID("db.selectIDByCard"),
+        SELECT_BALANCE("db.selectBalanceByCard"),
+        SELECT_CREDENTIAL("db.selectCredential"),
+        SELECT_ALL_CARDS("db.selectAllCards"),
+        INSERT("db.insert"),
+        INSERT_BATCH("db.insertBatch"),
+        UPDATE("db.update"),
+        UPDATE_BALANCES("db.updateBalances"),
+        CREDIT("db.credit"),
+        CREDIT_WALLET("db.creditWallet"),
+        DELETE("db.delete"),
+        TRANSFER("db.transfer"),
+        APPLY_MUTATIONS("db.applyMutations"),
+        APPLY_STATEMENTS("db.applyStatements"),
+        EXPORT_SNAPSHOT("db.exportSnapshot"),
+        RESTORE_CARDS("db.restoreCards"),
+        CHECKPOINT("db.checkpoint"),
+        RESERVE_CARD_INDEXES("db.reserveCardIndexes"),
+        GROUP_COMMIT("db.groupCommit"),
+        CONNECTION_OPEN("jdbc.connectionOpen"),
+        POOL_WAIT("jdbc.poolWait"),
+        PREPARE("jdbc.prepare"),
+        OPEN_ACCOUNT("bank.openAccount"),
+        AUTHENTICATE("bank.authenticate"),
+        DEPOSIT("bank.deposit"),
+        BANK_TRANSFER("bank.transfer"),
+        CLOSE_ACCOUNT("bank.close"),
+        BULK_CREATE("bank.bulkCreateAccounts");
+
+        final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Statistics of one operation, as published over JMX. Durations are in microseconds.
+     */
+    public static final class OperationStats {
+        private final String name;
+        private final long count;
+        private final long failed;
+        private final long rows;
+        private final double mean;
+        private final double p50;
+        private final double p99;
+        private final double p999;
+        private final double max;
+
+        OperationStats(String name, LatencyHistogram latency, long failed, long rows) {
+            this.name = name;
+            this.count = latency.getCount();
+            this.failed = failed;
+            this.rows = rows;
+            this.mean = latency.getMean() / 1e3;
+            this.p50 = latency.percentile(50) / 1e3;
+            this.p99 = latency.percentile(99) / 1e3;
+            this.p999 = latency.percentile(99.9) / 1e3;
+            this.max = latency.getMax() / 1e3;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public double getMeanMicros() {
+            return mean;
+        }
+
+        public double getP50Micros() {
+            return p50;
+        }
+
+        public double getP99Micros() {
+            return p99;
+        }
+
+        public double getP999Micros() {
+            return p999;
+        }
+
+        public double getMaxMicros() {
+            return max;
+        }
+    }
+
+    /**
+     * Metrics that are turned off.
+     */
+    public static final Metrics DISABLED = new Metrics(false);
+
+    private static final String OBJECT_NAME = "banking:type=Metrics";
+
+    private final boolean enabled;
+    private final LatencyHistogram[] latencies;
+    private final LongAdder[] failures;
+    private final LongAdder[] rows;
+    private ScheduledExecutorService dumper;
+    private String dumpFile;
+    private ObjectName objectName;
+
+    private Metrics(boolean enabled) {
+        this.enabled = enabled;
+        int size = enabled ? Operation.values().length : 0;
+        this.latencies = new LatencyHistogram[size];
+        this.failures = new LongAdder[size];
+        this.rows = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            latencies[i] = new LatencyHistogram();
+            failures[i] = new LongAdder();
+            rows[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Creates metrics that are turned on, without publishing them.
+     */
+    public static Metrics enabled() {
+        return new Metrics(true);
+    }
+
+    /**
+     * Creates metrics from program arguments: "-metrics" turns them on and
+     * registers them over JMX, "-metricsDumpSeconds N" writes them every N seconds,
+     * to "-metricsFile" if given, otherwise to standard output.
+     *
+     * @param args Program arguments.
+     * @return The metrics, or {@link #DISABLED} without "-metrics".
+     */
+    public static Metrics fromArguments(String[] args) {
+        if (!Arguments.has(args, "-metrics")) {
+            return DISABLED;
+        }
+        Metrics metrics = new Metrics(true);
+        metrics.register();
+        metrics.dumpFile = Arguments.get(args, "-metricsFile");
+        int seconds = Arguments.getInt(args, "-metricsDumpSeconds", 0);
+        if (seconds > 0) {
+            metrics.dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+            metrics.dumper.scheduleAtFixedRate(metrics::dump, seconds, seconds, TimeUnit.SECONDS);
+        }
+        return metrics;
+    }
+
+    /**
+     * @return true if operations are measured.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts measuring an operation.
+     *
+     * @return Start time to pass to {@link #stop(Operation, long)}, or 0 when turned off.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a finished call of an operation.
+     *
+     * @param operation The operation.
+     * @param start Value returned by {@link #start()}.
+     */
+    public void stop(Operation operation, long start) {
+        if (enabled) {
+            latencies[operation.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records a finished call of an operation and the number of rows it read or wrote.
+     *
+     * @param operation The operation.
+     * @param start Value returned by {@link #start()}.
+     * @param count Number of rows.
+     */
+    public void stop(Operation operation, long start, long count) {
+        if (enabled) {
+            latencies[operation.ordinal()].record(System.nanoTime() - start);
+            rows[operation.ordinal()].add(count);
+        }
+    }
+
+    /**
+     * Adds to the number of rows an operation read or wrote.
+     *
+     * @param operation The operation.
+     * @param count Number of rows.
+     */
+    public void rows(Operation operation, long count) {
+        if (enabled) {
+            rows[operation.ordinal()].add(count);
+        }
+    }
+
+    /**
+     * Counts a failed call of an operation. Database methods count SQL errors;
+     * bank operations count refused logins and transfers and thrown exceptions.
+     *
+     * @param operation The operation.
+     */
+    public void failed(Operation operation) {
+        if (enabled) {
+            failures[operation.ordinal()].increment();
+        }
+    }
+
+    /**
+     * @param operation The operation.
+     * @return Its latencies, or null when turned off.
+     */
+    public LatencyHistogram latency(Operation operation) {
+        return enabled ? latencies[operation.ordinal()] : null;
+    }
+
+    /**
+     * @param operation The operation.
+     * @return Number of its failed calls.
+     */
+    public long getFailed(Operation operation) {
+        return enabled ? failures[operation.ordinal()].sum() : 0;
+    }
+
+    /**
+     * @param operation The operation.
+     * @return Number of rows it read or wrote.
+     */
+    public long getRows(Operation operation) {
+        return enabled ? rows[operation.ordinal()].sum() : 0;
+    }
+
+    @Override
+    public List<OperationStats> getOperations() {
+        List<OperationStats> stats = new ArrayList<>();
+        for (Operation operation : Operation.values()) {
+            if (enabled && latencies[operation.ordinal()].getCount() > 0) {
+                stats.add(new OperationStats(operation.label, latencies[operation.ordinal()],
+                        getFailed(operation), getRows(operation)));
+            }
+        }
+        return stats;
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        for (Operation operation : Operation.values()) {
+            if (enabled && latencies[operation.ordinal()].getCount() > 0) {
+                report.append(operation.label)
+                        .append(" failed=").append(getFailed(operation))
+                        .append(" rows=").append(getRows(operation))
+                        .append(' ').append(latencies[operation.ordinal()])
+                        .append(System.lineSeparator());
+            }
+        }
+        return report.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i].reset();
+            failures[i].reset();
+            rows[i].reset();
+        }
+    }
+
+    /**
+     * Writes the report to "-metricsFile", or to standard output.
+     */
+    void dump() {
+        String report = "# metrics at " + Instant.now() + System.lineSeparator() + getReport();
+        if (dumpFile == null) {
+            System.out.print(report);
+            return;
+        }
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(dumpFile), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            out.print(report);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Publishes the metrics over JMX, replacing metrics of an earlier bank in the same JVM.
+     */
+    private void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            objectName = new ObjectName(OBJECT_NAME);
+            try {
+                server.registerMBean(this, objectName);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(objectName);
+                server.registerMBean(this, objectName);
+            }
+        } catch (JMException e) {
+            System.out.println(e.getMessage());
+            objectName = null;
+        }
+    }
+
+    /**
+     * Stops the periodic dump and unpublishes the metrics. The report is written
+     * one last time if it was dumped periodically or to "-metricsFile".
+     */
+    @Override
+    public void close() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+            dump();
+        } else if (dumpFile != null) {
+            dump();
+        }
+        dumpFile = null;
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ignored) {
+            }
+            objectName = null;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package banking;
+
+import java.util.List;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * MetricsMXBean is the JMX view of {@link Metrics}, registered as
+ * "banking:type=Metrics" and readable with JConsole or any JMX client.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public interface MetricsMXBean {
+
+    /**
+     * @return Statistics of every operation that was called at least once.
+     */
+    List<Metrics.OperationStats> getOperations();
+
+    /**
+     * @return The statistics as text, one operation per line.
+     */
+    String getReport();
+
+    /**
+     * Forgets all statistics.
+     */
+    void reset();
+}
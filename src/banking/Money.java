@@ -0,0 +1,92 @@
+package banking;
+
+import java.util.Currency;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * Money holds the rules for amounts of money. An amount is a long number of
+ * minor units of the account's currency (cents for USD), so it is exact and
+ * arithmetic on it allocates nothing. Amounts typed in by users are minor units, too.
+ * Every sum goes through {@link #add(long, long)}, which throws
+ * {@link ArithmeticException} instead of wrapping around.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public final class Money {
+    /**
+     * Currency of accounts unless "-currency" says otherwise.
+     */
+    public static final String DEFAULT_CURRENCY = "USD";
+
+    private Money() {
+    }
+
+    /**
+     * Adds two amounts.
+     *
+     * @param balance Amount of money.
+     * @param amount Amount to add; may be negative.
+     * @return The sum.
+     * @throws ArithmeticException If the sum does not fit in a long.
+     */
+    public static long add(long balance, long amount) {
+        return Math.addExact(balance, amount);
+    }
+
+    /**
+     * Parses amount typed in by user.
+     *
+     * @param input Whole number of minor units.
+     * @return The amount, or -1 if input is not a non-negative number that fits in a long.
+     */
+    public static long parse(String input) {
+        if (input == null || input.isEmpty() || input.length() > 19) {
+            return -1;
+        }
+        long amount = 0;
+        for (int i = 0; i < input.length(); i++) {
+            int digit = input.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || amount > (Long.MAX_VALUE - digit) / 10) {
+                return -1;
+            }
+            amount = amount * 10 + digit;
+        }
+        return amount;
+    }
+
+    /**
+     * Checks currency code.
+     *
+     * @param code ISO 4217 currency code, e.g. "USD".
+     * @return The code in upper case.
+     * @throws IllegalArgumentException If the code is not a known currency.
+     */
+    public static String currency(String code) {
+        return Currency.getInstance(code.toUpperCase()).getCurrencyCode();
+    }
+
+    /**
+     * @param code ISO 4217 currency code.
+     * @return ISO 4217 numeric code of the currency, e.g. 840 for USD.
+     */
+    public static int numericCode(String code) {
+        return Currency.getInstance(code).getNumericCode();
+    }
+
+    /**
+     * @param numericCode ISO 4217 numeric code.
+     * @return Currency code, or null if no currency has the numeric code.
+     */
+    public static String currencyOf(int numericCode) {
+        for (Currency currency : Currency.getAvailableCurrencies()) {
+            if (currency.getNumericCode() == numericCode) {
+                return currency.getCurrencyCode();
+            }
+        }
+        return null;
+    }
+}
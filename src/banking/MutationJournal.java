@@ -0,0 +1,352 @@
+package banking;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * MutationJournal is an append-only, memory-mapped binary log of account
+ * mutations (create, credit, debit, close, and credit or debit of a balance
+ * in another currency than the card's own). It makes SQLite commits cheap:
+ * the database runs with WAL journal and synchronous=NORMAL, so its commits
+ * are not flushed to disk, and a mutation becomes durable when its journal
+ * record is. Records hold the balance after the mutation, so replaying
+ * a record twice gives the same result.
+ *
+ * A mutation is applied to the database and appended to the journal while
+ * holding {@link #mutationLock()} (shared); the caller then waits in
+ * {@link #awaitDurable(long)}. Waiting threads are served by group commit:
+ * one of them forces the mapped file to disk, which makes every record
+ * appended so far durable, and wakes up the others.
+ *
+ * A checkpoint makes the database itself durable and empties the journal.
+ * After a crash, {@link #recover()} replays records written since the last
+ * checkpoint into the card table.
+ *
+ * File layout: 16-byte header (magic, format version, sequence number of
+ * the first record), followed by records of sequence number, card, amount,
+ * balance after, type and ISO numeric currency code, then CRC32C of the
+ * preceding bytes; 40 bytes in all. A CREATE record holds the card's PIN
+ * verifier before the CRC and takes 88 bytes; PINs are never journaled.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class MutationJournal implements AutoCloseable {
+    public static final byte CREATE = 1;
+    public static final byte CREDIT = 2;
+    public static final byte DEBIT = 3;
+    public static final byte CLOSE = 4;
+    public static final byte WALLET_CREDIT = 5;
+    public static final byte WALLET_DEBIT = 6;
+
+    static final int DEFAULT_CAPACITY = 64 * 1024 * 1024;
+    private static final int MAGIC = 0x53424A31;
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 40;
+    private static final int CREATE_RECORD_SIZE = 88;
+    private static final int VERIFIER_OFFSET = 36;
+    private static final int REPLAY_CHUNK = 10_000;
+
+    private final DBManager dbManager;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final ReentrantReadWriteLock mutationLock = new ReentrantReadWriteLock();
+    private final CRC32C crc = new CRC32C();
+    private final Object commitLock = new Object();
+
+    private int position = HEADER_SIZE;
+    private long firstSeq;
+    private long lastSeq;
+    private long durableSeq;
+    private boolean committing;
+
+    /**
+     * Opens or creates the journal file and maps it into memory;
+     * call {@link #recover()} before using it.
+     *
+     * @param dbManager Database the journal belongs to.
+     * @param file Journal file.
+     * @param capacity Size of the journal file in bytes.
+     * @throws IOException If the file cannot be opened or mapped.
+     */
+    public MutationJournal(DBManager dbManager, Path file, int capacity) throws IOException {
+        this.dbManager = dbManager;
+        this.capacity = Math.max(HEADER_SIZE + RECORD_SIZE, capacity);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT) {
+            writeHeader(1);
+        }
+        this.firstSeq = buffer.getLong(8);
+        this.lastSeq = firstSeq - 1;
+        this.durableSeq = lastSeq;
+    }
+
+    /**
+     * @return Lock held (shared) while a mutation is applied and appended;
+     *         checkpoints hold it exclusively.
+     */
+    public ReentrantReadWriteLock mutationLock() {
+        return mutationLock;
+    }
+
+    /**
+     * Replays records written since the last checkpoint into the card table,
+     * then takes a checkpoint.
+     *
+     * @return Number of records replayed.
+     */
+    public int recover() {
+        byte[] types = new byte[REPLAY_CHUNK];
+        long[] cards = new long[REPLAY_CHUNK];
+        int[] codes = new int[REPLAY_CHUNK];
+        long[] amounts = new long[REPLAY_CHUNK];
+        long[] balances = new long[REPLAY_CHUNK];
+        byte[][] verifiers = new byte[REPLAY_CHUNK][];
+        int count = 0;
+        int chunk = 0;
+        long expected = firstSeq;
+        int pos = HEADER_SIZE;
+        while (pos + RECORD_SIZE <= capacity) {
+            int size = recordSize(buffer.get(pos + 32));
+            if (buffer.getLong(pos) != expected || pos + size > capacity || !checksumMatches(pos, size)) {
+                // end of log: an old record from before the last checkpoint, or one torn by a crash
+                break;
+            }
+            types[chunk] = buffer.get(pos + 32);
+            cards[chunk] = buffer.getLong(pos + 8);
+            codes[chunk] = buffer.getShort(pos + 34);
+            amounts[chunk] = buffer.getLong(pos + 16);
+            balances[chunk] = buffer.getLong(pos + 24);
+            verifiers[chunk] = null;
+            if (types[chunk] == CREATE) {
+                verifiers[chunk] = new byte[CredentialStore.VERIFIER_SIZE];
+                for (int i = 0; i < CredentialStore.VERIFIER_SIZE; i++) {
+                    verifiers[chunk][i] = buffer.get(pos + VERIFIER_OFFSET + i);
+                }
+            }
+            expected++;
+            pos += size;
+            if (++chunk == REPLAY_CHUNK) {
+                count += replay(types, cards, codes, amounts, balances, verifiers, chunk);
+                chunk = 0;
+            }
+        }
+        count += replay(types, cards, codes, amounts, balances, verifiers, chunk);
+        lastSeq = expected - 1;
+        durableSeq = lastSeq;
+        checkpoint();
+        return count;
+    }
+
+    private int replay(byte[] types, long[] cards, int[] codes, long[] amounts, long[] balances,
+                       byte[][] verifiers, int count) {
+        if (count > 0 && !dbManager.applyMutations(types, cards, codes, amounts, balances, verifiers, count)) {
+            throw new IllegalStateException("Cannot apply mutation journal to the database");
+        }
+        return count;
+    }
+
+    /**
+     * Appends a record. The caller must hold {@link #mutationLock()} (shared)
+     * and have applied the mutation to the database already.
+     *
+     * @param type CREDIT, DEBIT or CLOSE; see {@link #appendCreate(UserAccount, byte[])} for CREATE.
+     * @param account The account; its card number and current balance are recorded.
+     * @param amount Amount of money credited or debited, 0 for other mutations.
+     * @return Sequence number of the record, or -1 if the journal is full and a
+     *         checkpoint must be taken (see {@link #checkpoint()}) to make the mutation durable.
+     */
+    public long append(byte type, UserAccount account, long amount) {
+        return append(type, account, amount, null, null);
+    }
+
+    /**
+     * Appends a CREATE record, with the ISO numeric code of the account's currency
+     * in place of the amount. The caller must hold {@link #mutationLock()} (shared).
+     *
+     * @param account The new account.
+     * @param verifier PIN verifier of the card, see {@link CredentialStore#newVerifier(long, int)}.
+     * @return Sequence number of the record, or -1 if the journal is full.
+     */
+    public long appendCreate(UserAccount account, byte[] verifier) {
+        return append(CREATE, account, Money.numericCode(account.getCurrency()), null, verifier);
+    }
+
+    /**
+     * Appends a WALLET_CREDIT or WALLET_DEBIT record, with the balance the account
+     * holds in the currency. The caller must hold {@link #mutationLock()} (shared).
+     *
+     * @param type WALLET_CREDIT or WALLET_DEBIT.
+     * @param account The account.
+     * @param amount Amount of money credited or debited.
+     * @param currency Currency of the balance.
+     * @return Sequence number of the record, or -1 if the journal is full.
+     */
+    public long append(byte type, UserAccount account, long amount, String currency) {
+        return append(type, account, amount, currency, null);
+    }
+
+    private long append(byte type, UserAccount account, long amount, String currency, byte[] verifier) {
+        long card = CardNumberIssuer.parse(account.getCardNumber());
+        int size = recordSize(type);
+        synchronized (this) {
+            if (position + size > capacity) {
+                return -1;
+            }
+            int pos = position;
+            long seq = ++lastSeq;
+            // read with the sequence number, so a later record never holds an older balance
+            long balance = currency == null ? account.getBalance() : account.getBalance(currency);
+            buffer.putLong(pos, seq);
+            buffer.putLong(pos + 8, card);
+            buffer.putLong(pos + 16, amount);
+            buffer.putLong(pos + 24, balance);
+            buffer.put(pos + 32, type);
+            buffer.put(pos + 33, (byte) 0);
+            buffer.putShort(pos + 34, (short) (currency == null ? 0 : Money.numericCode(currency)));
+            if (verifier != null) {
+                for (int i = 0; i < CredentialStore.VERIFIER_SIZE; i++) {
+                    buffer.put(pos + VERIFIER_OFFSET + i, verifier[i]);
+                }
+            }
+            buffer.putInt(pos + size - Integer.BYTES, checksum(pos, size));
+            position = pos + size;
+            return seq;
+        }
+    }
+
+    private static int recordSize(byte type) {
+        return type == CREATE ? CREATE_RECORD_SIZE : RECORD_SIZE;
+    }
+
+    /**
+     * @return true if the journal is more than three quarters full.
+     */
+    public synchronized boolean nearlyFull() {
+        return position > capacity / 4 * 3;
+    }
+
+    /**
+     * Takes a checkpoint if the journal is more than three quarters full.
+     * Must not be called while holding {@link #mutationLock()}.
+     */
+    public void checkpointIfNearlyFull() {
+        if (nearlyFull()) {
+            mutationLock.writeLock().lock();
+            try {
+                // another thread may have taken the checkpoint while this one waited for the lock
+                if (nearlyFull()) {
+                    checkpoint();
+                }
+            } finally {
+                mutationLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Waits until the record is on disk. Threads waiting at the same time share one disk flush.
+     *
+     * @param seq Sequence number returned by {@link #append(byte, UserAccount, long)}.
+     */
+    public void awaitDurable(long seq) {
+        synchronized (commitLock) {
+            while (committing && durableSeq < seq) {
+                try {
+                    commitLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (durableSeq >= seq) {
+                return;
+            }
+            committing = true;
+        }
+        // this thread flushes for everyone; records appended meanwhile wait for the next flush
+        long target;
+        synchronized (this) {
+            target = lastSeq;
+        }
+        try {
+            buffer.force();
+        } finally {
+            synchronized (commitLock) {
+                durableSeq = Math.max(durableSeq, target);
+                committing = false;
+                commitLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Makes the database durable and empties the journal.
+     * Waits until no mutation is in progress, so it must not be called
+     * while holding {@link #mutationLock()} (shared).
+     */
+    public void checkpoint() {
+        mutationLock.writeLock().lock();
+        try {
+            if (!dbManager.checkpoint()) {
+                return;
+            }
+            synchronized (this) {
+                writeHeader(lastSeq + 1);
+                firstSeq = lastSeq + 1;
+                position = HEADER_SIZE;
+            }
+            synchronized (commitLock) {
+                durableSeq = lastSeq;
+                commitLock.notifyAll();
+            }
+        } finally {
+            mutationLock.writeLock().unlock();
+        }
+    }
+
+    private void writeHeader(long first) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT);
+        buffer.putLong(8, first);
+        buffer.force();
+    }
+
+    private int checksum(int pos, int size) {
+        crc.reset();
+        for (int i = pos; i < pos + size - Integer.BYTES; i++) {
+            crc.update(buffer.get(i));
+        }
+        return (int) crc.getValue();
+    }
+
+    private synchronized boolean checksumMatches(int pos, int size) {
+        return checksum(pos, size) == buffer.getInt(pos + size - Integer.BYTES);
+    }
+
+    /**
+     * Takes a final checkpoint and closes the file.
+     */
+    @Override
+    public void close() {
+        checkpoint();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package banking;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * PooledConnection wraps a JDBC connection owned by {@link ConnectionPool}.
+ * It caches prepared statements by their SQL string, so the same statement
+ * is prepared only once per connection. Cached statements must not be closed
+ * by callers; they live as long as the connection.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class PooledConnection implements AutoCloseable {
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    // true while the connection sits idle in the pool; only its borrower changes it
+    boolean released = true;
+
+    PooledConnection(ConnectionPool pool, Connection connection) {
+        this.pool = pool;
+        this.connection = connection;
+    }
+
+    /**
+     * @return Underlying JDBC connection.
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns prepared statement for the SQL, preparing it on first use.
+     *
+     * @param sql SQL statement.
+     * @return Cached prepared statement with cleared parameters.
+     * @throws SQLException If the statement cannot be prepared.
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement pstmt = statements.get(sql);
+        if (pstmt == null) {
+            long start = pool.metrics.start();
+            pstmt = connection.prepareStatement(sql);
+            pool.metrics.stop(Metrics.Operation.PREPARE, start);
+            statements.put(sql, pstmt);
+        } else {
+            pstmt.clearParameters();
+        }
+        return pstmt;
+    }
+
+    /**
+     * Creates plain, non-cached statement. The caller is responsible for closing it.
+     *
+     * @return New statement.
+     * @throws SQLException If the statement cannot be created.
+     */
+    public Statement createStatement() throws SQLException {
+        return connection.createStatement();
+    }
+
+    /**
+     * Returns the connection to its pool. If a transaction was left open,
+     * it is rolled back first, so the next user gets a clean connection.
+     * Closing it again does nothing, so the connection cannot be handed
+     * to two borrowers at once.
+     */
+    @Override
+    public void close() {
+        if (released) {
+            return;
+        }
+        released = true;
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        pool.release(this);
+    }
+
+    void closeQuietly() {
+        for (PreparedStatement pstmt : statements.values()) {
+            try {
+                pstmt.close();
+            } catch (SQLException ignored) {
+            }
+        }
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package banking;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * SchemaMigrator brings the database schema up to date.
+ * Each migration has a version number; the version already applied to
+ * a database file is kept in SQLite's "user_version" header field.
+ * Only migrations newer than that version are run, in ascending order,
+ * each one in its own transaction.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class SchemaMigrator {
+
+    /**
+     * Single schema change.
+     */
+    @FunctionalInterface
+    public interface Migration {
+        void apply(Statement stmt) throws SQLException;
+    }
+
+    private static final class Step {
+        final int version;
+        final String description;
+        final Migration migration;
+
+        Step(int version, String description, Migration migration) {
+            this.version = version;
+            this.description = description;
+            this.migration = migration;
+        }
+    }
+
+    private final List<Step> steps = new ArrayList<>();
+
+    /**
+     * Registers a migration.
+     *
+     * @param version Version the schema has after this migration.
+     * @param description Short description of the change.
+     * @param migration The change itself.
+     * @return This migrator, for chaining.
+     */
+    public SchemaMigrator add(int version, String description, Migration migration) {
+        for (Step step : steps) {
+            if (step.version == version) {
+                throw new IllegalArgumentException("Duplicate schema version " + version);
+            }
+        }
+        steps.add(new Step(version, description, migration));
+        steps.sort(Comparator.comparingInt(s -> s.version));
+        return this;
+    }
+
+    /**
+     * @return The newest schema version known to this migrator.
+     */
+    public int latestVersion() {
+        return steps.isEmpty() ? 0 : steps.get(steps.size() - 1).version;
+    }
+
+    /**
+     * Reads schema version of the database.
+     *
+     * @param conn Database connection.
+     * @return Version stored in the database header.
+     * @throws SQLException If the version cannot be read.
+     */
+    public static int currentVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Applies all pending migrations.
+     *
+     * @param conn Database connection.
+     * @return Schema version after migrating.
+     * @throws SQLException If a migration fails. The failed migration is rolled back,
+     *                      migrations applied before it stay committed.
+     */
+    public int migrate(Connection conn) throws SQLException {
+        int version = currentVersion(conn);
+        boolean autoCommit = conn.getAutoCommit();
+        try {
+            for (Step step : steps) {
+                if (step.version <= version) {
+                    continue;
+                }
+                conn.setAutoCommit(false);
+                try (Statement stmt = conn.createStatement()) {
+                    step.migration.apply(stmt);
+                    // user_version is part of the database header, so it is updated atomically with the change
+                    stmt.execute("PRAGMA user_version = " + step.version);
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw new SQLException("Schema migration " + step.version
+                            + " (" + step.description + ") failed: " + e.getMessage(), e);
+                }
+                version = step.version;
+            }
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        return version;
+    }
+
+    /**
+     * Builds the migrator holding the full history of the card schema.
+     * New schema changes are added at the end, with the next version number.
+     *
+     * @return Migrator for the card database.
+     */
+    public static SchemaMigrator cardSchema() {
+        return new SchemaMigrator()
+                .add(1, "create card table", stmt -> stmt.execute(
+                        "CREATE TABLE IF NOT EXISTS card (\n" +
+                        "        id INTEGER PRIMARY KEY AUTOINCREMENT,\n" +
+                        "        number  TEXT,\n" +
+                        "        pin     TEXT,\n" +
+                        "        balance INTEGER DEFAULT 0\n" +
+                        "      );"))
+                .add(2, "unique index on card number", stmt -> {
+                    // older files may hold duplicated numbers; every copy holds someone's money,
+                    // so the migration stops until they are merged or renumbered by hand
+                    List<String> duplicates = new ArrayList<>();
+                    try (ResultSet rs = stmt.executeQuery("SELECT number, COUNT(*) FROM card "
+                            + "GROUP BY number HAVING COUNT(*) > 1 ORDER BY number")) {
+                        while (rs.next()) {
+                            duplicates.add(rs.getString(1) + " (" + rs.getInt(2) + " cards)");
+                        }
+                    }
+                    if (!duplicates.isEmpty()) {
+                        throw new SQLException("Card numbers used by more than one card: "
+                                + String.join(", ", duplicates));
+                    }
+                    stmt.execute("CREATE UNIQUE INDEX IF NOT EXISTS card_number_idx ON card(number)");
+                })
+                .add(3, "store PIN as fixed-width 4-digit text", stmt -> stmt.execute(
+                        "UPDATE card SET pin = substr('0000' || pin, -4, 4) "
+                        + "WHERE pin IS NOT NULL AND length(pin) < 4"))
+                .add(4, "card number issuer state", stmt -> {
+                    stmt.execute("CREATE TABLE IF NOT EXISTS card_issuer (\n" +
+                            "        id INTEGER PRIMARY KEY CHECK (id = 1),\n" +
+                            "        next_index INTEGER NOT NULL,\n" +
+                            "        permutation_key INTEGER NOT NULL\n" +
+                            "      );");
+                    stmt.execute("INSERT OR IGNORE INTO card_issuer(id, next_index, permutation_key) "
+                            + "VALUES (1, 0, random())");
+                })
+                .add(5, "transfer ledger", stmt -> {
+                    stmt.execute("CREATE TABLE IF NOT EXISTS transfer (\n" +
+                            "        id INTEGER PRIMARY KEY AUTOINCREMENT,\n" +
+                            "        from_number TEXT NOT NULL,\n" +
+                            "        to_number   TEXT NOT NULL,\n" +
+                            "        amount      INTEGER NOT NULL,\n" +
+                            "        created_at  INTEGER NOT NULL\n" +
+                            "      );");
+                    stmt.execute("CREATE INDEX IF NOT EXISTS transfer_from_idx ON transfer(from_number)");
+                    stmt.execute("CREATE INDEX IF NOT EXISTS transfer_to_idx ON transfer(to_number)");
+                })
+                .add(6, "PIN verifiers", stmt -> stmt.execute(
+                        // verifiers need the pepper, so CredentialStore.migrate() fills the table
+                        "CREATE TABLE IF NOT EXISTS card_credential (\n" +
+                        "        number   TEXT PRIMARY KEY,\n" +
+                        "        verifier BLOB NOT NULL\n" +
+                        "      );"))
+                .add(7, "balance as 64-bit minor units with currency", stmt -> {
+                    // the card table never declared a type for money; make every balance an exact integer
+                    stmt.execute("UPDATE card SET balance = CAST(COALESCE(balance, 0) AS INTEGER) "
+                            + "WHERE typeof(balance) <> 'integer'");
+                    stmt.execute("ALTER TABLE card ADD COLUMN currency TEXT NOT NULL DEFAULT '"
+                            + Money.DEFAULT_CURRENCY + "'");
+                })
+                .add(8, "balances in other currencies", stmt -> {
+                    // card.balance stays the balance in the card's own currency
+                    stmt.execute("CREATE TABLE IF NOT EXISTS card_balance (\n" +
+                            "        number   TEXT NOT NULL,\n" +
+                            "        currency TEXT NOT NULL,\n" +
+                            "        balance  INTEGER NOT NULL DEFAULT 0,\n" +
+                            "        PRIMARY KEY (number, currency)\n" +
+                            "      );");
+                    stmt.execute("ALTER TABLE transfer ADD COLUMN currency TEXT");
+                    stmt.execute("ALTER TABLE transfer ADD COLUMN credited_amount INTEGER");
+                    stmt.execute("ALTER TABLE transfer ADD COLUMN credited_currency TEXT");
+                })
+                .add(9, "shard layout and two-phase transfers", stmt -> {
+                    // only the first shard's file holds the layout, see ShardedDBManager
+                    stmt.execute("CREATE TABLE IF NOT EXISTS shard_bucket (\n" +
+                            "        bucket INTEGER PRIMARY KEY,\n" +
+                            "        shard  INTEGER NOT NULL\n" +
+                            "      );");
+                    stmt.execute("CREATE TABLE IF NOT EXISTS shard_move (\n" +
+                            "        bucket     INTEGER PRIMARY KEY,\n" +
+                            "        from_shard INTEGER NOT NULL,\n" +
+                            "        to_shard   INTEGER NOT NULL\n" +
+                            "      );");
+                    stmt.execute("CREATE TABLE IF NOT EXISTS transfer_pending (\n" +
+                            "        txid            TEXT PRIMARY KEY,\n" +
+                            "        from_number     TEXT NOT NULL,\n" +
+                            "        to_number       TEXT NOT NULL,\n" +
+                            "        amount          INTEGER NOT NULL,\n" +
+                            "        currency        TEXT NOT NULL,\n" +
+                            "        credited_amount INTEGER NOT NULL,\n" +
+                            "        created_at      INTEGER NOT NULL\n" +
+                            "      );");
+                    stmt.execute("ALTER TABLE transfer ADD COLUMN txid TEXT");
+                    stmt.execute("CREATE UNIQUE INDEX IF NOT EXISTS transfer_txid_idx ON transfer(txid)");
+                    stmt.execute("CREATE INDEX IF NOT EXISTS card_bucket_idx ON card("
+                            + ShardedDBManager.BUCKET_SQL + ")");
+                });
+    }
+}
@@ -0,0 +1,201 @@
+package banking;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * ServerSession is one client connection of {@link BankServer}.
+ * It holds the logged-in account and executes requests, one text line each:
+ * <ul>
+ *     <li>CREATE - opens account, replies "OK card pin"</li>
+ *     <li>LOGIN card pin - replies "OK", "ERR AUTH", or "ERR LOCKED" after too many failures</li>
+ *     <li>BALANCE [currency] - replies "OK balance"</li>
+ *     <li>INCOME amount [currency] - replies "OK balance"</li>
+ *     <li>TRANSFER card amount [currency] - replies "OK balance" or "ERR reason";
+ *         the recipient gets the amount converted to the currency of their card</li>
+ *     <li>CLOSE - closes the logged-in account</li>
+ *     <li>LOGOUT, PING, QUIT</li>
+ * </ul>
+ * Without a currency code, requests use the currency of the logged-in card.
+ * Requests of one session are executed in order, never two at a time;
+ * different sessions run in parallel on the server's worker threads.
+ * Responses are written in the order of the requests.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class ServerSession {
+    static final int MAX_LINE = 1024;
+    /** Most requests of one connection that may wait for their response before the server stops reading. */
+    static final int MAX_QUEUED = 256;
+
+    final SocketChannel channel;
+    final SelectionKey key;
+    final Queue<String> requests = new ConcurrentLinkedQueue<>();
+    final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+    final AtomicBoolean scheduled = new AtomicBoolean();
+    final StringBuilder partialLine = new StringBuilder();
+    /** Requests read but whose response is not yet written; used by the selector thread only. */
+    int outstanding;
+    volatile boolean closing;
+
+    private final BankingSystem bank;
+    private final String source;
+    private UserAccount user;
+
+    ServerSession(BankingSystem bank, SocketChannel channel, SelectionKey key) {
+        this.bank = bank;
+        this.channel = channel;
+        this.key = key;
+        this.source = sourceOf(channel);
+    }
+
+    /**
+     * @return Key the login throttle counts failures of this connection under: the client's address,
+     *         or, as the server listens on loopback where every client has the same address,
+     *         the address and port of this connection, so one client cannot lock out the others.
+     */
+    private static String sourceOf(SocketChannel channel) {
+        try {
+            SocketAddress address = channel.getRemoteAddress();
+            if (!(address instanceof InetSocketAddress)) {
+                return String.valueOf(address);
+            }
+            InetSocketAddress inet = (InetSocketAddress) address;
+            return inet.getAddress().isLoopbackAddress()
+                    ? inet.getAddress().getHostAddress() + ":" + inet.getPort() : inet.getAddress().getHostAddress();
+        } catch (IOException e) {
+            return "unknown@" + System.identityHashCode(channel);
+        }
+    }
+
+    /**
+     * Executes all queued requests. Called by one worker thread at a time.
+     */
+    void drain() {
+        String line;
+        while ((line = requests.poll()) != null) {
+            String response = handle(line.trim());
+            responses.add(ByteBuffer.wrap((response + "\n").getBytes(StandardCharsets.US_ASCII)));
+        }
+    }
+
+    /**
+     * Executes one request.
+     *
+     * @param line Request line without line terminator.
+     * @return Response line.
+     */
+    String handle(String line) {
+        String[] parts = line.split("\\s+");
+        String command = parts[0].toUpperCase();
+        try {
+            switch (command) {
+                case "PING":
+                    return "OK PONG";
+                case "CREATE": {
+                    UserAccount account = bank.openAccount();
+                    return "OK " + account.getCardNumber() + " " + DBManager.formatPIN(account.getPIN());
+                }
+                case "LOGIN": {
+                    expectArguments(parts, 2);
+                    if (bank.loginLocked(parts[1], source)) {
+                        return "ERR LOCKED";
+                    }
+                    UserAccount account = bank.authenticate(parts[1], Integer.parseInt(parts[2]), source);
+                    if (account == null) {
+                        return "ERR AUTH";
+                    }
+                    user = account;
+                    return "OK";
+                }
+                case "LOGOUT":
+                    user = null;
+                    return "OK";
+                case "QUIT":
+                    closing = true;
+                    return "OK BYE";
+                default:
+                    break;
+            }
+            if (user == null) {
+                return command.isEmpty() ? "ERR BAD_REQUEST" : knownAccountCommand(command)
+                        ? "ERR NOT_LOGGED_IN" : "ERR BAD_REQUEST unknown command";
+            }
+            switch (command) {
+                case "BALANCE":
+                    expectArguments(parts, 0, 1);
+                    return "OK " + user.getBalance(currency(parts, 1));
+                case "INCOME": {
+                    expectArguments(parts, 1, 2);
+                    long amount = Money.parse(parts[1]);
+                    if (amount <= 0) {
+                        return "ERR INVALID_AMOUNT";
+                    }
+                    try {
+                        return "OK " + bank.deposit(user, amount, currency(parts, 2));
+                    } catch (ArithmeticException e) {
+                        return "ERR BALANCE_OVERFLOW";
+                    }
+                }
+                case "TRANSFER": {
+                    expectArguments(parts, 2, 3);
+                    String currency = currency(parts, 3);
+                    TransferEngine.Result result = bank.transfer(user, currency, parts[1], Money.parse(parts[2]));
+                    return result == TransferEngine.Result.SUCCESS
+                            ? "OK " + user.getBalance(currency) : "ERR " + result;
+                }
+                case "CLOSE":
+                    bank.close(user);
+                    user = null;
+                    return "OK";
+                default:
+                    return "ERR BAD_REQUEST unknown command";
+            }
+        } catch (NumberFormatException e) {
+            return "ERR BAD_REQUEST invalid number";
+        } catch (IllegalArgumentException e) {
+            return "ERR BAD_REQUEST " + e.getMessage();
+        } catch (RuntimeException e) {
+            return "ERR FAILED";
+        }
+    }
+
+    private static boolean knownAccountCommand(String command) {
+        return command.equals("BALANCE") || command.equals("INCOME")
+                || command.equals("TRANSFER") || command.equals("CLOSE");
+    }
+
+    private static void expectArguments(String[] parts, int count) {
+        if (parts.length != count + 1) {
+            throw new IllegalArgumentException(parts[0].toUpperCase() + " expects " + count + " argument(s)");
+        }
+    }
+
+    private static void expectArguments(String[] parts, int min, int max) {
+        if (parts.length < min + 1 || parts.length > max + 1) {
+            throw new IllegalArgumentException(parts[0].toUpperCase() + " expects " + min + " to " + max
+                    + " argument(s)");
+        }
+    }
+
+    /**
+     * @return Currency code at the given position of the request, or the card's own currency if it is missing.
+     * @throws IllegalArgumentException If the code is not a known currency.
+     */
+    private String currency(String[] parts, int index) {
+        return parts.length > index ? Money.currency(parts[index]) : user.getCurrency();
+    }
+}
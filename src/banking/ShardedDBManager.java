@@ -0,0 +1,957 @@
+package banking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * ShardedDBManager splits the cards across several SQLite files ("shards").
+ * SQLite lets one connection write to a file at a time, so writes to different
+ * shards no longer wait for one another: each shard has its own {@link DBManager},
+ * with its own connection pool and, with "-groupCommit", its own writer thread.
+ *
+ * A card number hashes to one of {@link #BUCKETS} buckets, and the shard map says
+ * which shard holds each bucket. Shard 0 is the file given by "-fileName" and keeps
+ * the map; shard i is the same name followed by ".shard" and i. A new database is
+ * split into "-shards N" shards. Calls for one card go to its shard, queries over
+ * all cards ask every shard, and batches are split by shard. Card IDs are unique
+ * across shards: the ID within the shard times {@link #MAX_SHARDS}, plus the shard.
+ *
+ * A transfer between cards of two shards takes two phases: the sender's shard takes
+ * the money and records the transfer as pending, the recipient's shard credits it
+ * and writes the ledger entry. A refused transfer is settled at once: the sender's
+ * shard gives the money back and removes the pending record. Records of completed
+ * transfers are removed later, {@link #SETTLE_BATCH} in one transaction, so a completed
+ * transfer costs two commits. A transfer left pending by a crash, or by a failure
+ * after which the recipient's shard cannot say whether it credited the money, is
+ * settled when the database is opened again: it is complete if a shard has its
+ * ledger entry, otherwise the money is given back.
+ *
+ * {@link #reshard(int)} moves buckets to a new number of shards while the bank runs,
+ * one bucket at a time, and only calls for cards of the moving bucket wait for it.
+ * Ledger entries stay in the shard that wrote them; transfers left pending move with
+ * the sender's card, so a refund is always paid in the shard holding it.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class ShardedDBManager extends DBManager {
+    public static final int BUCKETS = 1024;
+    static final int MAX_SHARDS = 16;
+    static final int SETTLE_BATCH = 256;
+
+    /**
+     * Bucket of the card in the number column, computed the same way as {@link #bucket(String)}.
+     */
+    static final String BUCKET_SQL = bucketSql("number");
+
+    /**
+     * @param column Column holding card numbers.
+     * @return SQL expression for the bucket of the card in the column.
+     */
+    static String bucketSql(String column) {
+        return "(CASE WHEN length(" + column + ") = 16 "
+                + "THEN CAST(substr(" + column + ", 7, 9) AS INTEGER) * 2654435761 / 4194304 % 1024 ELSE 0 END)";
+    }
+
+    private final ReentrantReadWriteLock[] bucketLocks = new ReentrantReadWriteLock[BUCKETS];
+    // calls that touch many buckets hold it for reading, a bucket move holds it for writing
+    private final ReentrantReadWriteLock layoutLock = new ReentrantReadWriteLock();
+    private final int[] map = new int[BUCKETS];
+    private volatile DBManager[] shards = new DBManager[0];
+    private final List<ConcurrentLinkedQueue<String>> completed = new ArrayList<>();
+    private final AtomicInteger[] completedCounts = new AtomicInteger[MAX_SHARDS];
+    private String[] args;
+
+    public ShardedDBManager() {
+        for (int i = 0; i < BUCKETS; i++) {
+            bucketLocks[i] = new ReentrantReadWriteLock();
+        }
+        for (int i = 0; i < MAX_SHARDS; i++) {
+            completed.add(new ConcurrentLinkedQueue<>());
+            completedCounts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * @param args Program arguments.
+     * @return true if "-shards" or "-reshard" asks for a database split into shards.
+     */
+    static boolean isRequested(String[] args) {
+        return Arguments.has(args, "-shards") || Arguments.has(args, "-reshard");
+    }
+
+    /**
+     * Finds bucket of a card. The account identifier (digits 7 to 15) is multiplied
+     * by a large odd constant, so that consecutive numbers spread over all buckets.
+     *
+     * @param card Card number.
+     * @return The bucket, from 0 to {@link #BUCKETS} - 1.
+     */
+    public static int bucket(String card) {
+        if (card == null || card.length() != 16) {
+            return 0;
+        }
+        long account = 0;
+        for (int i = 6; i < 15; i++) {
+            char c = card.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            account = account * 10 + (c - '0');
+        }
+        return (int) ((account * 2654435761L >>> 22) & (BUCKETS - 1));
+    }
+
+    /**
+     * Opens shard 0, reads or creates the shard map, opens the other shards,
+     * then finishes bucket moves and transfers left by a crash.
+     * Every shard is opened with the settings of {@link DBManager#setup(String[])}.
+     *
+     * @param args Program arguments with database details.
+     */
+    @Override
+    public void setup(String[] args) {
+        if (ownsMetrics) {
+            metrics.close();
+        }
+        this.args = args;
+        readSettings(args);
+        // every shard caches its own cards
+        cardCache = null;
+        getFileName(args);
+        metrics = Metrics.fromArguments(args);
+        ownsMetrics = true;
+        DBManager first = openShard(0);
+        shards = new DBManager[]{first};
+        int requested = Math.max(1, Math.min(MAX_SHARDS, Arguments.getInt(args, "-shards", 1)));
+        if (first.selectShardMap(map) == 0) {
+            // cards of an existing database stay where they are until it is resharded
+            boolean empty = !first.hasCards();
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                map[bucket] = empty ? bucket % requested : 0;
+            }
+            first.saveShardMap(map);
+        }
+        List<int[]> moves = first.selectBucketMoves();
+        int count = 1;
+        for (int shard : map) {
+            count = Math.max(count, shard + 1);
+        }
+        for (int[] move : moves) {
+            count = Math.max(count, Math.max(move[1], move[2]) + 1);
+        }
+        openShards(count);
+        if (Arguments.has(args, "-shards") && requested != shardCount() && !Arguments.has(args, "-reshard")) {
+            System.out.println("Database has " + shardCount() + " shards, run with \"-reshard " + requested
+                    + "\" to change it");
+        }
+        recoverMoves(moves);
+        recoverTransfers();
+    }
+
+    private DBManager openShard(int shard) {
+        DBManager manager = new DBManager();
+        String name = db == null ? "" : db;
+        manager.open(args, shard == 0 || name.isEmpty() ? name : name + ".shard" + shard, metrics);
+        return manager;
+    }
+
+    /**
+     * Opens shards up to the given number; existing ones are kept.
+     */
+    private synchronized void openShards(int count) {
+        DBManager[] current = shards;
+        if (count <= current.length) {
+            return;
+        }
+        DBManager[] grown = Arrays.copyOf(current, count);
+        for (int shard = current.length; shard < count; shard++) {
+            grown[shard] = openShard(shard);
+        }
+        shards = grown;
+    }
+
+    /**
+     * @return Number of shards the shard map uses.
+     */
+    public int shardCount() {
+        int count = 1;
+        for (int shard : map) {
+            count = Math.max(count, shard + 1);
+        }
+        return count;
+    }
+
+    /**
+     * Deletes the copy of each interrupted bucket move that the shard map does not point to.
+     */
+    private void recoverMoves(List<int[]> moves) {
+        for (int[] move : moves) {
+            int bucket = move[0];
+            int stale = map[bucket] == move[2] ? move[1] : move[2];
+            if (shards[stale].deleteBucket(bucket)) {
+                shards[0].endBucketMove(bucket);
+            }
+        }
+    }
+
+    /**
+     * Settles transfers between shards that were left pending.
+     */
+    private void recoverTransfers() {
+        int settled = 0;
+        for (DBManager shard : shards) {
+            for (String txid : shard.selectPendingTransfers()) {
+                Boolean credited = false;
+                for (DBManager other : shards) {
+                    Boolean found = other.findTransfer(txid);
+                    if (found == null || found) {
+                        credited = found;
+                        break;
+                    }
+                }
+                if (credited == null) {
+                    // without knowing whether the recipient got the money, it is neither refunded nor forgotten
+                    System.out.println("Transfer " + txid + " stays pending");
+                } else if (shard.settleTransfer(txid, !credited)) {
+                    settled++;
+                }
+            }
+        }
+        if (settled > 0) {
+            System.out.println("Settled " + settled + " pending transfers");
+        }
+    }
+
+    /**
+     * Moves buckets so that the cards are spread over the given number of shards,
+     * opening new shard files as needed. Bucket b ends in shard b % count.
+     * Each bucket is copied to its new shard, the shard map is switched, and then
+     * it is deleted from the old shard; calls for its cards wait meanwhile.
+     * A move interrupted by a crash is undone or finished when the database is opened again.
+     *
+     * @param count Number of shards, at most {@link #MAX_SHARDS}.
+     * @return Number of buckets moved, or -1 if a move failed.
+     */
+    public synchronized int reshard(int count) {
+        count = Math.max(1, Math.min(MAX_SHARDS, count));
+        openShards(count);
+        long start = System.nanoTime();
+        int moved = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (map[bucket] != bucket % count) {
+                if (!moveBucket(bucket, bucket % count)) {
+                    System.out.println("Resharding stopped at bucket " + bucket);
+                    return -1;
+                }
+                moved++;
+            }
+        }
+        System.out.printf("Moved %d buckets to %d shards in %.2f s%n", moved, count,
+                (System.nanoTime() - start) / 1e9);
+        return moved;
+    }
+
+    private boolean moveBucket(int bucket, int to) {
+        DBManager[] all = shards;
+        int from = map[bucket];
+        DBManager source = all[from];
+        DBManager target = all[to];
+        Lock layout = layoutLock.writeLock();
+        Lock lock = bucketLocks[bucket].writeLock();
+        layout.lock();
+        lock.lock();
+        try {
+            if (!all[0].beginBucketMove(bucket, from, to)) {
+                return false;
+            }
+            // transfers of the bucket's cards that did complete need not move with it
+            forgetCompleted(from);
+            BucketCopy copy = new BucketCopy();
+            if (!target.deleteBucket(bucket) || source.exportBucket(bucket, copy) < 0 || !copy.writeTo(target)
+                    || !source.copyBucketTransfers(bucket, target) || !all[0].commitBucketMove(bucket, to)) {
+                if (target.deleteBucket(bucket)) {
+                    all[0].endBucketMove(bucket);
+                }
+                return false;
+            }
+            map[bucket] = to;
+            if (source.deleteBucket(bucket)) {
+                all[0].endBucketMove(bucket);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+            layout.unlock();
+        }
+    }
+
+    /**
+     * Rows of one bucket on their way to another shard.
+     */
+    private static final class BucketCopy implements SnapshotRowHandler {
+        final List<String> numbers = new ArrayList<>();
+        final List<String> pins = new ArrayList<>();
+        final List<Long> balances = new ArrayList<>();
+        final List<String> currencies = new ArrayList<>();
+        final List<byte[]> verifiers = new ArrayList<>();
+        final List<String> walletNumbers = new ArrayList<>();
+        final List<String> walletCurrencies = new ArrayList<>();
+        final List<Long> walletBalances = new ArrayList<>();
+
+        @Override
+        public void card(String number, String pin, long balance, String currency, byte[] verifier) {
+            numbers.add(number);
+            pins.add(pin);
+            balances.add(balance);
+            currencies.add(currency);
+            verifiers.add(verifier);
+        }
+
+        @Override
+        public void wallet(String number, String currency, long balance) {
+            walletNumbers.add(number);
+            walletCurrencies.add(currency);
+            walletBalances.add(balance);
+        }
+
+        boolean writeTo(DBManager target) {
+            int count = numbers.size();
+            if (count > 0 && !target.restoreCards(numbers.toArray(new String[0]), pins.toArray(new String[0]),
+                    toLongs(balances), currencies.toArray(new String[0]), verifiers.toArray(new byte[0][]), count)) {
+                return false;
+            }
+            int wallets = walletNumbers.size();
+            return wallets == 0 || target.restoreWallets(walletNumbers.toArray(new String[0]),
+                    walletCurrencies.toArray(new String[0]), toLongs(walletBalances), wallets);
+        }
+    }
+
+    private static long[] toLongs(List<Long> values) {
+        long[] longs = new long[values.size()];
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = values.get(i);
+        }
+        return longs;
+    }
+
+    /**
+     * Calls the shard of a card, holding the card's bucket so that it does not move meanwhile.
+     */
+    private <T> T route(String card, Function<DBManager, T> call) {
+        int bucket = bucket(card);
+        Lock lock = bucketLocks[bucket].readLock();
+        lock.lock();
+        try {
+            return call.apply(shards[map[bucket]]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int shardOf(String card) {
+        return map[bucket(card)];
+    }
+
+    private static int globalId(int id, int shard) {
+        return id > 0 ? id * MAX_SHARDS + shard : id;
+    }
+
+    /**
+     * Finds the shard of a global card ID.
+     *
+     * @return The shard, or null if there is no such shard.
+     */
+    private DBManager shardOfId(int id) {
+        DBManager[] all = shards;
+        int shard = id % MAX_SHARDS;
+        return id > 0 && shard < all.length ? all[shard] : null;
+    }
+
+    /**
+     * Closes every shard and stops publishing metrics.
+     */
+    @Override
+    public void close() {
+        DBManager[] all = shards;
+        for (int shard = 0; shard < all.length; shard++) {
+            forgetCompleted(shard);
+        }
+        for (DBManager shard : all) {
+            shard.close();
+        }
+        if (ownsMetrics) {
+            metrics.close();
+        }
+    }
+
+    /**
+     * Applies pending schema migrations to every shard.
+     */
+    @Override
+    public void createNewTable(String db) {
+        for (DBManager shard : shards) {
+            shard.createNewTable(shard.db);
+        }
+    }
+
+    /**
+     * Not used: IDs of cards change when their bucket moves, so lookups always ask the shard.
+     */
+    @Override
+    public void setCardIndex(CompactCardIndex cardIndex) {
+    }
+
+    @Override
+    public int selectIDByCard(String card) {
+        int bucket = bucket(card);
+        Lock lock = bucketLocks[bucket].readLock();
+        lock.lock();
+        try {
+            int shard = map[bucket];
+            return globalId(shards[shard].selectIDByCard(card), shard);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long selectBalanceByCard(String card) {
+        return route(card, shard -> shard.selectBalanceByCard(card));
+    }
+
+    @Override
+    public String selectCurrencyByCard(String card) {
+        return route(card, shard -> shard.selectCurrencyByCard(card));
+    }
+
+    @Override
+    public byte[] selectCredential(String card) {
+        return route(card, shard -> shard.selectCredential(card));
+    }
+
+    @Override
+    boolean hasCredentials() {
+        for (DBManager shard : shards) {
+            if (shard.hasCredentials()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public InsertResult insertCard(String number, int pin, long balance, byte[] verifier) {
+        return route(number, shard -> shard.insertCard(number, pin, balance, verifier));
+    }
+
+    @Override
+    public boolean credit(String card, long amount) {
+        return route(card, shard -> shard.credit(card, amount));
+    }
+
+    @Override
+    public boolean creditWallet(String card, String currency, long amount) {
+        return route(card, shard -> shard.creditWallet(card, currency, amount));
+    }
+
+    @Override
+    public void deleteCard(String card) {
+        route(card, shard -> {
+            shard.deleteCard(card);
+            return null;
+        });
+    }
+
+    @Override
+    public void update(int id, long newBalance) {
+        Lock lock = layoutLock.readLock();
+        lock.lock();
+        try {
+            DBManager shard = shardOfId(id);
+            if (shard != null) {
+                shard.update(id / MAX_SHARDS, newBalance);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(int id) {
+        Lock lock = layoutLock.readLock();
+        lock.lock();
+        try {
+            DBManager shard = shardOfId(id);
+            if (shard != null) {
+                shard.delete(id / MAX_SHARDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves money between two cards. Within one shard this is a single transaction,
+     * see {@link DBManager#transfer(String, String, String, String, long, long)};
+     * between shards it takes two phases, see the class description.
+     */
+    @Override
+    public TransferEngine.Result transfer(String from, String fromCurrency, String to, String toCurrency,
+                                          long amount, long credited) {
+        int first = Math.min(bucket(from), bucket(to));
+        int second = Math.max(bucket(from), bucket(to));
+        // buckets are always locked in ascending order, so two transfers cannot wait for each other
+        Lock firstLock = bucketLocks[first].readLock();
+        Lock secondLock = bucketLocks[second].readLock();
+        firstLock.lock();
+        if (second != first) {
+            secondLock.lock();
+        }
+        try {
+            return transferBetween(from, fromCurrency, to, toCurrency, amount, credited);
+        } finally {
+            if (second != first) {
+                secondLock.unlock();
+            }
+            firstLock.unlock();
+        }
+    }
+
+    /**
+     * Moves money between two cards whose buckets cannot move meanwhile.
+     */
+    private TransferEngine.Result transferBetween(String from, String fromCurrency, String to, String toCurrency,
+                                                  long amount, long credited) {
+        int senderShard = shardOf(from);
+        DBManager sender = shards[senderShard];
+        DBManager recipient = shards[shardOf(to)];
+        if (sender == recipient) {
+            return sender.transfer(from, fromCurrency, to, toCurrency, amount, credited);
+        }
+        long start = metrics.start();
+        try {
+            String txid = UUID.randomUUID().toString();
+            TransferEngine.Result result = sender.prepareTransfer(txid, from, fromCurrency, to, amount, credited);
+            if (result != TransferEngine.Result.SUCCESS) {
+                return result;
+            }
+            result = recipient.completeTransfer(txid, from, fromCurrency, to, toCurrency, amount, credited);
+            if (result == TransferEngine.Result.FAILED) {
+                // the credit may have been committed although the call failed
+                Boolean done = recipient.findTransfer(txid);
+                if (done == null) {
+                    // refunding now could pay twice; the transfer stays pending until the database is opened again
+                    return TransferEngine.Result.FAILED;
+                }
+                result = done ? TransferEngine.Result.SUCCESS : TransferEngine.Result.FAILED;
+            }
+            // a transfer that cannot be settled now stays pending until the database is opened again
+            if (result != TransferEngine.Result.SUCCESS) {
+                sender.settleTransfer(txid, true);
+            } else {
+                completed.get(senderShard).add(txid);
+                if (completedCounts[senderShard].incrementAndGet() >= SETTLE_BATCH) {
+                    forgetCompleted(senderShard);
+                }
+            }
+            return result;
+        } finally {
+            metrics.stop(Metrics.Operation.TRANSFER, start);
+        }
+    }
+
+    /**
+     * Removes pending records of completed transfers the shard prepared.
+     */
+    private void forgetCompleted(int shard) {
+        List<String> txids = new ArrayList<>();
+        for (String txid = completed.get(shard).poll(); txid != null; txid = completed.get(shard).poll()) {
+            txids.add(txid);
+        }
+        completedCounts[shard].addAndGet(-txids.size());
+        if (!txids.isEmpty()) {
+            shards[shard].forgetTransfers(txids);
+        }
+    }
+
+    @Override
+    public int selectAllCards(CardRowHandler handler) {
+        Lock lock = layoutLock.readLock();
+        lock.lock();
+        try {
+            DBManager[] all = shards;
+            int count = 0;
+            for (int s = 0; s < all.length; s++) {
+                int shard = s;
+                count += all[s].selectAllCards((id, number, pin, balance, currency) ->
+                        handler.accept(globalId(id, shard), number, pin, balance, currency));
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int selectWallets(WalletRowHandler handler) {
+        Lock lock = layoutLock.readLock();
+        lock.lock();
+        try {
+            int count = 0;
+            for (DBManager shard : shards) {
+                count += shard.selectWallets(handler);
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int selectCardsWithoutCredential(CardRowHandler handler) {
+        Lock lock = layoutLock.readLock();
+        lock.lock();
+        try {
+            DBManager[] all = shards;
+            int count = 0;
+            for (int s = 0; s < all.length; s++) {
+                int shard = s;
+                count += all[s].selectCardsWithoutCredential((id, number, pin, balance, currency) ->
+                        handler.accept(globalId(id, shard), number, pin, balance, currency));
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads every shard, each from a consistent snapshot of its own; the cards
+     * of each shard are followed by its balances in other currencies.
+     */
+    @Override
+    public int exportSnapshot(SnapshotRowHandler handler) {
+        Lock lock = layoutLock.readLock();
+        lock.lock();
+        try {
+            int count = 0;
+            for (DBManager shard : shards) {
+                int read = shard.exportSnapshot(handler);
+                if (read < 0) {
+                    return -1;
+                }
+                count += read;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int scrubPins() {
+        int count = 0;
+        for (DBManager shard : shards) {
+            count += shard.scrubPins();
+        }
+        return count;
+    }
+
+    @Override
+    public boolean checkpoint() {
+        boolean done = true;
+        for (DBManager shard : shards) {
+            done &= shard.checkpoint();
+        }
+        return done;
+    }
+
+    @Override
+    public long reserveCardIndexes(int count) {
+        return shards[0].reserveCardIndexes(count);
+    }
+
+    @Override
+    public long selectPermutationKey() {
+        return shards[0].selectPermutationKey();
+    }
+
+    /**
+     * Splits indexes of array elements by the shard of their card.
+     *
+     * @param count How many elements to split.
+     * @param card Card number of an element.
+     * @return Indexes of the elements of each shard, in their original order.
+     */
+    private int[][] partition(int count, Function<Integer, String> card) {
+        int[] sizes = new int[shards.length];
+        int[] shardOf = new int[count];
+        for (int i = 0; i < count; i++) {
+            shardOf[i] = shardOf(card.apply(i));
+            sizes[shardOf[i]]++;
+        }
+        int[][] parts = new int[sizes.length][];
+        for (int s = 0; s < sizes.length; s++) {
+            parts[s] = new int[sizes[s]];
+            sizes[s] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            parts[shardOf[i]][sizes[shardOf[i]]++] = i;
+        }
+        return parts;
+    }
+
+    @Override
+    public int insertBatch(String[] numbers, int[] pins, byte[][] verifiers, int count, boolean[] inserted) {
+        Lock lock = layoutLock.readLock();
+        lock.lock();
+        try {
+            int[][] parts = partition(count, i -> numbers[i]);
+            int total = 0;
+            for (int s = 0; s < parts.length; s++) {
+                int[] part = parts[s];
+                if (part.length == 0) {
+                    continue;
+                }
+                String[] shardNumbers = new String[part.length];
+                int[] shardPins = new int[part.length];
+                byte[][] shardVerifiers = new byte[part.length][];
+                for (int i = 0; i < part.length; i++) {
+                    shardNumbers[i] = numbers[part[i]];
+                    shardPins[i] = pins[part[i]];
+                    shardVerifiers[i] = verifiers[part[i]];
+                }
+                boolean[] shardInserted = inserted != null ? new boolean[part.length] : null;
+                total += shards[s].insertBatch(shardNumbers, shardPins, shardVerifiers, part.length, shardInserted);
+                if (inserted != null) {
+                    for (int i = 0; i < part.length; i++) {
+                        inserted[part[i]] = shardInserted[i];
+                    }
+                }
+            }
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean restoreCards(String[] numbers, String[] pins, long[] balances, String[] currencies,
+                                byte[][] verifiers, int count) {
+        Lock lock = layoutLock.readLock();
+        lock.lock();
+        try {
+            int[][] parts = partition(count, i -> numbers[i]);
+            boolean restored = true;
+            for (int s = 0; s < parts.length; s++) {
+                int[] part = parts[s];
+                if (part.length == 0) {
+                    continue;
+                }
+                String[] shardNumbers = new String[part.length];
+                String[] shardPins = new String[part.length];
+                long[] shardBalances = new long[part.length];
+                String[] shardCurrencies = new String[part.length];
+                byte[][] shardVerifiers = new byte[part.length][];
+                for (int i = 0; i < part.length; i++) {
+                    shardNumbers[i] = numbers[part[i]];
+                    shardPins[i] = pins[part[i]];
+                    shardBalances[i] = balances[part[i]];
+                    shardCurrencies[i] = currencies[part[i]];
+                    shardVerifiers[i] = verifiers[part[i]];
+                }
+                restored &= shards[s].restoreCards(shardNumbers, shardPins, shardBalances, shardCurrencies,
+                        shardVerifiers, part.length);
+            }
+            return restored;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean restoreWallets(String[] numbers, String[] currencies, long[] balances, int count) {
+        Lock lock = layoutLock.readLock();
+        lock.lock();
+        try {
+            int[][] parts = partition(count, i -> numbers[i]);
+            boolean restored = true;
+            for (int s = 0; s < parts.length; s++) {
+                int[] part = parts[s];
+                if (part.length == 0) {
+                    continue;
+                }
+                String[] shardNumbers = new String[part.length];
+                String[] shardCurrencies = new String[part.length];
+                long[] shardBalances = new long[part.length];
+                for (int i = 0; i < part.length; i++) {
+                    shardNumbers[i] = numbers[part[i]];
+                    shardCurrencies[i] = currencies[part[i]];
+                    shardBalances[i] = balances[part[i]];
+                }
+                restored &= shards[s].restoreWallets(shardNumbers, shardCurrencies, shardBalances, part.length);
+            }
+            return restored;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies the mutations of each shard in one transaction of that shard.
+     * Mutations carry the balance after them, so replaying all of them again is safe
+     * when only some shards committed.
+     */
+    @Override
+    public boolean applyMutations(byte[] types, long[] cards, int[] codes, long[] amounts, long[] balances,
+                                  byte[][] verifiers, int count) {
+        Lock lock = layoutLock.readLock();
+        lock.lock();
+        try {
+            int[][] parts = partition(count, i -> CardNumberIssuer.format(cards[i]));
+            boolean applied = true;
+            for (int s = 0; s < parts.length; s++) {
+                int[] part = parts[s];
+                if (part.length == 0) {
+                    continue;
+                }
+                byte[] shardTypes = new byte[part.length];
+                long[] shardCards = new long[part.length];
+                int[] shardCodes = new int[part.length];
+                long[] shardAmounts = new long[part.length];
+                long[] shardBalances = new long[part.length];
+                byte[][] shardVerifiers = new byte[part.length][];
+                for (int i = 0; i < part.length; i++) {
+                    shardTypes[i] = types[part[i]];
+                    shardCards[i] = cards[part[i]];
+                    shardCodes[i] = codes[part[i]];
+                    shardAmounts[i] = amounts[part[i]];
+                    shardBalances[i] = balances[part[i]];
+                    shardVerifiers[i] = verifiers[part[i]];
+                }
+                applied &= shards[s].applyMutations(shardTypes, shardCards, shardCodes, shardAmounts, shardBalances,
+                        shardVerifiers, part.length);
+            }
+            return applied;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int updateBalances(Map<String, Long> balances) {
+        Lock lock = layoutLock.readLock();
+        lock.lock();
+        try {
+            List<Map<String, Long>> parts = new ArrayList<>();
+            for (int s = 0; s < shards.length; s++) {
+                parts.add(new HashMap<>());
+            }
+            for (Map.Entry<String, Long> entry : balances.entrySet()) {
+                parts.get(shardOf(entry.getKey())).put(entry.getKey(), entry.getValue());
+            }
+            int updated = 0;
+            for (int s = 0; s < parts.size(); s++) {
+                if (parts.get(s).isEmpty()) {
+                    continue;
+                }
+                int count = shards[s].updateBalances(parts.get(s));
+                if (count < 0) {
+                    return -1;
+                }
+                updated += count;
+            }
+            return updated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean insertCredentials(List<String> cards, List<byte[]> verifiers) {
+        Lock lock = layoutLock.readLock();
+        lock.lock();
+        try {
+            int[][] parts = partition(cards.size(), cards::get);
+            boolean inserted = true;
+            for (int s = 0; s < parts.length; s++) {
+                if (parts[s].length == 0) {
+                    continue;
+                }
+                List<String> shardCards = new ArrayList<>(parts[s].length);
+                List<byte[]> shardVerifiers = new ArrayList<>(parts[s].length);
+                for (int i : parts[s]) {
+                    shardCards.add(cards.get(i));
+                    shardVerifiers.add(verifiers.get(i));
+                }
+                inserted &= shards[s].insertCredentials(shardCards, shardVerifiers);
+            }
+            return inserted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies records whose cards share a shard in one transaction of that shard, and
+     * each transfer between shards in two phases. Records are applied in their order;
+     * records of a shard whose transaction failed get the FAILED reason.
+     */
+    @Override
+    public boolean applyStatements(List<StatementImport.Entry> entries) {
+        Lock lock = layoutLock.readLock();
+        lock.lock();
+        try {
+            List<List<StatementImport.Entry>> groups = new ArrayList<>();
+            for (int s = 0; s < shards.length; s++) {
+                groups.add(new ArrayList<>());
+            }
+            for (StatementImport.Entry entry : entries) {
+                int from = shardOf(entry.card);
+                if (entry.counterparty == null || shardOf(entry.counterparty) == from) {
+                    groups.get(from).add(entry);
+                    continue;
+                }
+                // records before this transfer go first, in case they change the same balances
+                applyGroups(groups);
+                TransferEngine.Result result = transferBetween(entry.card,
+                        shards[from].selectCurrencyByCard(entry.card), entry.counterparty,
+                        shards[shardOf(entry.counterparty)].selectCurrencyByCard(entry.counterparty),
+                        entry.amount, entry.credited);
+                if (result != TransferEngine.Result.SUCCESS) {
+                    entry.reason = result.name();
+                }
+            }
+            applyGroups(groups);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void applyGroups(List<List<StatementImport.Entry>> groups) {
+        for (int s = 0; s < groups.size(); s++) {
+            List<StatementImport.Entry> group = groups.get(s);
+            if (!group.isEmpty() && !shards[s].applyStatements(group)) {
+                for (StatementImport.Entry entry : group) {
+                    entry.reason = TransferEngine.Result.FAILED.name();
+                }
+            }
+            group.clear();
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package banking;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * StatementImport applies a settlement file of incomes and transfers.
+ * Each line of the file is one record: "card,amount,type,counterparty",
+ * where type is INCOME or TRANSFER, amount is in minor units of the card's
+ * currency, and counterparty is the recipient's card (empty for incomes).
+ * A first line starting with "card" is a header and is skipped.
+ *
+ * The file is read line by line; records go to a fixed number of partitions
+ * by card number, each with a bounded queue and its own worker thread, so
+ * memory use does not depend on the size of the file. A transfer whose
+ * recipient belongs to another partition is queued in both partitions: the
+ * recipient's worker applies the records queued before it and waits, then the
+ * sender's worker applies the transfer. So every card sees its records,
+ * including transfers it receives, in the order of the file, and the result
+ * does not depend on thread timing. A worker writes its records to the
+ * database in batches, one transaction per batch (see
+ * {@link DBManager#applyStatements(List)}). Records that are malformed or
+ * cannot be applied are written to a reject file with their line number and
+ * the reason; the rest of the batch is applied anyway.
+ *
+ * The import runs instead of the console, so no session changes balances meanwhile.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class StatementImport {
+    static final int DEFAULT_BATCH_SIZE = 1_000;
+    static final int QUEUE_SIZE = 4_096;
+
+    /**
+     * Kind of a record.
+     */
+    enum Type {
+        INCOME,
+        TRANSFER
+    }
+
+    /**
+     * One record of the file. Workers fill in the amount a transfer converts to
+     * and, if the record cannot be applied, the reason.
+     */
+    static final class Entry {
+        final long line;
+        final String text;
+        final String card;
+        final long amount;
+        final Type type;
+        final String counterparty;
+        long credited;
+        String reason;
+        // set on transfers between two partitions, see StatementImport#handOver(Entry, int, List)
+        CountDownLatch recipientReady;
+        CountDownLatch applied;
+
+        Entry(long line, String text, String card, long amount, Type type, String counterparty) {
+            this.line = line;
+            this.text = text;
+            this.card = card;
+            this.amount = amount;
+            this.type = type;
+            this.counterparty = counterparty;
+        }
+    }
+
+    private static final Entry END = new Entry(0, "", "", 0, Type.INCOME, null);
+
+    private final AccountRegistry registry;
+    private final DBManager dbManager;
+    private final FxRateTable rates;
+    private final int partitions;
+    private final int batchSize;
+    private final LongAdder incomes = new LongAdder();
+    private final LongAdder transfers = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private BufferedWriter rejects;
+
+    /**
+     * Creates import.
+     *
+     * @param registry Accounts held in memory; their balances are updated with the database.
+     * @param dbManager Database the records are written to.
+     * @param rates Exchange rates for transfers to cards in other currencies.
+     * @param partitions Number of partitions, each applied by one thread.
+     * @param batchSize Number of records written in one transaction.
+     */
+    public StatementImport(AccountRegistry registry, DBManager dbManager, FxRateTable rates,
+                           int partitions, int batchSize) {
+        this.registry = registry;
+        this.dbManager = dbManager;
+        this.rates = rates;
+        this.partitions = Math.max(1, partitions);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Imports the file given by "-import". Rejected records go to the file given
+     * by "-importRejects" (the input file name with ".rejects" appended by default).
+     * "-importThreads" sets the number of partitions, "-importBatch" the number
+     * of records per transaction.
+     *
+     * @param bank The bank.
+     * @param args Program arguments.
+     * @return Number of records applied.
+     */
+    public static long run(BankingSystem bank, String[] args) {
+        String input = Arguments.get(args, "-import");
+        String rejects = Arguments.get(args, "-importRejects");
+        StatementImport statementImport = new StatementImport(bank.registry, BankingSystem.dbManager, bank.fxRates,
+                Arguments.getInt(args, "-importThreads", Runtime.getRuntime().availableProcessors()),
+                Arguments.getInt(args, "-importBatch", DEFAULT_BATCH_SIZE));
+        try {
+            return statementImport.run(Paths.get(input), Paths.get(rejects != null ? rejects : input + ".rejects"));
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return 0;
+        } finally {
+            if (bank.journal != null) {
+                // imported records are not journaled; a checkpoint makes them durable
+                bank.journal.checkpoint();
+            }
+        }
+    }
+
+    /**
+     * Imports a file and prints how many records were applied and how fast.
+     *
+     * @param input The file.
+     * @param rejectFile File rejected records are written to.
+     * @return Number of records applied.
+     * @throws IOException If a file cannot be read or written.
+     */
+    public long run(Path input, Path rejectFile) throws IOException {
+        long start = System.nanoTime();
+        List<BlockingQueue<Entry>> queues = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        long lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+             BufferedWriter writer = Files.newBufferedWriter(rejectFile, StandardCharsets.UTF_8)) {
+            rejects = writer;
+            for (int i = 0; i < partitions; i++) {
+                BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+                int partition = i;
+                Thread worker = new Thread(() -> work(queue, partition), "statement-import-" + i);
+                queues.add(queue);
+                workers.add(worker);
+                worker.start();
+            }
+            try {
+                String text;
+                while ((text = reader.readLine()) != null) {
+                    lines++;
+                    if (text.isBlank() || lines == 1 && text.trim().toLowerCase().startsWith("card")) {
+                        continue;
+                    }
+                    Entry entry = parse(lines, text);
+                    if (entry.reason != null) {
+                        reject(entry);
+                    } else {
+                        int sender = partition(entry.card, partitions);
+                        if (entry.type == Type.TRANSFER) {
+                            int recipient = partition(entry.counterparty, partitions);
+                            if (recipient != sender) {
+                                entry.recipientReady = new CountDownLatch(1);
+                                entry.applied = new CountDownLatch(1);
+                                queues.get(recipient).put(entry);
+                            }
+                        }
+                        queues.get(sender).put(entry);
+                    }
+                }
+            } finally {
+                for (BlockingQueue<Entry> queue : queues) {
+                    putUninterruptibly(queue, END);
+                }
+                for (Thread worker : workers) {
+                    joinUninterruptibly(worker);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            rejects = null;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long applied = incomes.sum() + transfers.sum();
+        System.out.printf("Imported %d of %d records (%d incomes, %d transfers, %d rejected) in %.2f s (%.0f records/s)%n",
+                applied, applied + rejected.sum(), incomes.sum(), transfers.sum(), rejected.sum(),
+                seconds, (applied + rejected.sum()) / Math.max(seconds, 1e-9));
+        if (rejected.sum() > 0) {
+            System.out.println("Rejected records are in " + rejectFile);
+        }
+        return applied;
+    }
+
+    /**
+     * Parses and checks one line of the file.
+     *
+     * @param line Line number.
+     * @param text The line.
+     * @return The record; its reason is set if the line is not a valid record.
+     */
+    static Entry parse(long line, String text) {
+        String[] fields = text.split(",", -1);
+        if (fields.length < 3 || fields.length > 4) {
+            return rejected(line, text, "MALFORMED");
+        }
+        String card = fields[0].trim();
+        long amount = Money.parse(fields[1].trim());
+        String counterparty = fields.length == 4 ? fields[3].trim() : "";
+        Type type;
+        try {
+            type = Type.valueOf(fields[2].trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return rejected(line, text, "UNKNOWN_TYPE");
+        }
+        Entry entry = new Entry(line, text, card, amount, type, counterparty.isEmpty() ? null : counterparty);
+        if (!Luhn.isValid(card)) {
+            entry.reason = TransferEngine.Result.INVALID_CARD_NUMBER.name();
+        } else if (amount <= 0) {
+            entry.reason = TransferEngine.Result.INVALID_AMOUNT.name();
+        } else if (type == Type.TRANSFER && (counterparty.isEmpty() || !Luhn.isValid(counterparty))) {
+            entry.reason = "INVALID_COUNTERPARTY";
+        } else if (type == Type.TRANSFER && counterparty.equals(card)) {
+            entry.reason = TransferEngine.Result.SAME_ACCOUNT.name();
+        }
+        return entry;
+    }
+
+    private static Entry rejected(long line, String text, String reason) {
+        Entry entry = new Entry(line, text, null, 0, null, null);
+        entry.reason = reason;
+        return entry;
+    }
+
+    static int partition(String card, int partitions) {
+        int h = card.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), partitions);
+    }
+
+    private void work(BlockingQueue<Entry> queue, int partition) {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        List<Entry> records = new ArrayList<>(batchSize);
+        boolean done = false;
+        while (!done) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(batch, batchSize - batch.size());
+            for (Entry entry : batch) {
+                if (entry == END) {
+                    // END is always the last record of a queue
+                    done = true;
+                } else if (entry.applied == null) {
+                    records.add(entry);
+                } else {
+                    handOver(entry, partition, records);
+                }
+            }
+            applySafely(records);
+            records.clear();
+            batch.clear();
+        }
+    }
+
+    /**
+     * Applies a transfer between cards of two partitions, once the workers of
+     * both partitions have applied every record queued before it.
+     * The sender's worker writes the transfer in one transaction with its own
+     * earlier records; the recipient's worker waits until it is applied.
+     *
+     * @param entry The transfer, queued in both partitions.
+     * @param partition Partition of the calling worker.
+     * @param records Records of the calling worker not yet applied; emptied.
+     */
+    private void handOver(Entry entry, int partition, List<Entry> records) {
+        if (partition(entry.card, partitions) == partition) {
+            awaitUninterruptibly(entry.recipientReady);
+            records.add(entry);
+            try {
+                applySafely(records);
+            } finally {
+                records.clear();
+                entry.applied.countDown();
+            }
+        } else {
+            applySafely(records);
+            records.clear();
+            entry.recipientReady.countDown();
+            awaitUninterruptibly(entry.applied);
+        }
+    }
+
+    private void applySafely(List<Entry> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        try {
+            apply(records);
+        } catch (RuntimeException e) {
+            // the worker keeps going, or the reader would wait for its queue forever
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Applies a batch of records of one partition: checks them against the
+     * accounts in memory, writes them to the database in one transaction,
+     * then updates the balances in memory.
+     */
+    private void apply(List<Entry> batch) {
+        FxRates snapshot = rates.current();
+        List<Entry> pending = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            UserAccount from = registry.get(entry.card);
+            if (from == null) {
+                entry.reason = entry.type == Type.INCOME ? "NO_SUCH_CARD" : TransferEngine.Result.NO_SUCH_SENDER.name();
+            } else if (entry.type == Type.TRANSFER) {
+                UserAccount to = registry.get(entry.counterparty);
+                if (to == null) {
+                    entry.reason = TransferEngine.Result.NO_SUCH_RECIPIENT.name();
+                } else {
+                    convert(entry, snapshot, from.getCurrency(), to.getCurrency());
+                }
+            }
+            if (entry.reason == null) {
+                pending.add(entry);
+            } else {
+                reject(entry);
+            }
+        }
+        if (!pending.isEmpty() && !dbManager.applyStatements(pending)) {
+            for (Entry entry : pending) {
+                entry.reason = TransferEngine.Result.FAILED.name();
+            }
+        }
+        for (Entry entry : pending) {
+            if (entry.reason != null) {
+                reject(entry);
+                continue;
+            }
+            UserAccount from = registry.get(entry.card);
+            if (entry.type == Type.INCOME) {
+                from.addToBalance(entry.amount);
+                incomes.increment();
+            } else {
+                from.addToBalance(-entry.amount);
+                UserAccount to = registry.get(entry.counterparty);
+                to.addToBalance(entry.credited);
+                registry.balanceChanged(to);
+                transfers.increment();
+            }
+            registry.balanceChanged(from);
+        }
+    }
+
+    private static void convert(Entry entry, FxRates snapshot, String from, String to) {
+        try {
+            entry.credited = snapshot.convert(entry.amount, from, to);
+            if (entry.credited < 0) {
+                entry.reason = TransferEngine.Result.NO_EXCHANGE_RATE.name();
+            } else if (entry.credited == 0) {
+                entry.reason = TransferEngine.Result.INVALID_AMOUNT.name();
+            }
+        } catch (ArithmeticException e) {
+            entry.reason = TransferEngine.Result.BALANCE_OVERFLOW.name();
+        }
+    }
+
+    private void reject(Entry entry) {
+        rejected.increment();
+        synchronized (this) {
+            try {
+                rejects.write(entry.line + "," + entry.reason + "," + entry.text);
+                rejects.newLine();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    private static void putUninterruptibly(BlockingQueue<Entry> queue, Entry entry) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(entry);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (latch.getCount() > 0) {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
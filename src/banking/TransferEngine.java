@@ -0,0 +1,159 @@
+package banking;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * TransferEngine moves money between two cards.
+ * Both balances and the transfer ledger are changed in one database transaction
+ * (see {@link DBManager#transfer(String, String, String, String, long, long)}), so a transfer is either
+ * fully applied or not at all. Inside the program, each card maps to one of
+ * a fixed set of locks; a transfer takes the locks of both cards in ascending
+ * order, so two transfers can never wait for each other in a cycle.
+ *
+ * Money may be sent from any currency the sender holds; the recipient gets it
+ * in the currency of their card, converted with one snapshot of the FX rates
+ * (see {@link FxRateTable}), so a rate reload never blocks a transfer.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class TransferEngine {
+    private static final int STRIPES = 256;
+
+    /**
+     * Outcome of a transfer.
+     */
+    public enum Result {
+        SUCCESS,
+        INVALID_AMOUNT,
+        INVALID_CARD_NUMBER,
+        SAME_ACCOUNT,
+        NOT_ENOUGH_MONEY,
+        NO_SUCH_SENDER,
+        NO_SUCH_RECIPIENT,
+        BALANCE_OVERFLOW,
+        NO_EXCHANGE_RATE,
+        FAILED
+    }
+
+    private final DBManager dbManager;
+    private final Function<String, UserAccount> accounts;
+    private final FxRateTable rates;
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    /**
+     * Creates transfer engine.
+     *
+     * @param dbManager Database the transfers are written to.
+     * @param accounts Lookup of accounts held in memory by card number;
+     *                 returns null for accounts that are not loaded.
+     * @param rates Exchange rates for transfers between cards in different currencies.
+     */
+    public TransferEngine(DBManager dbManager, Function<String, UserAccount> accounts, FxRateTable rates) {
+        this.dbManager = dbManager;
+        this.accounts = accounts;
+        this.rates = rates;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Transfers money from one card to another, in the sender's own currency.
+     *
+     * @param from Account the money is taken from.
+     * @param toCard Number of the card the money is sent to.
+     * @param amount Amount of money, must be positive.
+     * @return Outcome of the transfer. Balances are changed only on SUCCESS.
+     */
+    public Result transfer(UserAccount from, String toCard, long amount) {
+        return transfer(from, from.getCurrency(), toCard, amount);
+    }
+
+    /**
+     * Transfers money from one card to another.
+     *
+     * @param from Account the money is taken from.
+     * @param currency Currency the money is taken in.
+     * @param toCard Number of the card the money is sent to.
+     * @param amount Amount of money, in minor units of the currency; must be positive.
+     * @return Outcome of the transfer. Balances are changed only on SUCCESS.
+     */
+    public Result transfer(UserAccount from, String currency, String toCard, long amount) {
+        return transfer(from, currency, toCard, amount, rates.current());
+    }
+
+    /**
+     * Transfers money from one card to another, converting it with the given rates.
+     *
+     * @param from Account the money is taken from.
+     * @param currency Currency the money is taken in.
+     * @param toCard Number of the card the money is sent to.
+     * @param amount Amount of money, in minor units of the currency; must be positive.
+     * @param snapshot Rates to convert with, see {@link FxRateTable#current()}.
+     * @return Outcome of the transfer. Balances are changed only on SUCCESS.
+     */
+    public Result transfer(UserAccount from, String currency, String toCard, long amount, FxRates snapshot) {
+        if (amount <= 0) {
+            return Result.INVALID_AMOUNT;
+        }
+        String fromCard = from.getCardNumber();
+        if (fromCard.equals(toCard)) {
+            return Result.SAME_ACCOUNT;
+        }
+        UserAccount to = accounts.apply(toCard);
+        String toCurrency = to != null ? to.getCurrency() : dbManager.selectCurrencyByCard(toCard);
+        if (toCurrency == null) {
+            return Result.NO_SUCH_RECIPIENT;
+        }
+        long credited;
+        try {
+            credited = snapshot.convert(amount, currency, toCurrency);
+        } catch (ArithmeticException e) {
+            return Result.BALANCE_OVERFLOW;
+        }
+        if (credited < 0) {
+            return Result.NO_EXCHANGE_RATE;
+        }
+        if (credited == 0) {
+            // too small to be worth one minor unit of the recipient's currency
+            return Result.INVALID_AMOUNT;
+        }
+        int first = stripe(fromCard);
+        int second = stripe(toCard);
+        if (first > second) {
+            int tmp = first;
+            first = second;
+            second = tmp;
+        }
+        locks[first].lock();
+        if (second != first) {
+            locks[second].lock();
+        }
+        try {
+            Result result = dbManager.transfer(fromCard, currency, toCard, toCurrency, amount, credited);
+            if (result == Result.SUCCESS) {
+                from.addToBalance(currency, -amount);
+                if (to != null) {
+                    to.addToBalance(credited);
+                }
+            }
+            return result;
+        } finally {
+            if (second != first) {
+                locks[second].unlock();
+            }
+            locks[first].unlock();
+        }
+    }
+
+    private static int stripe(String card) {
+        int h = card.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+}
@@ -1,6 +1,12 @@
 package banking;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * Course: JetBrains Academy, Java Developer Track
@@ -8,23 +14,40 @@ import java.util.Objects;
  * Purpose: A console-based program to simulate operations in a bank.
  *
  * Class represents bank account.
- * It stores information about card number, PIN, and balance.
+ * It stores information about card number, PIN, balance, currency and the card's database ID.
  * Has standard getters and setters, plus overriden hashCode & equals methods.
+ * Accounts are identified by card number only.
+ * Balance is a long number of minor units of the currency, see {@link Money}.
+ * It can be changed from many threads; {@link #addToBalance(long)} and
+ * {@link #withdraw(long)} update it atomically, without locking, and never let it overflow.
+ * Besides the balance in its own currency, an account may hold balances in
+ * other currencies ("wallets"), created on the first deposit in that currency.
  *
  * @author Mirek Drozd
  * @version 1.1
  */
 public class UserAccount {
+    private static final AtomicLongFieldUpdater<UserAccount> BALANCE =
+            AtomicLongFieldUpdater.newUpdater(UserAccount.class, "balance");
+
     private String cardNumber;
     private int PIN;
-    private int balance;
+    private volatile long balance;
+    private String currency = Money.DEFAULT_CURRENCY;
+    private int id;
+    private volatile Map<String, AtomicLong> wallets;
 
-    public UserAccount(String cardNumber, int PIN, int balance) {
+    public UserAccount(String cardNumber, int PIN, long balance) {
         this.cardNumber = cardNumber;
         this.PIN = PIN;
         this.balance = balance;
     }
 
+    public UserAccount(String cardNumber, int PIN, long balance, String currency) {
+        this(cardNumber, PIN, balance);
+        this.currency = currency;
+    }
+
     public String getCardNumber() {
         return cardNumber;
     }
@@ -41,25 +64,153 @@ public class UserAccount {
         this.PIN = PIN;
     }
 
-    public int getBalance() {
+    public long getBalance() {
         return balance;
     }
 
-    public void setBalance(int balance) {
+    public void setBalance(long balance) {
         this.balance = balance;
     }
 
+    public String getCurrency() {
+        return currency;
+    }
+
+    public void setCurrency(String currency) {
+        this.currency = currency;
+    }
+
+    /**
+     * Atomically adds amount to the balance.
+     *
+     * @param amount Amount to add; may be negative.
+     * @return Balance after the change.
+     * @throws ArithmeticException If the balance would overflow; it is not changed then.
+     */
+    public long addToBalance(long amount) {
+        long current;
+        long next;
+        do {
+            current = balance;
+            next = Money.add(current, amount);
+        } while (!BALANCE.compareAndSet(this, current, next));
+        return next;
+    }
+
+    /**
+     * Atomically takes amount from the balance, if there is enough money.
+     *
+     * @param amount Amount to take, must not be negative.
+     * @return true if the balance was reduced, false if there was not enough money.
+     */
+    public boolean withdraw(long amount) {
+        long current;
+        do {
+            current = balance;
+            if (amount < 0 || current < amount) {
+                return false;
+            }
+        } while (!BALANCE.compareAndSet(this, current, current - amount));
+        return true;
+    }
+
+    /**
+     * @param currency Currency code.
+     * @return Balance in the currency; 0 if the account never held it.
+     */
+    public long getBalance(String currency) {
+        if (currency.equals(this.currency)) {
+            return balance;
+        }
+        Map<String, AtomicLong> map = wallets;
+        AtomicLong wallet = map == null ? null : map.get(currency);
+        return wallet == null ? 0 : wallet.get();
+    }
+
+    /**
+     * Sets balance in a currency, e.g. when loading it from the database.
+     *
+     * @param currency Currency code.
+     * @param balance The balance.
+     */
+    public void setBalance(String currency, long balance) {
+        if (currency.equals(this.currency)) {
+            this.balance = balance;
+        } else {
+            wallet(currency).set(balance);
+        }
+    }
+
+    /**
+     * Atomically adds amount to the balance in a currency.
+     *
+     * @param currency Currency code.
+     * @param amount Amount to add; may be negative.
+     * @return Balance in the currency after the change.
+     * @throws ArithmeticException If the balance would overflow; it is not changed then.
+     */
+    public long addToBalance(String currency, long amount) {
+        if (currency.equals(this.currency)) {
+            return addToBalance(amount);
+        }
+        AtomicLong wallet = wallet(currency);
+        long current;
+        long next;
+        do {
+            current = wallet.get();
+            next = Money.add(current, amount);
+        } while (!wallet.compareAndSet(current, next));
+        return next;
+    }
+
+    /**
+     * @return Balances in currencies other than the account's own, by currency code.
+     */
+    public Map<String, Long> getWallets() {
+        Map<String, AtomicLong> map = wallets;
+        if (map == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> copy = new TreeMap<>();
+        map.forEach((code, wallet) -> copy.put(code, wallet.get()));
+        return copy;
+    }
+
+    private AtomicLong wallet(String currency) {
+        Map<String, AtomicLong> map = wallets;
+        if (map == null) {
+            synchronized (this) {
+                map = wallets;
+                if (map == null) {
+                    map = new ConcurrentHashMap<>(4);
+                    wallets = map;
+                }
+            }
+        }
+        return map.computeIfAbsent(currency, code -> new AtomicLong());
+    }
+
+    /**
+     * @return ID of the card in the database, or 0 if not known.
+     */
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == this) return true;
         if (! (obj instanceof UserAccount)) return false;
         UserAccount acc = (UserAccount) obj;
-        return Objects.equals(this.getCardNumber(), acc.getCardNumber())
-                && Objects.equals(this.getPIN(), acc.getPIN());
+        return Objects.equals(this.getCardNumber(), acc.getCardNumber());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(this.getCardNumber(), this.getPIN());
+        return Objects.hashCode(this.getCardNumber());
     }
 }
@@ -0,0 +1,339 @@
+package banking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * WriteBehindBalances delays balance updates of the card table.
+ * A changed balance is first appended to a journal file (card number and
+ * new balance, synced to disk), and the account is marked dirty. Threads
+ * changing balances at the same time share one sync of the journal.
+ * Dirty accounts are written to the database periodically, or when there
+ * are too many of them, with one batched UPDATE per account, however many
+ * times its balance changed in the meantime.
+ *
+ * The journal is split into generations: a flush starts a new journal file,
+ * writes the dirty balances, and deletes the older files once the database
+ * transaction is committed. After a crash, {@link #recover()} applies the
+ * balances left in journal files before anything else reads the card table.
+ * Journal files are kept next to the database file.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class WriteBehindBalances implements AutoCloseable {
+    private static final int RECORD_SIZE = Long.BYTES + Long.BYTES;
+    private static final String SUFFIX = ".balance-journal.";
+
+    private final DBManager dbManager;
+    private final Path directory;
+    private final String prefix;
+    private final int flushSize;
+    private final ConcurrentHashMap<String, UserAccount> dirty = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final Object flushLock = new Object();
+    private final Object commitLock = new Object();
+    private FileChannel journal;
+    private long generation;
+    private long lastSeq;
+    private long durableSeq;
+    private boolean committing;
+
+    /**
+     * Creates write-behind store; call {@link #recover()} before using it.
+     *
+     * @param dbManager Database the balances are written to.
+     * @param flushMillis How often dirty balances are written, in milliseconds.
+     * @param flushSize Number of dirty accounts that triggers a write before the interval ends.
+     */
+    public WriteBehindBalances(DBManager dbManager, long flushMillis, int flushSize) {
+        this.dbManager = dbManager;
+        Path dbFile = dbManager.file().toAbsolutePath();
+        this.directory = dbFile.getParent();
+        this.prefix = dbFile.getFileName() + SUFFIX;
+        this.flushSize = Math.max(1, flushSize);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "balance-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes balances left in journal files by a previous run to the database,
+     * then opens a fresh journal.
+     *
+     * @return Number of accounts whose balance was recovered.
+     * @throws IOException If the journal cannot be read or created.
+     */
+    public int recover() throws IOException {
+        List<Path> files = journalFiles();
+        Map<String, Long> balances = new LinkedHashMap<>();
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        for (Path file : files) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                buffer.clear();
+                while (channel.read(buffer) > 0) {
+                    if (buffer.hasRemaining()) {
+                        continue;
+                    }
+                    buffer.flip();
+                    long card = buffer.getLong();
+                    long balance = buffer.getLong();
+                    balances.put(CardNumberIssuer.format(card), balance);
+                    buffer.clear();
+                }
+                // a record cut short by a crash was never acknowledged, so it is ignored
+            }
+            generation = Math.max(generation, generationOf(file));
+        }
+        if (!balances.isEmpty() && dbManager.updateBalances(balances) < 0) {
+            throw new IOException("Cannot apply balance journal to the database");
+        }
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+        synchronized (record) {
+            journal = openGeneration(++generation);
+        }
+        return balances.size();
+    }
+
+    /**
+     * Records new balance of an account. The balance must already be changed in memory.
+     *
+     * @param account The account.
+     */
+    public void balanceChanged(UserAccount account) {
+        long card = CardNumberIssuer.parse(account.getCardNumber());
+        long seq;
+        synchronized (record) {
+            dirty.put(account.getCardNumber(), account);
+            try {
+                record.clear();
+                record.putLong(card).putLong(account.getBalance()).flip();
+                while (record.hasRemaining()) {
+                    journal.write(record);
+                }
+                seq = ++lastSeq;
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+                seq = -1;
+            }
+        }
+        if (seq < 0 || !awaitDurable(seq)) {
+            // the database is the fallback when the journal cannot be written
+            flushNow(account.getCardNumber());
+        }
+        if (dirty.size() >= flushSize) {
+            flusher.execute(this::flush);
+        }
+    }
+
+    /**
+     * Waits until the record is on disk. Threads waiting at the same time share one disk flush,
+     * as in {@link MutationJournal#awaitDurable(long)}.
+     *
+     * @param seq Number of the record.
+     * @return false if the journal could not be forced to disk.
+     */
+    private boolean awaitDurable(long seq) {
+        synchronized (commitLock) {
+            while (committing && durableSeq < seq) {
+                try {
+                    commitLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            if (durableSeq >= seq) {
+                return true;
+            }
+            committing = true;
+        }
+        // this thread flushes for everyone; records written meanwhile wait for the next flush
+        long target;
+        FileChannel channel;
+        synchronized (record) {
+            target = lastSeq;
+            channel = journal;
+        }
+        boolean forced = false;
+        IOException failure = null;
+        try {
+            if (channel != null) {
+                channel.force(false);
+                forced = true;
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            synchronized (commitLock) {
+                if (forced) {
+                    durableSeq = Math.max(durableSeq, target);
+                }
+                committing = false;
+                commitLock.notifyAll();
+            }
+        }
+        synchronized (commitLock) {
+            // a flush forces and closes the generation it replaces, so the record may be durable anyway
+            if (durableSeq >= seq) {
+                return true;
+            }
+        }
+        if (failure != null) {
+            System.out.println(failure.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Writes pending balance of one account right away, e.g. before a transfer reads it from the database.
+     * A flush already writing the balance is waited for, so its UPDATE cannot land after the caller's change.
+     *
+     * @param cardNumber Number of the card.
+     */
+    public void flushNow(String cardNumber) {
+        synchronized (flushLock) {
+            UserAccount account = dirty.remove(cardNumber);
+            if (account != null) {
+                Map<String, Long> balance = new LinkedHashMap<>();
+                balance.put(cardNumber, account.getBalance());
+                if (dbManager.updateBalances(balance) < 0) {
+                    // the journal still holds the balance; it is retried with the next flush
+                    dirty.putIfAbsent(cardNumber, account);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops pending balance of a closed account.
+     *
+     * @param cardNumber Number of the card.
+     */
+    public void forget(String cardNumber) {
+        dirty.remove(cardNumber);
+    }
+
+    /**
+     * @return Number of accounts with balance not yet written to the database.
+     */
+    public int pending() {
+        return dirty.size();
+    }
+
+    /**
+     * Writes all dirty balances to the database, in one transaction.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            long flushedGeneration;
+            List<UserAccount> accounts;
+            Map<String, Long> balances = new LinkedHashMap<>();
+            synchronized (record) {
+                if (dirty.isEmpty() || journal == null) {
+                    return;
+                }
+                // new balances go to the next journal generation from now on
+                flushedGeneration = generation;
+                try {
+                    journal.force(false);
+                    journal.close();
+                    journal = openGeneration(++generation);
+                } catch (IOException e) {
+                    System.out.println(e.getMessage());
+                    return;
+                }
+                synchronized (commitLock) {
+                    durableSeq = Math.max(durableSeq, lastSeq);
+                    commitLock.notifyAll();
+                }
+                accounts = new ArrayList<>(dirty.values());
+                for (UserAccount account : accounts) {
+                    balances.put(account.getCardNumber(), account.getBalance());
+                }
+                dirty.clear();
+            }
+            if (dbManager.updateBalances(balances) < 0) {
+                // old journal files stay, and the accounts are retried with the next flush
+                for (UserAccount account : accounts) {
+                    dirty.putIfAbsent(account.getCardNumber(), account);
+                }
+                return;
+            }
+            try {
+                for (Path file : journalFiles()) {
+                    if (generationOf(file) <= flushedGeneration) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes all dirty balances and stops the background flushing.
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        flush();
+        synchronized (record) {
+            try {
+                if (journal != null) {
+                    journal.close();
+                    journal = null;
+                }
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    private FileChannel openGeneration(long number) throws IOException {
+        return FileChannel.open(directory.resolve(prefix + number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private List<Path> journalFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            list.filter(p -> p.getFileName().toString().startsWith(prefix) && generationOf(p) >= 0)
+                    .sorted((a, b) -> Long.compare(generationOf(a), generationOf(b)))
+                    .forEach(files::add);
+        }
+        return files;
+    }
+
+    private long generationOf(Path file) {
+        try {
+            return Long.parseLong(file.getFileName().toString().substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
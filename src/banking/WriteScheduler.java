@@ -0,0 +1,248 @@
+package banking;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * WriteScheduler commits database writes of many threads together. SQLite
+ * lets only one connection write at a time, and every commit waits for the
+ * disk, so a single writer thread takes queued writes and runs them in one
+ * transaction: up to "maxBatch" writes, collected for at most "maxDelayMillis"
+ * after the first one arrives. Each write runs inside its own savepoint, so a
+ * write that fails is rolled back alone and the rest of the batch still commits.
+ * A caller's future completes only after its batch has committed, so a write
+ * is exactly as durable as if it had been committed on its own. Whatever a
+ * write throws, even an Error, fails only its own future; if the writer thread
+ * stops anyway, every queued write fails instead of waiting forever.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public class WriteScheduler implements AutoCloseable {
+    static final int DEFAULT_MAX_BATCH = 256;
+    static final int DEFAULT_MAX_DELAY_MILLIS = 2;
+
+    /**
+     * Database work done by the writer thread. It must not commit or roll back
+     * the transaction; it may use savepoints of its own.
+     *
+     * @param <T> Type of the result.
+     */
+    @FunctionalInterface
+    public interface Write<T> {
+        T apply(PooledConnection conn) throws SQLException;
+    }
+
+    private static final class Task<T> {
+        final Write<T> write;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+        Throwable error;
+
+        Task(Write<T> write) {
+            this.write = write;
+        }
+
+        void run(PooledConnection conn) throws SQLException {
+            result = write.apply(conn);
+        }
+
+        void complete() {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+
+    private static final Task<Void> STOP = new Task<>(conn -> null);
+
+    private final ConnectionPool pool;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final Metrics metrics;
+    private final BlockingQueue<Task<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private boolean closed;
+
+    /**
+     * Starts the writer thread.
+     *
+     * @param pool Pool the writer borrows a connection from for each batch.
+     * @param maxBatch Most writes committed in one transaction.
+     * @param maxDelayMillis How long a batch waits for more writes after its first one; 0 takes only those queued.
+     * @param metrics Where commit times and batch sizes go.
+     */
+    public WriteScheduler(ConnectionPool pool, int maxBatch, int maxDelayMillis, Metrics metrics) {
+        this.pool = pool;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMillis));
+        this.metrics = metrics;
+        this.writer = new Thread(this::run, "db-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a write.
+     *
+     * @param write The write.
+     * @param <T> Type of its result.
+     * @return Future completed with the result once the write has committed, or with
+     *         the exception that made it, or its batch, fail.
+     */
+    public <T> CompletableFuture<T> submit(Write<T> write) {
+        Task<T> task = new Task<>(write);
+        synchronized (this) {
+            if (closed) {
+                task.future.completeExceptionally(new SQLException("Write scheduler is closed"));
+                return task.future;
+            }
+            queue.add(task);
+        }
+        return task.future;
+    }
+
+    /**
+     * Queues a write and waits until it has committed.
+     * If the waiting thread is interrupted, the write may still commit later.
+     *
+     * @param write The write.
+     * @param <T> Type of its result.
+     * @return Result of the write.
+     * @throws SQLException If the write or the commit of its batch failed.
+     */
+    public <T> T execute(Write<T> write) throws SQLException {
+        try {
+            return submit(write).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for commit", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException(e.getCause());
+        }
+    }
+
+    private void run() {
+        List<Task<?>> batch = new ArrayList<>(maxBatch);
+        try {
+            collect(batch);
+        } finally {
+            synchronized (this) {
+                closed = true;
+            }
+            SQLException closedError = new SQLException("Write scheduler is closed");
+            for (Task<?> task : batch) {
+                task.future.completeExceptionally(closedError);
+            }
+            for (Task<?> task = queue.poll(); task != null; task = queue.poll()) {
+                task.future.completeExceptionally(closedError);
+            }
+        }
+    }
+
+    /**
+     * Takes batches from the queue and commits them until the scheduler is closed.
+     */
+    private void collect(List<Task<?>> batch) {
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                Task<?> task = queue.take();
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (task != null) {
+                    if (task == STOP) {
+                        stopping = true;
+                        break;
+                    }
+                    batch.add(task);
+                    if (batch.size() >= maxBatch) {
+                        break;
+                    }
+                    task = queue.poll();
+                    if (task == null) {
+                        long wait = deadline - System.nanoTime();
+                        task = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                    }
+                }
+            } catch (InterruptedException e) {
+                stopping = true;
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Runs a batch in one transaction, each write in its own savepoint, and completes the futures.
+     */
+    private void commit(List<Task<?>> batch) {
+        long start = metrics.start();
+        try (PooledConnection conn = pool.borrow()) {
+            Connection connection = conn.getConnection();
+            connection.setAutoCommit(false);
+            for (Task<?> task : batch) {
+                Savepoint savepoint = connection.setSavepoint();
+                try {
+                    task.run(conn);
+                } catch (Throwable e) {
+                    connection.rollback(savepoint);
+                    task.error = e;
+                }
+                connection.releaseSavepoint(savepoint);
+            }
+            connection.commit();
+            connection.setAutoCommit(true);
+        } catch (Throwable e) {
+            // the connection rolls back what is left of the transaction when it goes back to the pool
+            metrics.failed(Metrics.Operation.GROUP_COMMIT);
+            for (Task<?> task : batch) {
+                task.future.completeExceptionally(e);
+            }
+            return;
+        } finally {
+            metrics.stop(Metrics.Operation.GROUP_COMMIT, start, batch.size());
+        }
+        for (Task<?> task : batch) {
+            task.complete();
+        }
+    }
+
+    /**
+     * Commits the writes queued so far and stops the writer thread.
+     * Writes submitted afterwards fail.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.add(STOP);
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import banking.AccountRegistry;
+import banking.DBManager;
+import banking.TestDatabase;
+import banking.UserAccount;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AccountRegistryTest {
+    private static final byte[] VERIFIER = new byte[48];
+
+    @Test
+    public void loadsCardsOfEarlierRuns() {
+        TestDatabase database = new TestDatabase();
+        DBManager dbManager = database.open();
+        try {
+            assertTrue(dbManager.insert("4000000000000010", 1234, 500, VERIFIER));
+            assertTrue(dbManager.insert("4000000000000028", 4321, 0, VERIFIER));
+            AccountRegistry registry = new AccountRegistry();
+            assertEquals(2, registry.load(dbManager));
+            assertEquals(2, registry.size());
+            assertTrue(registry.contains("4000000000000028"));
+            assertEquals(500, registry.get("4000000000000010").getBalance());
+        } finally {
+            dbManager.close();
+            database.delete();
+        }
+    }
+
+    @Test
+    public void registersEachCardNumberOnce() throws InterruptedException {
+        AccountRegistry registry = new AccountRegistry();
+        AtomicInteger added = new AtomicInteger();
+        runTogether(8, () -> {
+            if (registry.add(new UserAccount("4000000000000010", 1234, 0))) {
+                added.incrementAndGet();
+            }
+        });
+        assertEquals(1, added.get());
+        assertEquals(1, registry.size());
+
+        UserAccount account = registry.get("4000000000000010");
+        assertSame(account, registry.remove("4000000000000010"));
+        assertFalse(registry.contains("4000000000000010"));
+        assertNull(registry.remove("4000000000000010"));
+    }
+
+    @Test
+    public void keepsEveryConcurrentWithdrawal() throws InterruptedException {
+        UserAccount account = new UserAccount("4000000000000010", 1234, 1000);
+        AtomicInteger withdrawn = new AtomicInteger();
+        runTogether(8, () -> {
+            for (int i = 0; i < 200; i++) {
+                if (account.withdraw(1)) {
+                    withdrawn.incrementAndGet();
+                }
+            }
+        });
+        // 1600 tries, of which only as many succeed as the balance allows
+        assertEquals(0, account.getBalance());
+        assertEquals(1000, withdrawn.get());
+    }
+
+    private static void runTogether(int count, Runnable task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                task.run();
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
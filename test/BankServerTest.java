@@ -0,0 +1,196 @@
+import banking.BankServer;
+import banking.BankingSystem;
+import banking.TestDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BankServerTest {
+    private TestDatabase database;
+    private BankingSystem bank;
+    private BankServer server;
+    private Thread serving;
+    private int port;
+
+    @Before
+    public void start() throws IOException {
+        database = new TestDatabase();
+        bank = new BankingSystem(database.args());
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        server = new BankServer(bank, port, 2);
+        serving = new Thread(server, "bank-server");
+        serving.start();
+    }
+
+    @After
+    public void stop() throws InterruptedException {
+        server.stop();
+        serving.join();
+        bank.shutdown();
+        database.delete();
+    }
+
+    private final class Client implements AutoCloseable {
+        final Socket socket;
+        final BufferedReader in;
+        final OutputStream out;
+
+        Client() throws IOException, InterruptedException {
+            socket = connect();
+            socket.setSoTimeout(10_000);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            out = socket.getOutputStream();
+        }
+
+        private Socket connect() throws IOException, InterruptedException {
+            // the server thread may not be listening yet
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    return new Socket(InetAddress.getLoopbackAddress(), port);
+                } catch (IOException e) {
+                    if (attempt == 100) {
+                        throw e;
+                    }
+                    Thread.sleep(50);
+                }
+            }
+        }
+
+        void send(String text) throws IOException {
+            out.write(text.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+
+        String request(String line) throws IOException {
+            send(line + "\n");
+            return in.readLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void servesAccountRequests() throws Exception {
+        try (Client client = new Client()) {
+            assertEquals("OK PONG", client.request("PING"));
+            assertEquals("ERR NOT_LOGGED_IN", client.request("BALANCE"));
+            String[] created = client.request("CREATE").split(" ");
+            assertEquals(3, created.length);
+            assertEquals("OK", created[0]);
+            String card = created[1];
+            String pin = created[2];
+            String wrongPin = pin.equals("0000") ? "0001" : "0000";
+
+            assertEquals("ERR AUTH", client.request("LOGIN " + card + " " + wrongPin));
+            assertEquals("OK", client.request("LOGIN " + card + " " + pin));
+            assertEquals("OK 0", client.request("BALANCE"));
+            assertEquals("OK 1250", client.request("INCOME 1250"));
+            assertEquals("ERR INVALID_AMOUNT", client.request("income 0"));
+            assertEquals("OK 1250", client.request("BALANCE"));
+            assertTrue(client.request("BALANCE XYZ").startsWith("ERR BAD_REQUEST"));
+            assertEquals("ERR INVALID_AMOUNT", client.request("INCOME 12.50"));
+            assertEquals("ERR BAD_REQUEST invalid number", client.request("LOGIN " + card + " pin"));
+            assertEquals("ERR BAD_REQUEST unknown command", client.request("WITHDRAW 5"));
+            assertEquals("OK", client.request("LOGOUT"));
+            assertEquals("ERR NOT_LOGGED_IN", client.request("INCOME 1"));
+            assertEquals("OK BYE", client.request("QUIT"));
+            assertNull(client.in.readLine());
+        }
+    }
+
+    @Test
+    public void transfersBetweenConnections() throws Exception {
+        try (Client sender = new Client(); Client recipient = new Client()) {
+            String[] from = sender.request("CREATE").split(" ");
+            String[] to = recipient.request("CREATE").split(" ");
+            assertEquals("OK", sender.request("LOGIN " + from[1] + " " + from[2]));
+            assertEquals("OK", recipient.request("LOGIN " + to[1] + " " + to[2]));
+            sender.request("INCOME 100");
+
+            assertEquals("OK 70", sender.request("TRANSFER " + to[1] + " 30"));
+            assertEquals("ERR NOT_ENOUGH_MONEY", sender.request("TRANSFER " + to[1] + " 71"));
+            assertEquals("OK 30", recipient.request("BALANCE"));
+        }
+    }
+
+    @Test
+    public void locksOutOnlyTheGuessingConnection() throws Exception {
+        try (Client guesser = new Client(); Client customer = new Client()) {
+            String[] created = customer.request("CREATE").split(" ");
+            String response = null;
+            for (int i = 0; i < 50 && !"ERR LOCKED".equals(response); i++) {
+                response = guesser.request("LOGIN " + (4000000000000000L + i) + " 1234");
+            }
+            assertEquals("ERR LOCKED", response);
+            // every client of a loopback server has the same address
+            assertEquals("OK", customer.request("LOGIN " + created[1] + " " + created[2]));
+        }
+    }
+
+    @Test
+    public void answersPipelinedRequestsInOrder() throws Exception {
+        // far more requests than a connection may have queued, sent before reading any response
+        int requests = 2000;
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < requests; i++) {
+            lines.append(i % 2 == 0 ? "PING\r\n" : "BALANCE\n");
+        }
+        try (Client client = new Client()) {
+            client.send(lines.toString());
+            for (int i = 0; i < requests; i++) {
+                assertEquals(String.valueOf(i), i % 2 == 0 ? "OK PONG" : "ERR NOT_LOGGED_IN", client.in.readLine());
+            }
+            assertEquals("OK PONG", client.request("PING"));
+        }
+    }
+
+    @Test
+    public void closesConnectionsWhenStopped() throws Exception {
+        try (Client client = new Client()) {
+            assertEquals("OK PONG", client.request("PING"));
+            server.stop();
+            serving.join(15_000);
+            // the client sees the end of the stream instead of waiting for a response that never comes
+            assertNull(client.in.readLine());
+        }
+    }
+
+    @Test
+    public void closesConnectionSendingTooLongLine() throws Exception {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            line.append('x');
+        }
+        try (Client client = new Client()) {
+            client.send(line.toString());
+            String response;
+            try {
+                response = client.in.readLine();
+            } catch (IOException e) {
+                response = null;
+            }
+            assertNull(response);
+        }
+        try (Client client = new Client()) {
+            assertEquals("OK PONG", client.request("PING"));
+        }
+    }
+}
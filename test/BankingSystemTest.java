@@ -0,0 +1,86 @@
+import banking.BankingSystem;
+import banking.DBManager;
+import banking.TestDatabase;
+import banking.UserAccount;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BankingSystemTest {
+    private TestDatabase database;
+    private BankingSystem bank;
+
+    @Before
+    public void open() {
+        database = new TestDatabase();
+        bank = new BankingSystem(database.args());
+    }
+
+    @After
+    public void delete() {
+        bank.shutdown();
+        database.delete();
+    }
+
+    @Test
+    public void storesDeposits() {
+        UserAccount user = bank.openAccount();
+        assertEquals(150, bank.deposit(user, 150));
+        assertEquals(150, user.getBalance());
+        DBManager other = database.open();
+        try {
+            assertEquals(150, other.selectBalanceByCard(user.getCardNumber()));
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void undoesDepositTheDatabaseRefuses() {
+        UserAccount user = bank.openAccount();
+        DBManager other = database.open();
+        try {
+            // the database balance leaves no room for the deposit, the one in memory does
+            assertTrue(other.credit(user.getCardNumber(), Long.MAX_VALUE - 10));
+        } finally {
+            other.close();
+        }
+        try {
+            bank.deposit(user, 100);
+            fail("the database refused the credit");
+        } catch (IllegalStateException e) {
+            assertEquals("The income could not be saved", e.getMessage());
+        }
+        assertEquals(0, user.getBalance());
+    }
+
+    @Test
+    public void tellsWalletOverflowFromRefusedCredit() {
+        UserAccount user = bank.openAccount();
+        DBManager other = database.open();
+        try {
+            assertTrue(other.creditWallet(user.getCardNumber(), "EUR", Long.MAX_VALUE - 10));
+        } finally {
+            other.close();
+        }
+        try {
+            bank.deposit(user, 100, "EUR");
+            fail("the database refused the credit");
+        } catch (IllegalStateException e) {
+            assertEquals("The income could not be saved", e.getMessage());
+        }
+        assertEquals(0, user.getBalance("EUR"));
+
+        user.addToBalance("EUR", Long.MAX_VALUE - 10);
+        try {
+            bank.deposit(user, 100, "EUR");
+            fail("the balance in memory would overflow");
+        } catch (ArithmeticException e) {
+            assertEquals(Long.MAX_VALUE - 10, user.getBalance("EUR"));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+import banking.CardCache;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CardCacheTest {
+
+    @Test
+    public void cachesIdAndBalance() {
+        CardCache cache = new CardCache(100);
+        String card = "4000003972196502";
+        assertEquals(0, cache.getId(card));
+        cache.putIfUnchanged(card, 7, 500, true, cache.stamp(card));
+        assertEquals(7, cache.getId(card));
+        assertEquals(500, cache.getBalance(card).getBalance());
+        cache.balanceUpdated(7, 900);
+        assertEquals(900, cache.getBalance(card).getBalance());
+        cache.invalidateBalance(card);
+        assertNull(cache.getBalance(card));
+        assertEquals(7, cache.getId(card));
+        cache.remove(7);
+        assertEquals(0, cache.getId(card));
+        assertEquals(4, cache.hits());
+        assertEquals(3, cache.misses());
+    }
+
+    @Test
+    public void dropsReadsOlderThanAChange() {
+        CardCache cache = new CardCache(100);
+        String card = "4000003972196502";
+        cache.putIfUnchanged(card, 7, 500, true, cache.stamp(card));
+        long stamp = cache.stamp(card);
+        cache.invalidateBalance(card);
+        cache.putIfUnchanged(card, 7, 500, true, stamp);
+        assertNull(cache.getBalance(card));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedCards() {
+        CardCache cache = new CardCache(16);
+        for (int i = 1; i <= 1000; i++) {
+            String card = String.valueOf(4000000000000000L + i);
+            cache.putIfUnchanged(card, i, 0, true, cache.stamp(card));
+        }
+        assertEquals(16, cache.size());
+        assertEquals(1000 - 16, cache.evictions());
+    }
+}
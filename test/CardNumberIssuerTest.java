@@ -0,0 +1,72 @@
+import banking.CardNumberIssuer;
+import banking.Luhn;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CardNumberIssuerTest {
+
+    private static CardNumberIssuer issuer(CardNumberIssuer.Mode mode, AtomicLong counter) {
+        return new CardNumberIssuer(mode, 12345L, counter::getAndAdd, 100);
+    }
+
+    @Test
+    public void issuesValidNumbersWithIIN() {
+        for (CardNumberIssuer.Mode mode : CardNumberIssuer.Mode.values()) {
+            CardNumberIssuer issuer = issuer(mode, new AtomicLong());
+            for (int i = 0; i < 1000; i++) {
+                String number = issuer.next();
+                assertEquals(16, number.length());
+                assertTrue(number.startsWith("400000"));
+                assertTrue(number, Luhn.isValid(number));
+            }
+        }
+    }
+
+    @Test
+    public void sequentialModeCountsUp() {
+        CardNumberIssuer issuer = issuer(CardNumberIssuer.Mode.SEQUENTIAL, new AtomicLong());
+        assertEquals(CardNumberIssuer.cardNumber(0), issuer.nextNumber());
+        assertEquals(CardNumberIssuer.cardNumber(1), issuer.nextNumber());
+    }
+
+    @Test
+    public void permutedModeNeverRepeats() throws InterruptedException {
+        AtomicLong counter = new AtomicLong();
+        CardNumberIssuer issuer = issuer(CardNumberIssuer.Mode.PERMUTED, counter);
+        Set<Long> seen = java.util.Collections.synchronizedSet(new HashSet<>());
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    assertTrue(seen.add(issuer.nextNumber()));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80_000, seen.size());
+
+        long[] batch = new long[10_000];
+        issuer.nextBatch(batch);
+        for (long number : batch) {
+            assertTrue(seen.add(number));
+        }
+    }
+
+    @Test
+    public void formatsAndParses() {
+        long number = CardNumberIssuer.cardNumber(844943340L);
+        String text = CardNumberIssuer.format(number);
+        assertEquals(number, CardNumberIssuer.parse(text));
+        assertEquals(-1, CardNumberIssuer.parse("40000084494334"));
+        assertEquals(-1, CardNumberIssuer.parse("40000084494334x3"));
+    }
+}
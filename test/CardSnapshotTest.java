@@ -0,0 +1,123 @@
+import banking.AccountRegistry;
+import banking.CardNumberIssuer;
+import banking.CardSnapshot;
+import banking.DBManager;
+import banking.TestDatabase;
+import banking.UserAccount;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class CardSnapshotTest {
+
+    private static Path tempFile() throws IOException {
+        Path file = Files.createTempFile("cards", ".snapshot");
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    private static Path writeSnapshot(int cards) throws IOException {
+        Path file = tempFile();
+        try (CardSnapshot.Writer writer = new CardSnapshot.Writer(file)) {
+            for (int i = 0; i < cards; i++) {
+                writer.card(CardNumberIssuer.cardNumber(i), i % 10_000, i * 100L, "USD", i == 0 ? new byte[48] : null);
+            }
+            writer.wallet(CardNumberIssuer.cardNumber(1), "EUR", 250);
+        }
+        return file;
+    }
+
+    @Test
+    public void loadsRegistryFromSnapshot() throws IOException {
+        Path file = writeSnapshot(1000);
+        AccountRegistry registry = new AccountRegistry();
+        assertEquals(1000, CardSnapshot.load(file, registry));
+        assertEquals(1000, registry.size());
+        UserAccount account = registry.get(CardNumberIssuer.format(CardNumberIssuer.cardNumber(1)));
+        assertEquals(1, account.getPIN());
+        assertEquals(100, account.getBalance());
+        assertEquals(250, account.getBalance("EUR"));
+        assertEquals(99_900, registry.get(CardNumberIssuer.format(CardNumberIssuer.cardNumber(999))).getBalance());
+    }
+
+    @Test
+    public void passesVerifiersThrough() throws IOException {
+        byte[][] verifiers = new byte[2][];
+        CardSnapshot.read(writeSnapshot(2), new CardSnapshot.Handler() {
+            @Override
+            public void card(String number, int pin, long balance, String currency, byte[] verifier) {
+                verifiers[pin] = verifier;
+            }
+
+            @Override
+            public void wallet(String number, String currency, long balance) {
+            }
+        });
+        assertArrayEquals(new byte[48], verifiers[0]);
+        assertNull(verifiers[1]);
+    }
+
+    @Test
+    public void refusesDamagedSnapshot() throws IOException {
+        Path file = writeSnapshot(10);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[40] ^= 1;
+        Files.write(file, bytes);
+        expectFailure(file);
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+        expectFailure(file);
+    }
+
+    @Test
+    public void restoresNothingFromDamagedSnapshot() throws IOException {
+        TestDatabase database = new TestDatabase();
+        DBManager dbManager = database.open();
+        try {
+            String kept = CardNumberIssuer.format(CardNumberIssuer.cardNumber(1));
+            dbManager.insert(kept, 1234, 500, new byte[48]);
+            // more cards than one restore transaction takes, damaged in the checksum at the very end
+            Path file = writeSnapshot(25_000);
+            byte[] bytes = Files.readAllBytes(file);
+            bytes[bytes.length - 1] ^= 1;
+            Files.write(file, bytes);
+            try {
+                CardSnapshot.restore(file, dbManager);
+                fail();
+            } catch (IOException expected) {
+                // damaged
+            }
+            assertEquals(500, dbManager.selectBalanceByCard(kept));
+            assertEquals(-1, dbManager.selectBalanceByCard(CardNumberIssuer.format(CardNumberIssuer.cardNumber(2))));
+
+            Files.write(file, Arrays.copyOf(bytes, bytes.length - 1000));
+            try {
+                CardSnapshot.restore(file, dbManager);
+                fail();
+            } catch (IOException expected) {
+                // cut short
+            }
+            assertEquals(500, dbManager.selectBalanceByCard(kept));
+        } finally {
+            dbManager.close();
+            database.delete();
+        }
+    }
+
+    private static void expectFailure(Path file) {
+        try {
+            CardSnapshot.load(file, new AccountRegistry());
+            fail();
+        } catch (IOException expected) {
+            // damaged or cut short
+        }
+    }
+}
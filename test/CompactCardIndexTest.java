@@ -0,0 +1,44 @@
+import banking.CardNumberIssuer;
+import banking.CompactCardIndex;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompactCardIndexTest {
+
+    @Test
+    public void storesCardData() {
+        CompactCardIndex index = new CompactCardIndex(4);
+        long card = CardNumberIssuer.cardNumber(42);
+        index.put(card, 1234, 7, 500);
+        assertTrue(index.contains(card));
+        assertEquals(7, index.getId(card));
+        assertEquals(500, index.getBalance(card, -1));
+        assertTrue(index.matchesPin(card, 1234));
+        assertFalse(index.matchesPin(card, 4321));
+        assertTrue(index.setBalance(card, 900));
+        assertEquals(900, index.getBalance(card, -1));
+        assertEquals(0, index.getId(CardNumberIssuer.cardNumber(43)));
+    }
+
+    @Test
+    public void growsAndRemovesWithoutLosingEntries() {
+        CompactCardIndex index = new CompactCardIndex(4);
+        int count = 50_000;
+        for (int i = 0; i < count; i++) {
+            index.put(CardNumberIssuer.cardNumber(i), i % 10_000, i + 1, i);
+        }
+        assertEquals(count, index.size());
+        for (int i = 0; i < count; i += 2) {
+            assertTrue(index.remove(CardNumberIssuer.cardNumber(i)));
+        }
+        assertEquals(count / 2, index.size());
+        for (int i = 0; i < count; i++) {
+            long card = CardNumberIssuer.cardNumber(i);
+            assertEquals(i % 2 == 1, index.contains(card));
+            assertEquals(i % 2 == 1 ? i + 1 : 0, index.getId(card));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import banking.ConnectionPool;
+import banking.PooledConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionPoolTest {
+    private Path file;
+    private ConnectionPool pool;
+
+    @Before
+    public void open() throws Exception {
+        file = Files.createTempFile("pool", ".s3db");
+        pool = new ConnectionPool(this::connect, 2);
+        try (PooledConnection conn = pool.borrow(); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE item (value INTEGER)");
+        }
+    }
+
+    @After
+    public void close() throws Exception {
+        pool.close();
+        Files.deleteIfExists(file);
+    }
+
+    private Connection connect() {
+        try {
+            return DriverManager.getConnection("jdbc:sqlite:" + file);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int count(PooledConnection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM item")) {
+            return rs.next() ? rs.getInt(1) : -1;
+        }
+    }
+
+    @Test
+    public void releasesConnectionOnlyOnce() throws SQLException {
+        PooledConnection first = pool.borrow();
+        PooledConnection second = pool.borrow();
+        first.close();
+        // a second close must not put the connection back into the pool twice
+        first.close();
+        second.close();
+
+        PooledConnection a = pool.borrow();
+        PooledConnection b = pool.borrow();
+        assertNotSame(a, b);
+        a.close();
+        b.close();
+    }
+
+    @Test
+    public void rollsBackOpenTransactionOnRelease() throws SQLException {
+        PooledConnection conn = pool.borrow();
+        conn.getConnection().setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("INSERT INTO item(value) VALUES(1)");
+        }
+        conn.close();
+
+        try (PooledConnection next = pool.borrow()) {
+            assertTrue(next.getConnection().getAutoCommit());
+            assertEquals(0, count(next));
+        }
+    }
+}
@@ -0,0 +1,155 @@
+import banking.BankingSystem;
+import banking.ConsoleSession;
+import banking.TestDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConsoleSessionTest {
+    private TestDatabase database;
+    private BankingSystem bank;
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private ConsoleSession session;
+
+    @Before
+    public void open() {
+        database = new TestDatabase();
+        bank = new BankingSystem(database.args());
+        session = new ConsoleSession(bank, new PrintStream(output, true));
+        session.start();
+        output.reset();
+    }
+
+    @After
+    public void delete() {
+        bank.shutdown();
+        database.delete();
+    }
+
+    /**
+     * Types one input and returns what the session printed in reply.
+     */
+    private String type(String input) {
+        session.accept(input);
+        String reply = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        output.reset();
+        return reply;
+    }
+
+    private void assertReply(String expected, String input, ConsoleSession.State next) {
+        String reply = type(input);
+        assertTrue(reply, reply.contains(expected));
+        assertEquals(next, session.getState());
+    }
+
+    /**
+     * Creates an account and returns its card number and PIN.
+     */
+    private String[] createAccount() {
+        String[] lines = type("1").split("\n");
+        assertEquals("Your card has been created", lines[0]);
+        assertEquals(ConsoleSession.State.MAIN_MENU, session.getState());
+        return new String[]{lines[2], lines[4]};
+    }
+
+    private void logIn(String[] account) {
+        assertReply("Enter your card number:", "2", ConsoleSession.State.LOGIN_CARD);
+        assertReply("Enter your PIN:", account[0], ConsoleSession.State.LOGIN_PIN);
+        assertReply("You have successfully logged in!", account[1], ConsoleSession.State.USER_MENU);
+    }
+
+    @Test
+    public void walksThroughMenus() {
+        String[] sender = createAccount();
+        String[] recipient = createAccount();
+        logIn(sender);
+
+        assertReply("Enter income:", "2", ConsoleSession.State.INCOME);
+        assertReply("Income was added!", "500", ConsoleSession.State.USER_MENU);
+        assertReply("500\n", "1", ConsoleSession.State.USER_MENU);
+
+        assertReply("Enter card number:", "3", ConsoleSession.State.TRANSFER_CARD);
+        assertReply("Enter how much money you want to transfer:", recipient[0],
+                ConsoleSession.State.TRANSFER_AMOUNT);
+        assertReply("Not enough money!", "900", ConsoleSession.State.USER_MENU);
+        type("3");
+        type(recipient[0]);
+        assertReply("Success!", "200", ConsoleSession.State.USER_MENU);
+        assertReply("300\n", "1", ConsoleSession.State.USER_MENU);
+
+        assertReply("You have successfully logged out!", "5", ConsoleSession.State.MAIN_MENU);
+        logIn(recipient);
+        assertReply("200\n", "1", ConsoleSession.State.USER_MENU);
+        assertReply("Bye!", "0", ConsoleSession.State.FINISHED);
+        assertTrue(session.isFinished());
+        assertEquals("", type("1"));
+    }
+
+    @Test
+    public void refusesBadInputAndStaysInMenu() {
+        String[] account = createAccount();
+        assertReply("1. Create an account", "9", ConsoleSession.State.MAIN_MENU);
+        logIn(account);
+        assertReply("1. Balance", "x", ConsoleSession.State.USER_MENU);
+
+        type("2");
+        assertReply("Income must be positive!", "abc", ConsoleSession.State.USER_MENU);
+        type("2");
+        assertReply("Income must be positive!", "0", ConsoleSession.State.USER_MENU);
+
+        type("3");
+        assertReply("Probably you made a mistake in the card number.", "4000000000000001",
+                ConsoleSession.State.USER_MENU);
+        type("3");
+        assertReply("You can't transfer money to the same account!", account[0], ConsoleSession.State.USER_MENU);
+        type("3");
+        String unknown = bank.generateCardNumber();
+        assertReply("Such a card does not exist.", unknown, ConsoleSession.State.USER_MENU);
+    }
+
+    @Test
+    public void returnsToMainMenuOnWrongPin() {
+        String[] account = createAccount();
+        String wrongPin = account[1].equals("0000") ? "0001" : "0000";
+        type("2");
+        type(account[0]);
+        assertReply("Wrong card number or PIN!", wrongPin, ConsoleSession.State.MAIN_MENU);
+        type("2");
+        type(account[0]);
+        assertReply("Wrong card number or PIN!", "pin", ConsoleSession.State.MAIN_MENU);
+        logIn(account);
+    }
+
+    @Test
+    public void locksCardOutAfterTooManyWrongPins() {
+        String[] account = createAccount();
+        String wrongPin = account[1].equals("0000") ? "0001" : "0000";
+        String reply = "";
+        for (int i = 0; i < 10 && !reply.contains("Too many failed attempts"); i++) {
+            type("2");
+            type(account[0]);
+            reply = type(wrongPin);
+        }
+        assertTrue(reply, reply.contains("Too many failed attempts. Please try again later!"));
+        type("2");
+        type(account[0]);
+        assertReply("Too many failed attempts", account[1], ConsoleSession.State.MAIN_MENU);
+    }
+
+    @Test
+    public void forgetsClosedAccount() {
+        String[] account = createAccount();
+        logIn(account);
+        assertReply("The account has been closed!", "4", ConsoleSession.State.MAIN_MENU);
+        type("2");
+        type(account[0]);
+        assertReply("Wrong card number or PIN!", account[1], ConsoleSession.State.MAIN_MENU);
+    }
+}
@@ -0,0 +1,83 @@
+import banking.CardNumberIssuer;
+import banking.CredentialStore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CredentialStoreTest {
+    private static final byte[] PEPPER = new byte[32];
+
+    @Test
+    public void verifiesOnlyTheRightPin() {
+        CredentialStore store = new CredentialStore(null, PEPPER);
+        long card = CardNumberIssuer.cardNumber(7);
+        String number = CardNumberIssuer.format(card);
+        store.remember(number, store.newVerifier(card, 42));
+        assertTrue(store.verify(number, 42));
+        assertFalse(store.verify(number, 43));
+        assertFalse(store.verify(number, -1));
+        assertFalse(store.verify(CardNumberIssuer.format(CardNumberIssuer.cardNumber(8)), 42));
+        store.forget(number);
+        assertFalse(store.verify(number, 42));
+    }
+
+    @Test
+    public void saltsEveryVerifier() {
+        CredentialStore store = new CredentialStore(null, PEPPER);
+        long card = CardNumberIssuer.cardNumber(7);
+        byte[] first = store.newVerifier(card, 1234);
+        byte[] second = store.newVerifier(card, 1234);
+        assertEquals(48, first.length);
+        assertFalse(java.util.Arrays.equals(first, second));
+    }
+
+    @Test
+    public void bindsVerifierToCard() {
+        CredentialStore store = new CredentialStore(null, PEPPER);
+        long card = CardNumberIssuer.cardNumber(7);
+        String other = CardNumberIssuer.format(CardNumberIssuer.cardNumber(8));
+        store.remember(other, store.newVerifier(card, 1234));
+        assertFalse(store.verify(other, 1234));
+    }
+
+    @Test
+    public void rejectsPinsOutOfRange() {
+        CredentialStore store = new CredentialStore(null, PEPPER);
+        long card = CardNumberIssuer.cardNumber(7);
+        String number = CardNumberIssuer.format(card);
+        store.remember(number, store.newVerifier(card, 1234));
+        assertTrue(store.verify(number, 1234));
+        assertFalse(store.verify(number, 1234 + 65536));
+        assertFalse(store.verify(number, 1234 - 65536));
+        assertFalse(store.verify(number, 10000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesVerifierOfPinOutOfRange() {
+        new CredentialStore(null, PEPPER).newVerifier(CardNumberIssuer.cardNumber(7), 10000);
+    }
+
+    @Test
+    public void createsPepperOnlyWhenAllowed() throws IOException {
+        Path file = Files.createTempFile("pepper", ".bin");
+        Files.delete(file);
+        try {
+            CredentialStore.loadPepper(file, false);
+            fail("a lost pepper must not be replaced");
+        } catch (IOException expected) {
+            // verifiers exist, so the start is refused
+        }
+        byte[] pepper = CredentialStore.loadPepper(file, true);
+        file.toFile().deleteOnExit();
+        assertEquals(32, pepper.length);
+        assertArrayEquals(pepper, CredentialStore.loadPepper(file, false));
+    }
+}
@@ -0,0 +1,94 @@
+import banking.CardNumberIssuer;
+import banking.DBManager;
+import banking.TestDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DBManagerReadPoolTest {
+    private static final byte[] VERIFIER = new byte[48];
+    private static final String CARD = CardNumberIssuer.format(CardNumberIssuer.cardNumber(1));
+
+    private TestDatabase database;
+    private DBManager dbManager;
+
+    @Before
+    public void create() {
+        database = new TestDatabase();
+    }
+
+    @After
+    public void delete() {
+        if (dbManager != null) {
+            dbManager.close();
+        }
+        database.delete();
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite:" + dbManager.file());
+    }
+
+    private String journalMode() throws SQLException {
+        try (Connection conn = connect(); Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA journal_mode")) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    @Test
+    public void usesWalOnlyWithReadPool() throws SQLException {
+        dbManager = database.open();
+        assertTrue(dbManager.insert(CARD, 1234, 0, VERIFIER));
+        assertEquals("delete", journalMode());
+        dbManager.close();
+
+        dbManager = database.open("-readPool", "2");
+        assertEquals("wal", journalMode());
+    }
+
+    @Test
+    public void readsWritesOfWriterConnection() {
+        dbManager = database.open("-readPool", "2", "-cacheSize", "0");
+        assertTrue(dbManager.insert(CARD, 1234, 100, VERIFIER));
+        assertEquals(100, dbManager.selectBalanceByCard(CARD));
+        assertTrue(dbManager.credit(CARD, 50));
+        assertEquals(150, dbManager.selectBalanceByCard(CARD));
+        AtomicInteger cards = new AtomicInteger();
+        dbManager.selectAllCards((id, number, pin, balance, currency) -> cards.incrementAndGet());
+        assertEquals(1, cards.get());
+    }
+
+    @Test
+    public void readsWhileWriterConnectionIsBusy() throws Exception {
+        dbManager = database.open("-readPool", "2", "-cacheSize", "0");
+        assertTrue(dbManager.insert(CARD, 1234, 100, VERIFIER));
+        AtomicBoolean credited = new AtomicBoolean();
+        Thread writer = new Thread(() -> credited.set(dbManager.credit(CARD, 5)));
+        try (Connection other = connect(); Statement stmt = other.createStatement()) {
+            // another process holds the write lock, so the only writer connection waits for it
+            stmt.execute("BEGIN IMMEDIATE");
+            writer.start();
+            Thread.sleep(300);
+            assertTrue(writer.isAlive());
+            // a query routed to the busy writer connection would wait for it
+            assertEquals(100, dbManager.selectBalanceByCard(CARD));
+            assertTrue(writer.isAlive());
+            stmt.execute("ROLLBACK");
+        }
+        writer.join();
+        assertTrue(credited.get());
+        assertEquals(105, dbManager.selectBalanceByCard(CARD));
+    }
+}
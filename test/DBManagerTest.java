@@ -0,0 +1,110 @@
+import banking.CardNumberIssuer;
+import banking.DBManager;
+import banking.TestDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DBManagerTest {
+    private static final byte[] VERIFIER = new byte[48];
+
+    private TestDatabase database;
+    private DBManager dbManager;
+
+    @Before
+    public void open() {
+        database = new TestDatabase();
+        dbManager = database.open();
+    }
+
+    @After
+    public void delete() {
+        dbManager.close();
+        database.delete();
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + database.file());
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private String journalMode() throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + database.file());
+             Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("PRAGMA journal_mode")) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    private static String number(int index) {
+        return CardNumberIssuer.format(CardNumberIssuer.cardNumber(index));
+    }
+
+    @Test
+    public void cachesWholeBalanceWhenLookingUpId() {
+        String card = number(1);
+        long balance = 5_000_000_000L;
+        assertTrue(dbManager.insert(card, 1234, balance, VERIFIER));
+        // a second manager starts with an empty cache, so the lookup below fills it
+        DBManager other = database.open();
+        try {
+            assertTrue(other.selectIDByCard(card) > 0);
+            assertEquals(balance, other.selectBalanceByCard(card));
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void tellsTakenNumberFromOtherFailures() throws SQLException {
+        String card = number(1);
+        assertEquals(DBManager.InsertResult.INSERTED, dbManager.insertCard(card, 1234, 0, VERIFIER));
+        assertEquals(DBManager.InsertResult.NUMBER_TAKEN, dbManager.insertCard(card, 4321, 0, VERIFIER));
+        // a failure that retrying with another number cannot fix
+        execute("CREATE TRIGGER refuse BEFORE INSERT ON card BEGIN SELECT RAISE(ABORT, 'refused'); END");
+        assertEquals(DBManager.InsertResult.FAILED, dbManager.insertCard(number(2), 1234, 0, VERIFIER));
+        assertEquals(0, dbManager.selectIDByCard(number(2)));
+    }
+
+    @Test
+    public void tellsWhichCardsOfBatchWereInserted() {
+        assertTrue(dbManager.insert(number(2), 1111, 0, VERIFIER));
+        String[] numbers = {number(1), number(2), number(3)};
+        int[] pins = {1, 2, 3};
+        byte[][] verifiers = {VERIFIER, VERIFIER, VERIFIER};
+        boolean[] inserted = new boolean[numbers.length];
+        assertEquals(2, dbManager.insertBatch(numbers, pins, verifiers, numbers.length, inserted));
+        assertArrayEquals(new boolean[]{true, false, true}, inserted);
+    }
+
+    @Test
+    public void tellsWhichCardsOfFailedBatchWereInserted() throws SQLException {
+        dbManager.close();
+        dbManager = database.open("-bulkTuning", "-transactionSize", "2");
+        assertTrue(dbManager.insert(number(2), 1111, 0, VERIFIER));
+        execute("CREATE TRIGGER refuse BEFORE INSERT ON card WHEN NEW.number = '" + number(4) + "' "
+                + "BEGIN SELECT RAISE(ABORT, 'refused'); END");
+        String[] numbers = {number(1), number(2), number(3), number(4)};
+        int[] pins = {1, 2, 3, 4};
+        byte[][] verifiers = {VERIFIER, VERIFIER, VERIFIER, VERIFIER};
+        boolean[] inserted = new boolean[numbers.length];
+        // the first transaction commits, the second one fails and takes number(3) with it
+        assertEquals(1, dbManager.insertBatch(numbers, pins, verifiers, numbers.length, inserted));
+        assertArrayEquals(new boolean[]{true, false, false, false}, inserted);
+        assertTrue(dbManager.selectIDByCard(number(1)) > 0);
+        assertEquals(0, dbManager.selectIDByCard(number(3)));
+        // bulk tuning does not leave the database in WAL mode
+        assertEquals("delete", journalMode());
+    }
+}
@@ -0,0 +1,95 @@
+import banking.FxRateTable;
+import banking.FxRates;
+import banking.UserAccount;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FxRatesTest {
+
+    private static Path rateFile(String... lines) throws IOException {
+        Path file = Files.createTempFile("fx", ".rates");
+        file.toFile().deleteOnExit();
+        Files.write(file, String.join("\n", lines).getBytes());
+        return file;
+    }
+
+    @Test
+    public void convertsBetweenMinorUnits() throws IOException {
+        FxRates rates = FxRates.load(rateFile("# rates in USD", "USD 1", "EUR 1.25", "", "JPY 0.0075"));
+        assertEquals(12500, rates.convert(10000, "EUR", "USD"));
+        assertEquals(8000, rates.convert(10000, "USD", "EUR"));
+        // 100.00 USD is 13333.33 JPY, rounded down to whole yen
+        assertEquals(13333, rates.convert(10000, "USD", "JPY"));
+        assertEquals(7500, rates.convert(10000, "JPY", "USD"));
+        assertEquals(5, rates.convert(5, "GBP", "GBP"));
+        assertEquals(-1, rates.convert(5, "GBP", "USD"));
+        assertFalse(rates.supports("GBP"));
+    }
+
+    @Test
+    public void convertsAmountsPastLongProduct() throws IOException {
+        FxRates rates = FxRates.load(rateFile("USD 1", "EUR 2"));
+        assertEquals(Long.MAX_VALUE / 2, rates.convert(Long.MAX_VALUE, "USD", "EUR"));
+        try {
+            rates.convert(Long.MAX_VALUE, "EUR", "USD");
+            fail();
+        } catch (ArithmeticException expected) {
+            // the result does not fit in a long
+        }
+    }
+
+    @Test
+    public void rejectsInvalidFiles() throws IOException {
+        for (String line : new String[]{"XYZ 1", "EUR -1", "EUR 0", "EUR", "EUR 1 2"}) {
+            try {
+                FxRates.load(rateFile(line));
+                fail(line);
+            } catch (IllegalArgumentException expected) {
+                // reported with the line number
+            }
+        }
+    }
+
+    @Test
+    public void swapsSnapshotWhenFileChanges() throws IOException {
+        Path file = rateFile("USD 1", "EUR 1.25");
+        try (FxRateTable table = new FxRateTable(file, 3600)) {
+            FxRates before = table.current();
+            assertFalse(table.reload());
+            assertSame(before, table.current());
+
+            Files.write(file, "USD 1\nEUR 2\n".getBytes());
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 1000));
+            assertTrue(table.reload());
+            assertEquals(20000, table.current().convert(10000, "EUR", "USD"));
+            // a snapshot taken earlier keeps its rates
+            assertEquals(12500, before.convert(10000, "EUR", "USD"));
+
+            Files.write(file, "EUR broken\n".getBytes());
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 2000));
+            assertFalse(table.reload());
+            assertEquals(20000, table.current().convert(10000, "EUR", "USD"));
+        }
+    }
+
+    @Test
+    public void keepsBalancePerCurrency() {
+        UserAccount account = new UserAccount("4000003972196502", 1234, 100, "USD");
+        assertEquals(0, account.getBalance("EUR"));
+        assertEquals(50, account.addToBalance("EUR", 50));
+        assertEquals(150, account.addToBalance("USD", 50));
+        assertEquals(150, account.getBalance());
+        assertEquals(50, account.getBalance("EUR"));
+        assertEquals(1, account.getWallets().size());
+    }
+}
@@ -0,0 +1,82 @@
+import banking.LoginThrottle;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LoginThrottleTest {
+    private static final String CARD = "4000003972196502";
+    private static final String OTHER = "4000003972196510";
+
+    private long now = 1_000_000;
+
+    private LoginThrottle throttle() {
+        return new LoginThrottle(3, 10, 60_000, 300_000, () -> now);
+    }
+
+    @Test
+    public void locksCardOutAfterTooManyFailures() {
+        LoginThrottle throttle = throttle();
+        throttle.failed(CARD, "a");
+        throttle.failed(CARD, "b");
+        assertTrue(throttle.allowed(CARD, "c"));
+        throttle.failed(CARD, "c");
+        assertFalse(throttle.allowed(CARD, "d"));
+        assertTrue(throttle.allowed(OTHER, "d"));
+        now += 299_000;
+        assertFalse(throttle.allowed(CARD, "d"));
+        now += 2_000;
+        assertTrue(throttle.allowed(CARD, "d"));
+    }
+
+    @Test
+    public void forgivesFailuresOverTime() {
+        LoginThrottle throttle = throttle();
+        for (int i = 0; i < 10; i++) {
+            throttle.failed(CARD, "a");
+            assertTrue(throttle.allowed(CARD, "b"));
+            throttle.succeeded(CARD);
+            now += 20_000;
+        }
+        throttle.failed(CARD, "a");
+        throttle.failed(CARD, "a");
+        now += 20_000;
+        throttle.failed(CARD, "a");
+        assertTrue(throttle.allowed(CARD, "b"));
+    }
+
+    @Test
+    public void locksSourceOutAcrossCards() {
+        LoginThrottle throttle = throttle();
+        for (int i = 0; i < 10; i++) {
+            throttle.failed(String.valueOf(4000000000000000L + i), "a");
+        }
+        assertFalse(throttle.allowed(OTHER, "a"));
+        assertTrue(throttle.allowed(OTHER, "b"));
+    }
+
+    @Test
+    public void chargesMalformedCardsToSourceOnly() {
+        LoginThrottle throttle = throttle();
+        throttle.failed("4000", "a");
+        throttle.failed("abc", "b");
+        throttle.failed(null, "c");
+        throttle.failed("", "d");
+        assertTrue(throttle.allowed("4000", "e"));
+        assertTrue(throttle.allowed("1234", "e"));
+        assertEquals(4, throttle.tracked());
+    }
+
+    @Test
+    public void dropsPaidOffKeys() {
+        LoginThrottle throttle = throttle();
+        for (int i = 0; i < 511; i++) {
+            throttle.failed(String.valueOf(4000000000000000L + i), "a" + i);
+        }
+        assertEquals(1022, throttle.tracked());
+        now += 120_000;
+        throttle.failed(CARD, "a");
+        assertEquals(2, throttle.tracked());
+    }
+}
@@ -0,0 +1,36 @@
+import banking.Luhn;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LuhnTest {
+
+    @Test
+    public void computesCheckDigit() {
+        assertEquals(3, Luhn.checksum("400000844943340"));
+        assertEquals(3, Luhn.checksum(400000844943340L));
+        assertEquals(3, Luhn.checksum("x400000844943340".toCharArray(), 1, 15));
+    }
+
+    @Test
+    public void validatesFullNumbers() {
+        assertTrue(Luhn.isValid("4000008449433403"));
+        assertTrue(Luhn.isValid(4000008449433403L));
+        assertFalse(Luhn.isValid("4000008449433404"));
+        assertFalse(Luhn.isValid("2000007269641764"));
+        assertFalse(Luhn.isValid("40000084494334a3"));
+        assertFalse(Luhn.isValid(""));
+    }
+
+    @Test
+    public void validatesInBulk() {
+        String[] numbers = {"4000008449433403", "4000008449433404", null};
+        boolean[] results = new boolean[numbers.length];
+        assertEquals(1, Luhn.validateAll(numbers, results));
+        assertTrue(results[0]);
+        assertFalse(results[1]);
+        assertFalse(results[2]);
+    }
+}
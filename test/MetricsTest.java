@@ -0,0 +1,60 @@
+import banking.Metrics;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+    @Test
+    public void recordsNothingWhenDisabled() {
+        Metrics metrics = Metrics.fromArguments(new String[]{"-fileName", "card.s3db"});
+        assertFalse(metrics.isEnabled());
+        assertEquals(0, metrics.start());
+        metrics.stop(Metrics.Operation.CREDIT, 0, 5);
+        metrics.failed(Metrics.Operation.CREDIT);
+        assertNull(metrics.latency(Metrics.Operation.CREDIT));
+        assertEquals(0, metrics.getRows(Metrics.Operation.CREDIT));
+        assertTrue(metrics.getOperations().isEmpty());
+    }
+
+    @Test
+    public void countsCallsFailuresAndRows() {
+        Metrics metrics = Metrics.enabled();
+        long start = metrics.start();
+        metrics.stop(Metrics.Operation.INSERT_BATCH, start, 1000);
+        metrics.stop(Metrics.Operation.INSERT_BATCH, metrics.start(), 500);
+        metrics.failed(Metrics.Operation.INSERT_BATCH);
+        assertEquals(2, metrics.latency(Metrics.Operation.INSERT_BATCH).getCount());
+        assertEquals(1, metrics.getFailed(Metrics.Operation.INSERT_BATCH));
+        assertEquals(1500, metrics.getRows(Metrics.Operation.INSERT_BATCH));
+        assertEquals(1, metrics.getOperations().size());
+        assertTrue(metrics.getReport().startsWith("db.insertBatch failed=1 rows=1500 count=2"));
+        metrics.reset();
+        assertTrue(metrics.getOperations().isEmpty());
+    }
+
+    @Test
+    public void publishesOverJmx() throws Exception {
+        Metrics metrics = Metrics.fromArguments(new String[]{"-metrics"});
+        try {
+            metrics.stop(Metrics.Operation.POOL_WAIT, metrics.start());
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            CompositeData[] operations = (CompositeData[]) server.getAttribute(
+                    new ObjectName("banking:type=Metrics"), "Operations");
+            assertEquals(1, operations.length);
+            assertEquals("jdbc.poolWait", operations[0].get("name"));
+            assertEquals(1L, operations[0].get("count"));
+        } finally {
+            metrics.close();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName("banking:type=Metrics")));
+    }
+}
@@ -0,0 +1,53 @@
+import banking.Money;
+import banking.UserAccount;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MoneyTest {
+
+    @Test
+    public void parsesNonNegativeAmounts() {
+        assertEquals(0, Money.parse("0"));
+        assertEquals(10000, Money.parse("10000"));
+        assertEquals(Long.MAX_VALUE, Money.parse("9223372036854775807"));
+        assertEquals(-1, Money.parse("9223372036854775808"));
+        assertEquals(-1, Money.parse("-5"));
+        assertEquals(-1, Money.parse("12.5"));
+        assertEquals(-1, Money.parse(""));
+    }
+
+    @Test
+    public void keepsBalancesPastIntRange() {
+        UserAccount account = new UserAccount("4000003972196502", 1234, Integer.MAX_VALUE);
+        assertEquals(Integer.MAX_VALUE + 1L, account.addToBalance(1));
+        assertTrue(account.withdraw(Integer.MAX_VALUE + 1L));
+        assertEquals(0, account.getBalance());
+        assertFalse(account.withdraw(-1));
+    }
+
+    @Test
+    public void refusesOverflowWithoutChangingBalance() {
+        UserAccount account = new UserAccount("4000003972196502", 1234, Long.MAX_VALUE - 1);
+        try {
+            account.addToBalance(2);
+            fail("overflow expected");
+        } catch (ArithmeticException expected) {
+            assertEquals(Long.MAX_VALUE - 1, account.getBalance());
+        }
+    }
+
+    @Test
+    public void checksCurrencyCodes() {
+        assertEquals("EUR", Money.currency("eur"));
+        try {
+            Money.currency("XYZW");
+            fail("unknown currency expected");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,238 @@
+import banking.CardNumberIssuer;
+import banking.DBManager;
+import banking.MutationJournal;
+import banking.TestDatabase;
+import banking.UserAccount;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MutationJournalTest {
+    private static final byte[] VERIFIER = new byte[48];
+    private static final int CAPACITY = 1024 * 1024;
+    // 16-byte header, then 40-byte records; CREATE records are longer
+    private static final int FIRST_RECORD = 16;
+    private static final int RECORD_SIZE = 40;
+
+    private TestDatabase database;
+    private DBManager dbManager;
+    private Path file;
+    private final List<MutationJournal> journals = new ArrayList<>();
+
+    @Before
+    public void open() {
+        database = new TestDatabase();
+        dbManager = database.open();
+        file = dbManager.sidecar(".mutation-journal");
+    }
+
+    @After
+    public void delete() {
+        for (MutationJournal journal : journals) {
+            journal.close();
+        }
+        dbManager.close();
+        database.delete();
+    }
+
+    /**
+     * Opens the journal file as the program does after a crash; journals
+     * opened before are left as they are until the test ends.
+     */
+    private MutationJournal openJournal() throws IOException {
+        MutationJournal journal = new MutationJournal(dbManager, file, CAPACITY);
+        journals.add(journal);
+        return journal;
+    }
+
+    private UserAccount account(int index, int balance) {
+        String card = CardNumberIssuer.format(CardNumberIssuer.cardNumber(index));
+        assertTrue(dbManager.insert(card, 1234, balance, VERIFIER));
+        return new UserAccount(card, 1234, balance);
+    }
+
+    private int storedBalance(String card) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbManager.file());
+             PreparedStatement pstmt = conn.prepareStatement("SELECT balance FROM card WHERE number = ?")) {
+            pstmt.setString(1, card);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : -1;
+            }
+        }
+    }
+
+    private String pinOf(String card) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbManager.file());
+             PreparedStatement pstmt = conn.prepareStatement("SELECT pin FROM card WHERE number = ?")) {
+            pstmt.setString(1, card);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                assertTrue(rs.next());
+                return rs.getString(1);
+            }
+        }
+    }
+
+    /**
+     * Appends a credit that, as if the program crashed, never reached the database.
+     */
+    private long credit(MutationJournal journal, UserAccount account, int amount) {
+        journal.mutationLock().readLock().lock();
+        try {
+            account.addToBalance(amount);
+            return journal.append(MutationJournal.CREDIT, account, amount);
+        } finally {
+            journal.mutationLock().readLock().unlock();
+        }
+    }
+
+    @Test
+    public void replaysRecordsSinceLastCheckpoint() throws IOException, SQLException {
+        UserAccount kept = account(1, 100);
+        UserAccount closed = account(2, 100);
+        MutationJournal journal = openJournal();
+        assertEquals(0, journal.recover());
+
+        credit(journal, kept, 50);
+        journal.checkpoint();
+        journal.awaitDurable(credit(journal, kept, 25));
+        UserAccount created = new UserAccount(CardNumberIssuer.format(CardNumberIssuer.cardNumber(3)), 4321, 0);
+        byte[] verifier = new byte[48];
+        verifier[0] = 7;
+        journal.awaitDurable(journal.appendCreate(created, verifier));
+        journal.awaitDurable(journal.append(MutationJournal.CLOSE, closed, 0));
+
+        // only the records after the checkpoint are replayed; the balance they hold is set, not added
+        assertEquals(3, openJournal().recover());
+        assertEquals(175, storedBalance(kept.getCardNumber()));
+        assertEquals(0, storedBalance(created.getCardNumber()));
+        // the journal holds the verifier of a new card, never its PIN
+        assertArrayEquals(verifier, dbManager.selectCredential(created.getCardNumber()));
+        assertNull(pinOf(created.getCardNumber()));
+        assertEquals(-1, storedBalance(closed.getCardNumber()));
+        // recovery ends with a checkpoint, so nothing is replayed twice
+        assertEquals(0, openJournal().recover());
+    }
+
+    @Test
+    public void stopsReplayAtTornRecord() throws IOException, SQLException {
+        UserAccount account = account(1, 100);
+        MutationJournal journal = openJournal();
+        journal.recover();
+        credit(journal, account, 10);
+        credit(journal, account, 20);
+        journal.awaitDurable(credit(journal, account, 30));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            // a crash left the second record half written
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), FIRST_RECORD + RECORD_SIZE + 20);
+        }
+
+        assertEquals(1, openJournal().recover());
+        assertEquals(110, storedBalance(account.getCardNumber()));
+    }
+
+    @Test
+    public void makesConcurrentWaitersDurable() throws Exception {
+        UserAccount account = account(1, 0);
+        MutationJournal journal = openJournal();
+        journal.recover();
+        int threads = 8;
+        int credits = 200;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < credits; i++) {
+                    journal.awaitDurable(credit(journal, account, 1));
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join(30_000);
+            assertFalse(worker.isAlive());
+        }
+
+        assertEquals(threads * credits, openJournal().recover());
+        assertEquals(threads * credits, storedBalance(account.getCardNumber()));
+    }
+
+    @Test
+    public void keepsLatestBalanceOfConcurrentCredits() throws Exception {
+        UserAccount stored = account(1, 0);
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch appended = new CountDownLatch(1);
+        Thread[] slow = new Thread[1];
+        UserAccount account = new UserAccount(stored.getCardNumber(), 1234, 0) {
+            @Override
+            public long getBalance() {
+                long balance = super.getBalance();
+                if (Thread.currentThread() == slow[0]) {
+                    // the other credit is appended while this one holds the balance it read, if it can be
+                    reading.countDown();
+                    try {
+                        appended.await(500, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return balance;
+            }
+        };
+        MutationJournal journal = openJournal();
+        journal.recover();
+        slow[0] = new Thread(() -> credit(journal, account, 10));
+        Thread fast = new Thread(() -> {
+            try {
+                reading.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            credit(journal, account, 5);
+            appended.countDown();
+        });
+        slow[0].start();
+        fast.start();
+        slow[0].join(10_000);
+        fast.join(10_000);
+        assertEquals(15, account.getBalance());
+        journal.awaitDurable(2);
+
+        // the record with the higher sequence number must hold the balance with both credits
+        assertEquals(2, openJournal().recover());
+        assertEquals(15, storedBalance(account.getCardNumber()));
+    }
+
+    @Test
+    public void tellsWhenJournalIsFull() throws IOException {
+        UserAccount account = account(1, 0);
+        MutationJournal journal = new MutationJournal(dbManager, file, FIRST_RECORD + 2 * RECORD_SIZE);
+        journals.add(journal);
+        journal.recover();
+        assertTrue(credit(journal, account, 1) > 0);
+        assertTrue(credit(journal, account, 1) > 0);
+        assertEquals(-1, credit(journal, account, 1));
+        journal.checkpoint();
+        assertTrue(credit(journal, account, 1) > 0);
+    }
+}
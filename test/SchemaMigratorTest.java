@@ -0,0 +1,62 @@
+import banking.SchemaMigrator;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SchemaMigratorTest {
+
+    private static Connection firstVersion() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE card (id INTEGER PRIMARY KEY AUTOINCREMENT, number TEXT, pin TEXT, "
+                    + "balance INTEGER DEFAULT 0)");
+            stmt.execute("PRAGMA user_version = 1");
+        }
+        return conn;
+    }
+
+    private static int count(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getInt(1) : -1;
+        }
+    }
+
+    @Test
+    public void migratesToLatestVersion() throws SQLException {
+        try (Connection conn = firstVersion()) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("INSERT INTO card(number, pin, balance) VALUES ('4000000000000010', '12', 50)");
+            }
+            SchemaMigrator migrator = SchemaMigrator.cardSchema();
+            assertEquals(migrator.latestVersion(), migrator.migrate(conn));
+            assertEquals(1, count(conn, "SELECT COUNT(*) FROM card WHERE pin = '0012' AND balance = 50"));
+        }
+    }
+
+    @Test
+    public void keepsCardsWithDuplicatedNumbers() throws SQLException {
+        try (Connection conn = firstVersion()) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("INSERT INTO card(number, pin, balance) VALUES ('4000000000000010', '1111', 50)");
+                stmt.execute("INSERT INTO card(number, pin, balance) VALUES ('4000000000000010', '2222', 70)");
+                stmt.execute("INSERT INTO card(number, pin, balance) VALUES ('4000000000000028', '3333', 90)");
+            }
+            try {
+                SchemaMigrator.cardSchema().migrate(conn);
+                fail("duplicated card numbers must stop the migration");
+            } catch (SQLException e) {
+                assertTrue(e.getMessage().contains("4000000000000010 (2 cards)"));
+            }
+            assertEquals(1, SchemaMigrator.currentVersion(conn));
+            assertEquals(210, count(conn, "SELECT SUM(balance) FROM card"));
+        }
+    }
+}
@@ -0,0 +1,333 @@
+import banking.CardNumberIssuer;
+import banking.ShardedDBManager;
+import banking.TestDatabase;
+import banking.TransferEngine;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedDBManagerTest {
+    private static final byte[] VERIFIER = new byte[48];
+
+    private TestDatabase database;
+    private ShardedDBManager dbManager;
+
+    @Before
+    public void create() {
+        database = new TestDatabase();
+    }
+
+    @After
+    public void delete() {
+        if (dbManager != null) {
+            dbManager.close();
+        }
+        database.delete();
+    }
+
+    private void open(int shards) {
+        if (dbManager != null) {
+            dbManager.close();
+        }
+        dbManager = new ShardedDBManager();
+        dbManager.setup(database.args("-shards", String.valueOf(shards)));
+    }
+
+    private Connection connect(int shard) throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite:" + dbManager.file() + (shard == 0 ? "" : ".shard" + shard));
+    }
+
+    private static int count(Connection conn, String sql, String... params) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setString(i + 1, params[i]);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : -1;
+            }
+        }
+    }
+
+    private static void execute(Connection conn, String sql, Object... params) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setObject(i + 1, params[i]);
+            }
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Finds a card number whose bucket a new database puts in the given shard.
+     */
+    private static String cardInShard(int shard, int shards, int skip) {
+        for (int i = 0; ; i++) {
+            String card = CardNumberIssuer.format(CardNumberIssuer.cardNumber(i));
+            if (ShardedDBManager.bucket(card) % shards == shard && skip-- == 0) {
+                return card;
+            }
+        }
+    }
+
+    private long totalBalance() {
+        AtomicLong total = new AtomicLong();
+        dbManager.selectAllCards((id, number, pin, balance, currency) -> total.addAndGet(balance));
+        return total.get();
+    }
+
+    private int pendingTransfers() throws SQLException {
+        int pending = 0;
+        for (int shard = 0; shard < dbManager.shardCount(); shard++) {
+            try (Connection conn = connect(shard)) {
+                pending += count(conn, "SELECT COUNT(*) FROM transfer_pending");
+            }
+        }
+        return pending;
+    }
+
+    @Test
+    public void keepsBucketsOfStoredCards() {
+        // buckets are saved in shard maps, so the hash must never change
+        assertEquals(273, ShardedDBManager.bucket("4000008242501372"));
+        assertEquals(632, ShardedDBManager.bucket("4000000000000010"));
+    }
+
+    @Test
+    public void putsOtherNumbersInFirstBucket() {
+        assertEquals(0, ShardedDBManager.bucket("4000"));
+        assertEquals(0, ShardedDBManager.bucket("400000ABCDEFGHI1"));
+        assertEquals(0, ShardedDBManager.bucket(null));
+    }
+
+    @Test
+    public void spreadsConsecutiveCardsOverBuckets() {
+        int[] counts = new int[ShardedDBManager.BUCKETS];
+        int cards = 100 * ShardedDBManager.BUCKETS;
+        for (int i = 0; i < cards; i++) {
+            counts[ShardedDBManager.bucket(CardNumberIssuer.format(CardNumberIssuer.cardNumber(i)))]++;
+        }
+        for (int count : counts) {
+            assertTrue(String.valueOf(count), count >= 50 && count <= 150);
+        }
+    }
+
+    @Test
+    public void transfersBetweenShardsInTwoPhases() throws SQLException {
+        open(4);
+        String sender = cardInShard(0, 4, 0);
+        String recipient = cardInShard(1, 4, 0);
+        String full = cardInShard(2, 4, 0);
+        assertTrue(dbManager.insert(sender, 1234, 1000, VERIFIER));
+        assertTrue(dbManager.insert(recipient, 1234, 0, VERIFIER));
+        assertTrue(dbManager.insert(full, 1234, Long.MAX_VALUE - 10, VERIFIER));
+        String currency = dbManager.selectCurrencyByCard(sender);
+
+        assertEquals(TransferEngine.Result.SUCCESS,
+                dbManager.transfer(sender, currency, recipient, currency, 300, 300));
+        assertEquals(700, dbManager.selectBalanceByCard(sender));
+        assertEquals(300, dbManager.selectBalanceByCard(recipient));
+        try (Connection conn = connect(1)) {
+            assertEquals(1, count(conn, "SELECT COUNT(*) FROM transfer WHERE from_number = ? AND txid IS NOT NULL",
+                    sender));
+        }
+
+        // refused by the sender's shard in the first phase
+        assertEquals(TransferEngine.Result.NOT_ENOUGH_MONEY,
+                dbManager.transfer(sender, currency, recipient, currency, 800, 800));
+        // refused by the recipient's shard in the second phase, so the sender gets the money back
+        assertEquals(TransferEngine.Result.BALANCE_OVERFLOW,
+                dbManager.transfer(sender, currency, full, currency, 100, 100));
+        assertEquals(700, dbManager.selectBalanceByCard(sender));
+        assertEquals(Long.MAX_VALUE - 10, dbManager.selectBalanceByCard(full));
+
+        // the completed transfer is settled by the next open at the latest
+        open(4);
+        assertEquals(0, pendingTransfers());
+        assertEquals(700, dbManager.selectBalanceByCard(sender));
+        assertEquals(300, dbManager.selectBalanceByCard(recipient));
+    }
+
+    @Test
+    public void settlesTransfersLeftPending() throws SQLException {
+        open(2);
+        String sender = cardInShard(0, 2, 0);
+        String recipient = cardInShard(1, 2, 0);
+        assertTrue(dbManager.insert(sender, 1234, 1000, VERIFIER));
+        assertTrue(dbManager.insert(recipient, 1234, 0, VERIFIER));
+        String currency = dbManager.selectCurrencyByCard(sender);
+        dbManager.close();
+        long now = System.currentTimeMillis();
+        // as if the program stopped after the first phase of one transfer and the second phase of another
+        try (Connection conn = connect(0)) {
+            execute(conn, "UPDATE card SET balance = balance - 500 WHERE number = ?", sender);
+            execute(conn, "INSERT INTO transfer_pending VALUES (?, ?, ?, ?, ?, ?, ?)",
+                    "not-credited", sender, recipient, 300, currency, 300, now);
+            execute(conn, "INSERT INTO transfer_pending VALUES (?, ?, ?, ?, ?, ?, ?)",
+                    "credited", sender, recipient, 200, currency, 200, now);
+        }
+        try (Connection conn = connect(1)) {
+            execute(conn, "UPDATE card SET balance = balance + 200 WHERE number = ?", recipient);
+            execute(conn, "INSERT INTO transfer(from_number, to_number, amount, created_at, currency, "
+                    + "credited_amount, credited_currency, txid) VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+                    sender, recipient, 200, now, currency, 200, currency, "credited");
+        }
+        dbManager = null;
+
+        open(2);
+        assertEquals(0, pendingTransfers());
+        assertEquals(800, dbManager.selectBalanceByCard(sender));
+        assertEquals(200, dbManager.selectBalanceByCard(recipient));
+    }
+
+    @Test
+    public void refundsPendingTransferAfterItsCardMoved() throws SQLException {
+        open(2);
+        String sender = null;
+        for (int skip = 0; sender == null || ShardedDBManager.bucket(sender) % 3 == 0; skip++) {
+            sender = cardInShard(0, 2, skip);
+        }
+        String recipient = cardInShard(1, 2, 0);
+        assertTrue(dbManager.insert(sender, 1234, 1000, VERIFIER));
+        assertTrue(dbManager.insert(recipient, 1234, 0, VERIFIER));
+        String currency = dbManager.selectCurrencyByCard(sender);
+        // as if the recipient's shard could not answer in the second phase
+        try (Connection conn = connect(0)) {
+            execute(conn, "UPDATE card SET balance = balance - 300 WHERE number = ?", sender);
+            execute(conn, "INSERT INTO transfer_pending VALUES (?, ?, ?, ?, ?, ?, ?)",
+                    "unanswered", sender, recipient, 300, currency, 300, System.currentTimeMillis());
+        }
+        // the sender's bucket leaves shard 0
+        assertTrue(dbManager.reshard(3) > 0);
+        try (Connection conn = connect(0)) {
+            assertEquals(0, count(conn, "SELECT COUNT(*) FROM transfer_pending"));
+        }
+        assertEquals(1, pendingTransfers());
+
+        open(3);
+        assertEquals(0, pendingTransfers());
+        assertEquals(1000, dbManager.selectBalanceByCard(sender));
+        assertEquals(0, dbManager.selectBalanceByCard(recipient));
+    }
+
+    @Test
+    public void keepsTransferPendingWhenRefundWouldOverflow() throws SQLException {
+        open(2);
+        String sender = cardInShard(0, 2, 0);
+        String recipient = cardInShard(1, 2, 0);
+        assertTrue(dbManager.insert(sender, 1234, Long.MAX_VALUE - 100, VERIFIER));
+        assertTrue(dbManager.insert(recipient, 1234, 0, VERIFIER));
+        String currency = dbManager.selectCurrencyByCard(sender);
+        dbManager.close();
+        try (Connection conn = connect(0)) {
+            execute(conn, "INSERT INTO transfer_pending VALUES (?, ?, ?, ?, ?, ?, ?)",
+                    "too-much", sender, recipient, 300, currency, 300, System.currentTimeMillis());
+        }
+        dbManager = null;
+
+        open(2);
+        assertEquals(1, pendingTransfers());
+        assertEquals(Long.MAX_VALUE - 100, dbManager.selectBalanceByCard(sender));
+    }
+
+    @Test
+    public void finishesOrUndoesInterruptedBucketMoves() throws SQLException {
+        open(2);
+        String copied = cardInShard(0, 2, 0);
+        String switched = cardInShard(0, 2, 1);
+        assertTrue(dbManager.insert(copied, 1234, 100, VERIFIER));
+        assertTrue(dbManager.insert(switched, 1234, 200, VERIFIER));
+        String currency = dbManager.selectCurrencyByCard(copied);
+        int copiedBucket = ShardedDBManager.bucket(copied);
+        int switchedBucket = ShardedDBManager.bucket(switched);
+        assertTrue(copiedBucket != switchedBucket);
+        dbManager.close();
+        // both buckets were copied to shard 1; only the second one's map entry was switched
+        try (Connection conn = connect(1)) {
+            execute(conn, "INSERT INTO card(number, pin, balance, currency) VALUES (?, '1234', 100, ?)",
+                    copied, currency);
+            execute(conn, "INSERT INTO card(number, pin, balance, currency) VALUES (?, '1234', 200, ?)",
+                    switched, currency);
+        }
+        try (Connection conn = connect(0)) {
+            execute(conn, "INSERT INTO shard_move VALUES (?, 0, 1)", copiedBucket);
+            execute(conn, "INSERT INTO shard_move VALUES (?, 0, 1)", switchedBucket);
+            execute(conn, "UPDATE shard_bucket SET shard = 1 WHERE bucket = ?", switchedBucket);
+        }
+        dbManager = null;
+
+        open(2);
+        try (Connection first = connect(0); Connection second = connect(1)) {
+            assertEquals(0, count(first, "SELECT COUNT(*) FROM shard_move"));
+            assertEquals(1, count(first, "SELECT COUNT(*) FROM card WHERE number = ?", copied));
+            assertEquals(0, count(second, "SELECT COUNT(*) FROM card WHERE number = ?", copied));
+            assertEquals(0, count(first, "SELECT COUNT(*) FROM card WHERE number = ?", switched));
+            assertEquals(1, count(second, "SELECT COUNT(*) FROM card WHERE number = ?", switched));
+        }
+        assertEquals(100, dbManager.selectBalanceByCard(copied));
+        assertEquals(200, dbManager.selectBalanceByCard(switched));
+        assertEquals(300, totalBalance());
+    }
+
+    @Test
+    public void keepsMoneyWhileReshardingUnderTransfers() throws Exception {
+        open(2);
+        List<String> cards = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            String card = CardNumberIssuer.format(CardNumberIssuer.cardNumber(i));
+            assertTrue(dbManager.insert(card, 1234, 1000, VERIFIER));
+            cards.add(card);
+        }
+        String currency = dbManager.selectCurrencyByCard(cards.get(0));
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong succeeded = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Random random = new Random(t);
+            Thread thread = new Thread(() -> {
+                while (running.get()) {
+                    String from = cards.get(random.nextInt(cards.size()));
+                    String to = cards.get(random.nextInt(cards.size()));
+                    if (!from.equals(to) && dbManager.transfer(from, currency, to, currency, 10, 10)
+                            == TransferEngine.Result.SUCCESS) {
+                        succeeded.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        try {
+            assertTrue(dbManager.reshard(4) > 0);
+            assertTrue(dbManager.reshard(3) > 0);
+        } finally {
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        assertTrue(succeeded.get() > 0);
+        assertEquals(3, dbManager.shardCount());
+        assertEquals(64 * 1000, totalBalance());
+
+        open(3);
+        assertEquals(0, pendingTransfers());
+        assertEquals(64 * 1000, totalBalance());
+        for (String card : cards) {
+            assertTrue(dbManager.selectBalanceByCard(card) >= 0);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import banking.AccountRegistry;
+import banking.CardNumberIssuer;
+import banking.DBManager;
+import banking.FxRateTable;
+import banking.StatementImport;
+import banking.TestDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StatementImportTest {
+    private static final byte[] VERIFIER = new byte[48];
+
+    private TestDatabase database;
+    private DBManager dbManager;
+    private Path input;
+    private Path rejects;
+
+    @Before
+    public void open() throws IOException {
+        database = new TestDatabase();
+        dbManager = database.open();
+        input = Files.createTempFile("statement", ".csv");
+        rejects = Files.createTempFile("statement", ".rejects");
+    }
+
+    @After
+    public void delete() throws IOException {
+        dbManager.close();
+        database.delete();
+        Files.deleteIfExists(input);
+        Files.deleteIfExists(rejects);
+    }
+
+    private List<String> newCards(int count) {
+        List<String> cards = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String card = CardNumberIssuer.format(CardNumberIssuer.cardNumber(i));
+            dbManager.insert(card, 1234, 0, VERIFIER);
+            cards.add(card);
+        }
+        return cards;
+    }
+
+    private long run(List<String> lines, int partitions) throws IOException {
+        Files.write(input, lines);
+        AccountRegistry registry = new AccountRegistry();
+        registry.load(dbManager);
+        return new StatementImport(registry, dbManager, new FxRateTable(), partitions, 16).run(input, rejects);
+    }
+
+    @Test
+    public void appliesTransfersInFileOrderAcrossPartitions() throws IOException {
+        // every transfer spends the money received by the one before it
+        List<String> cards = newCards(8);
+        List<String> lines = new ArrayList<>();
+        lines.add(cards.get(0) + ",100,INCOME,");
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < cards.size(); i++) {
+                lines.add(cards.get(i) + ",100,TRANSFER," + cards.get((i + 1) % cards.size()));
+            }
+        }
+        assertEquals(lines.size(), run(lines, 4));
+        assertEquals(0, Files.size(rejects));
+        assertEquals(100, dbManager.selectBalanceByCard(cards.get(0)));
+        for (int i = 1; i < cards.size(); i++) {
+            assertEquals(0, dbManager.selectBalanceByCard(cards.get(i)));
+        }
+    }
+
+    @Test
+    public void rejectsRecordsOfClosedCard() throws IOException {
+        List<String> cards = newCards(2);
+        Files.write(input, List.of(cards.get(0) + ",100,INCOME,", cards.get(1) + ",100,INCOME,",
+                cards.get(1) + ",100,TRANSFER," + cards.get(0)));
+        AccountRegistry registry = new AccountRegistry();
+        registry.load(dbManager);
+        // closed after the accounts were loaded into memory
+        dbManager.deleteCard(cards.get(0));
+        assertEquals(1, new StatementImport(registry, dbManager, new FxRateTable(), 2, 16).run(input, rejects));
+        String rejected = new String(Files.readAllBytes(rejects));
+        assertTrue(rejected, rejected.contains("1,NO_SUCH_CARD,"));
+        assertTrue(rejected, rejected.contains("3,NO_SUCH_RECIPIENT,"));
+        assertEquals(100, dbManager.selectBalanceByCard(cards.get(1)));
+    }
+}
@@ -0,0 +1,157 @@
+import banking.CardNumberIssuer;
+import banking.DBManager;
+import banking.FxRateTable;
+import banking.TestDatabase;
+import banking.TransferEngine;
+import banking.UserAccount;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TransferEngineTest {
+    private static final byte[] VERIFIER = new byte[48];
+
+    private TestDatabase database;
+    private DBManager dbManager;
+    private final Map<String, UserAccount> accounts = new HashMap<>();
+    private TransferEngine engine;
+    private String currency;
+
+    @Before
+    public void open() {
+        database = new TestDatabase();
+        dbManager = database.open();
+        engine = new TransferEngine(dbManager, accounts::get, new FxRateTable());
+    }
+
+    @After
+    public void delete() {
+        dbManager.close();
+        database.delete();
+    }
+
+    private UserAccount account(int index, long balance) {
+        String card = CardNumberIssuer.format(CardNumberIssuer.cardNumber(index));
+        assertTrue(dbManager.insert(card, 1234, balance, VERIFIER));
+        currency = dbManager.selectCurrencyByCard(card);
+        UserAccount account = new UserAccount(card, 1234, balance, currency);
+        accounts.put(card, account);
+        return account;
+    }
+
+    private int ledgerRows(String from, String to) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbManager.file());
+             PreparedStatement pstmt = conn.prepareStatement(
+                     "SELECT COUNT(*) FROM transfer WHERE from_number = ? AND to_number = ?")) {
+            pstmt.setString(1, from);
+            pstmt.setString(2, to);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : -1;
+            }
+        }
+    }
+
+    @Test
+    public void movesMoneyAndRecordsTransfer() throws SQLException {
+        UserAccount from = account(1, 1000);
+        UserAccount to = account(2, 0);
+
+        assertEquals(TransferEngine.Result.SUCCESS, engine.transfer(from, to.getCardNumber(), 300));
+        assertEquals(700, from.getBalance());
+        assertEquals(300, to.getBalance());
+        assertEquals(700, dbManager.selectBalanceByCard(from.getCardNumber()));
+        assertEquals(300, dbManager.selectBalanceByCard(to.getCardNumber()));
+        assertEquals(1, ledgerRows(from.getCardNumber(), to.getCardNumber()));
+    }
+
+    @Test
+    public void creditsCardsNotHeldInMemory() {
+        UserAccount from = account(1, 1000);
+        UserAccount to = account(2, 0);
+        accounts.remove(to.getCardNumber());
+
+        assertEquals(TransferEngine.Result.SUCCESS, engine.transfer(from, to.getCardNumber(), 250));
+        assertEquals(750, from.getBalance());
+        assertEquals(250, dbManager.selectBalanceByCard(to.getCardNumber()));
+    }
+
+    @Test
+    public void refusesTransfersWithoutChangingBalances() throws SQLException {
+        UserAccount from = account(1, 1000);
+        UserAccount to = account(2, 0);
+        UserAccount full = account(3, Long.MAX_VALUE - 10);
+        String missing = CardNumberIssuer.format(CardNumberIssuer.cardNumber(4));
+
+        assertEquals(TransferEngine.Result.INVALID_AMOUNT, engine.transfer(from, to.getCardNumber(), 0));
+        assertEquals(TransferEngine.Result.SAME_ACCOUNT, engine.transfer(from, from.getCardNumber(), 10));
+        assertEquals(TransferEngine.Result.NO_SUCH_RECIPIENT, engine.transfer(from, missing, 10));
+        assertEquals(TransferEngine.Result.NOT_ENOUGH_MONEY, engine.transfer(from, to.getCardNumber(), 1001));
+        // the debit is rolled back when the credit would overflow
+        assertEquals(TransferEngine.Result.BALANCE_OVERFLOW, engine.transfer(from, full.getCardNumber(), 100));
+
+        assertEquals(1000, from.getBalance());
+        assertEquals(0, to.getBalance());
+        assertEquals(Long.MAX_VALUE - 10, full.getBalance());
+        assertEquals(1000, dbManager.selectBalanceByCard(from.getCardNumber()));
+        assertEquals(0, dbManager.selectBalanceByCard(to.getCardNumber()));
+        assertEquals(Long.MAX_VALUE - 10, dbManager.selectBalanceByCard(full.getCardNumber()));
+        assertEquals(0, ledgerRows(from.getCardNumber(), full.getCardNumber()));
+    }
+
+    @Test
+    public void tellsWhichCardOfDatabaseTransferIsMissing() {
+        UserAccount from = account(1, 1000);
+        String missing = CardNumberIssuer.format(CardNumberIssuer.cardNumber(4));
+
+        assertEquals(TransferEngine.Result.NO_SUCH_SENDER,
+                dbManager.transfer(missing, currency, from.getCardNumber(), currency, 10, 10));
+        assertEquals(TransferEngine.Result.NO_SUCH_RECIPIENT,
+                dbManager.transfer(from.getCardNumber(), currency, missing, currency, 10, 10));
+        assertEquals(1000, dbManager.selectBalanceByCard(from.getCardNumber()));
+    }
+
+    @Test
+    public void keepsMoneyUnderConcurrentTransfers() throws InterruptedException {
+        List<UserAccount> cards = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            cards.add(account(i, 1000));
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Random random = new Random(t);
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    UserAccount from = cards.get(random.nextInt(cards.size()));
+                    UserAccount to = cards.get(random.nextInt(cards.size()));
+                    engine.transfer(from, to.getCardNumber(), 1 + random.nextInt(400));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long total = 0;
+        for (UserAccount card : cards) {
+            assertTrue(card.getBalance() >= 0);
+            assertEquals(card.getBalance(), dbManager.selectBalanceByCard(card.getCardNumber()));
+            total += card.getBalance();
+        }
+        assertEquals(8 * 1000, total);
+    }
+}
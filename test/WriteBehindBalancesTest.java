@@ -0,0 +1,145 @@
+import banking.CardNumberIssuer;
+import banking.DBManager;
+import banking.TestDatabase;
+import banking.UserAccount;
+import banking.WriteBehindBalances;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class WriteBehindBalancesTest {
+    private TestDatabase database;
+    private DBManager dbManager;
+
+    @Before
+    public void open() {
+        database = new TestDatabase();
+        dbManager = database.open();
+    }
+
+    @After
+    public void delete() {
+        dbManager.close();
+        database.delete();
+    }
+
+    private UserAccount newAccount(int index) {
+        String number = CardNumberIssuer.format(CardNumberIssuer.cardNumber(index));
+        dbManager.insert(number, 1234, 0, new byte[48]);
+        return new UserAccount(number, 1234, 0);
+    }
+
+    private int storedBalance(String card) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbManager.file());
+             PreparedStatement pstmt = conn.prepareStatement("SELECT balance FROM card WHERE number = ?")) {
+            pstmt.setString(1, card);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : -1;
+            }
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbManager.file());
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    @Test
+    public void recoversBalancesLeftInJournal() throws IOException, SQLException {
+        UserAccount account = newAccount(1);
+        // never flushed on its own, as if the program died before the interval ended
+        WriteBehindBalances crashed = new WriteBehindBalances(dbManager, 3_600_000, 1_000_000);
+        crashed.recover();
+        account.setBalance(300);
+        crashed.balanceChanged(account);
+        account.setBalance(500);
+        crashed.balanceChanged(account);
+        assertEquals(0, storedBalance(account.getCardNumber()));
+
+        WriteBehindBalances restarted = new WriteBehindBalances(dbManager, 3_600_000, 1_000_000);
+        assertEquals(1, restarted.recover());
+        assertEquals(500, storedBalance(account.getCardNumber()));
+        restarted.close();
+    }
+
+    @Test
+    public void keepsEveryConcurrentChange() throws Exception {
+        List<UserAccount> accounts = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            accounts.add(newAccount(i));
+        }
+        WriteBehindBalances crashed = new WriteBehindBalances(dbManager, 3_600_000, 1_000_000);
+        crashed.recover();
+        List<Thread> threads = new ArrayList<>();
+        for (UserAccount account : accounts) {
+            Thread thread = new Thread(() -> {
+                for (int i = 1; i <= 50; i++) {
+                    account.setBalance(i);
+                    crashed.balanceChanged(account);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        WriteBehindBalances restarted = new WriteBehindBalances(dbManager, 3_600_000, 1_000_000);
+        assertEquals(accounts.size(), restarted.recover());
+        for (UserAccount account : accounts) {
+            assertEquals(50, storedBalance(account.getCardNumber()));
+        }
+        restarted.close();
+    }
+
+    @Test
+    public void flushWritesBalancesAndEmptiesJournal() throws IOException, SQLException {
+        UserAccount account = newAccount(1);
+        WriteBehindBalances writeBehind = new WriteBehindBalances(dbManager, 3_600_000, 1_000_000);
+        writeBehind.recover();
+        account.setBalance(700);
+        writeBehind.balanceChanged(account);
+        writeBehind.flush();
+        assertEquals(0, writeBehind.pending());
+        assertEquals(700, storedBalance(account.getCardNumber()));
+
+        WriteBehindBalances restarted = new WriteBehindBalances(dbManager, 3_600_000, 1_000_000);
+        assertEquals(0, restarted.recover());
+        writeBehind.close();
+        restarted.close();
+    }
+
+    @Test
+    public void keepsBalanceDirtyWhenWritingItFails() throws Exception {
+        UserAccount account = newAccount(1);
+        WriteBehindBalances writeBehind = new WriteBehindBalances(dbManager, 3_600_000, 1_000_000);
+        writeBehind.recover();
+        account.setBalance(700);
+        writeBehind.balanceChanged(account);
+        execute("CREATE TRIGGER refuse BEFORE UPDATE ON card BEGIN SELECT RAISE(ABORT, 'refused'); END");
+        writeBehind.flushNow(account.getCardNumber());
+        assertEquals(1, writeBehind.pending());
+        assertEquals(0, storedBalance(account.getCardNumber()));
+
+        execute("DROP TRIGGER refuse");
+        writeBehind.flush();
+        assertEquals(0, writeBehind.pending());
+        assertEquals(700, storedBalance(account.getCardNumber()));
+        writeBehind.close();
+    }
+}
@@ -0,0 +1,158 @@
+import banking.ConnectionPool;
+import banking.Metrics;
+import banking.WriteScheduler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WriteSchedulerTest {
+    private Path file;
+    private ConnectionPool pool;
+    private Metrics metrics;
+    private WriteScheduler scheduler;
+
+    @Before
+    public void open() throws Exception {
+        file = Files.createTempFile("scheduler", ".s3db");
+        pool = new ConnectionPool(this::connect, 1);
+        try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE item (value INTEGER)");
+        }
+        metrics = Metrics.enabled();
+        scheduler = new WriteScheduler(pool, 64, 0, metrics);
+    }
+
+    @After
+    public void close() throws Exception {
+        scheduler.close();
+        pool.close();
+        metrics.close();
+        Files.deleteIfExists(file);
+    }
+
+    private Connection connect() {
+        try {
+            return DriverManager.getConnection("jdbc:sqlite:" + file);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int count() throws SQLException {
+        try (Connection conn = connect(); Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM item")) {
+            return rs.next() ? rs.getInt(1) : -1;
+        }
+    }
+
+    private static WriteScheduler.Write<Integer> insert(int value) {
+        return conn -> {
+            PreparedStatement pstmt = conn.prepare("INSERT INTO item(value) VALUES(?)");
+            pstmt.setInt(1, value);
+            return pstmt.executeUpdate();
+        };
+    }
+
+    /**
+     * Keeps the writer thread busy until the returned latch is released,
+     * so writes submitted meanwhile all go into the next batch.
+     */
+    private CountDownLatch blockWriter() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(conn -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        return release;
+    }
+
+    @Test
+    public void commitsWritesQueuedTogetherInOneTransaction() throws Exception {
+        CountDownLatch release = blockWriter();
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(scheduler.submit(insert(i)));
+        }
+        release.countDown();
+        for (CompletableFuture<Integer> future : futures) {
+            assertEquals(1, (int) future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(20, count());
+        // the blocking write alone, then the 20 inserts
+        assertEquals(2, metrics.latency(Metrics.Operation.GROUP_COMMIT).getCount());
+        assertEquals(21, metrics.getRows(Metrics.Operation.GROUP_COMMIT));
+    }
+
+    @Test
+    public void rollsBackOnlyTheFailedWrite() throws Exception {
+        CountDownLatch release = blockWriter();
+        CompletableFuture<Integer> first = scheduler.submit(insert(1));
+        CompletableFuture<Integer> failed = scheduler.submit(conn -> {
+            insert(2).apply(conn);
+            throw new SQLException("refused");
+        });
+        CompletableFuture<Integer> last = scheduler.submit(insert(3));
+        release.countDown();
+        assertEquals(1, (int) first.get(10, TimeUnit.SECONDS));
+        assertEquals(1, (int) last.get(10, TimeUnit.SECONDS));
+        try {
+            failed.get(10, TimeUnit.SECONDS);
+            fail("the write threw");
+        } catch (ExecutionException e) {
+            assertEquals("refused", e.getCause().getMessage());
+        }
+        assertEquals(2, count());
+    }
+
+    @Test
+    public void keepsWritingAfterAnError() throws Exception {
+        try {
+            scheduler.execute(conn -> {
+                insert(1).apply(conn);
+                throw new AssertionError("broken write");
+            });
+            fail("the write threw");
+        } catch (SQLException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+        assertEquals(1, (int) scheduler.execute(insert(2)));
+        assertEquals(1, count());
+    }
+
+    @Test
+    public void failsWritesAfterClose() throws Exception {
+        scheduler.close();
+        try {
+            scheduler.execute(insert(1));
+            fail("the scheduler is closed");
+        } catch (SQLException e) {
+            assertEquals("Write scheduler is closed", e.getMessage());
+        }
+    }
+}
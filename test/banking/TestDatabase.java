@@ -0,0 +1,84 @@
+package banking;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Course: JetBrains Academy, Java Developer Track
+ * Project: Simple Banking System
+ * Purpose: A console-based program to simulate operations in a bank.
+ *
+ * TestDatabase names a fresh SQLite database for one test or benchmark trial
+ * and removes it afterwards, with every file created next to it. The files
+ * are found where {@link DBManager#file(String)} puts the database.
+ *
+ * @author Mirek Drozd
+ * @version 1.1
+ */
+public final class TestDatabase {
+    public final String name;
+
+    /**
+     * Names a database for a test.
+     */
+    public TestDatabase() {
+        this("test");
+    }
+
+    /**
+     * @param prefix Start of the database name.
+     */
+    public TestDatabase(String prefix) {
+        this.name = prefix + "-" + System.nanoTime() + ".s3db";
+    }
+
+    /**
+     * @return Path of the database file.
+     */
+    public Path file() {
+        return DBManager.file(name);
+    }
+
+    /**
+     * @param extra Further program arguments.
+     * @return Program arguments that open this database.
+     */
+    public String[] args(String... extra) {
+        String[] args = new String[extra.length + 2];
+        args[0] = "-fileName";
+        args[1] = name;
+        System.arraycopy(extra, 0, args, 2, extra.length);
+        return args;
+    }
+
+    /**
+     * @param extra Further program arguments.
+     * @return New manager of this database.
+     */
+    public DBManager open(String... extra) {
+        DBManager dbManager = new DBManager();
+        dbManager.setup(args(extra));
+        return dbManager;
+    }
+
+    /**
+     * Deletes the database and the files next to it.
+     */
+    public void delete() {
+        Path file = file();
+        Path directory = file.getParent() == null ? Paths.get(".") : file.getParent();
+        String prefix = file.getFileName().toString();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path other : files) {
+                if (other.getFileName().toString().startsWith(prefix)) {
+                    Files.deleteIfExists(other);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}